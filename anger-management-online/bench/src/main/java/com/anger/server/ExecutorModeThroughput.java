@@ -0,0 +1,143 @@
+// file: src/main/java/com/anger/server/ExecutorModeThroughput.java
+package com.anger.server;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts AngerServer in-process once per executor mode and drives /join traffic against it
+ * while every room has live SSE subscribers, then prints requests/s and latency percentiles.
+ *
+ * <pre>
+ * java -cp server/target/classes:bench/target/classes com.anger.server.ExecutorModeThroughput \
+ *      seconds=10 workers=32 rooms=64 subscribers=2 stalled=1 modes=single,pool,virtual
+ * </pre>
+ *
+ * {@code stalled} opens that many /events connections that never read, which is what a dead
+ * mobile client looks like to the server.
+ */
+public class ExecutorModeThroughput {
+
+  public static void main(String[] args) throws Exception {
+    Map<String,String> opts = new HashMap<>();
+    for (String a : args) { String[] kv = a.split("=", 2); opts.put(kv[0], kv.length > 1 ? kv[1] : ""); }
+    int seconds = Integer.parseInt(opts.getOrDefault("seconds", "10"));
+    int workers = Integer.parseInt(opts.getOrDefault("workers", "32"));
+    int rooms = Integer.parseInt(opts.getOrDefault("rooms", "64"));
+    int subscribers = Integer.parseInt(opts.getOrDefault("subscribers", "2"));
+    int stalled = Integer.parseInt(opts.getOrDefault("stalled", "0"));
+    String[] modes = opts.getOrDefault("modes", "single,pool,virtual").split(",");
+
+    System.out.printf("%-8s %10s %10s %10s %10s %8s%n", "mode", "req/s", "p50(ms)", "p99(ms)", "max(ms)", "errors");
+    for (String m : modes) {
+      Result r = run(AngerServer.ExecutorMode.parse(m), seconds, workers, rooms, subscribers, stalled);
+      System.out.printf("%-8s %10.0f %10.2f %10.2f %10.2f %8d%n", m, r.throughput,
+          r.p50 / 1e6, r.p99 / 1e6, r.max / 1e6, r.errors);
+    }
+    System.exit(0);
+  }
+
+  static class Result {
+    double throughput; long p50, p99, max, errors;
+  }
+
+  static Result run(AngerServer.ExecutorMode mode, int seconds, int workers, int rooms, int subscribers, int stalled)
+      throws Exception {
+    AngerServer.registry.clear();
+    AngerServer.Config cfg = new AngerServer.Config();
+    cfg.port = 0;
+    cfg.backlog = 1024;
+    cfg.executor = mode;
+    HttpServer server = AngerServer.start(cfg);
+    int port = server.getAddress().getPort();
+    String base = "http://127.0.0.1:" + port;
+
+    HttpClient http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(2))
+        .executor(Executors.newCachedThreadPool(AngerServer.daemonFactory("bench-client")))
+        .build();
+
+    // Subscribers read their streams and throw the lines away.
+    List<CompletableFuture<?>> streams = new ArrayList<>();
+    for (int i = 0; i < rooms; i++) {
+      for (int s = 0; s < subscribers; s++) {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/events?room=bench-" + i)).GET().build();
+        streams.add(http.sendAsync(req, HttpResponse.BodyHandlers.ofLines())
+            .thenAccept(resp -> resp.body().forEach(line -> { })));
+      }
+    }
+    List<Socket> dead = new ArrayList<>();
+    for (int i = 0; i < stalled; i++) {
+      Socket sock = new Socket("127.0.0.1", port);
+      sock.setReceiveBufferSize(1024);
+      OutputStream os = sock.getOutputStream();
+      os.write(("GET /events?room=bench-" + (i % rooms) + " HTTP/1.1\r\nHost: localhost\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII));
+      os.flush();
+      dead.add(sock);
+    }
+    Thread.sleep(500);
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+    AtomicLong errors = new AtomicLong();
+    ExecutorService pool = Executors.newFixedThreadPool(workers, AngerServer.daemonFactory("bench-worker"));
+    List<Future<long[]>> parts = new ArrayList<>();
+    for (int w = 0; w < workers; w++) {
+      final int id = w;
+      parts.add(pool.submit(() -> {
+        long[] lat = new long[1 << 16];
+        int n = 0;
+        int i = 0;
+        while (System.nanoTime() < deadline) {
+          String room = "bench-" + ((id + i++) % rooms);
+          HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/join?room=" + room + "&name=Player%201"))
+              .timeout(Duration.ofSeconds(2))
+              .POST(HttpRequest.BodyPublishers.noBody()).build();
+          long t0 = System.nanoTime();
+          try {
+            http.send(req, HttpResponse.BodyHandlers.discarding());
+            if (n == lat.length) lat = Arrays.copyOf(lat, n * 2);
+            lat[n++] = System.nanoTime() - t0;
+          } catch (Exception e) {
+            errors.incrementAndGet();
+          }
+        }
+        return Arrays.copyOf(lat, n);
+      }));
+    }
+    long[] all = new long[0];
+    for (Future<long[]> f : parts) {
+      long[] l = f.get();
+      int off = all.length;
+      all = Arrays.copyOf(all, off + l.length);
+      System.arraycopy(l, 0, all, off, l.length);
+    }
+    pool.shutdownNow();
+    for (Socket s : dead) s.close();
+    for (CompletableFuture<?> f : streams) f.cancel(true);
+    server.stop(0);
+    if (server.getExecutor() instanceof ExecutorService) ((ExecutorService) server.getExecutor()).shutdownNow();
+
+    Arrays.sort(all);
+    Result r = new Result();
+    r.throughput = all.length / (double) seconds;
+    r.errors = errors.get();
+    if (all.length > 0) {
+      r.p50 = all[(int) (all.length * 0.50)];
+      r.p99 = all[Math.min(all.length - 1, (int) (all.length * 0.99))];
+      r.max = all[all.length - 1];
+    }
+    return r;
+  }
+}
@@ -0,0 +1,85 @@
+// file: src/main/java/com/anger/server/HotPathBenchmark.java
+package com.anger.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Baseline for the per-request work in AngerServer: the rock/paper/scissors rule, the
+ * scoring math an /action applies, state encoding, and request parsing. Inputs cycle
+ * through every case so branch prediction cannot learn a single path.
+ *
+ * <p>Forks, heap size and GC are pinned so runs are comparable across machines and
+ * commits; keep the JSON result of a run as the baseline for the next change:
+ *
+ * <pre>
+ * java -jar bench/target/benchmarks.jar HotPathBenchmark -rf json -rff hotpath-baseline.json
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:+UseParallelGC", "-XX:+AlwaysPreTouch"})
+public class HotPathBenchmark {
+
+  static final String[] MOVES = {"rock", "paper", "scissors"};
+  static final String[] ACTIONS = {"Slap", "Punch", "Kick"};
+
+  AngerServer.Room room;
+  AngerServer.PlayerState winner, loser;
+  byte[] moveBody;
+  String joinQuery;
+  int i;
+
+  @Setup
+  public void setup() {
+    room = new AngerServer.Room();
+    room.id = "bench";
+    room.seq = 42;
+    room.round = 7;
+    room.p1.score = 18;
+    room.p2.score = 11;
+    room.p1Move = "rock";
+    room.pendingActionFor = "P1";
+    winner = new AngerServer.PlayerState("Player 1");
+    loser = new AngerServer.PlayerState("Player 2");
+    moveBody = "{\"room\":\"room-123\",\"player\":\"P1\",\"move\":\"scissors\"}".getBytes(StandardCharsets.UTF_8);
+    joinQuery = "room=room-123&name=Player%201";
+  }
+
+  @Benchmark
+  public void determineWinner(Blackhole bh) {
+    // all nine pairs, one per call
+    int n = i++;
+    bh.consume(AngerServer.determineWinner(MOVES[n % 3], MOVES[(n / 3) % 3]));
+  }
+
+  @Benchmark
+  public int applyAction() {
+    // Reset to the starting meters so every call takes the same clamping path.
+    winner.score = 0; winner.anger = 50; winner.satisfaction = 25; winner.confidence = 0;
+    loser.score = 0; loser.anger = 50; loser.satisfaction = 25; loser.confidence = 0;
+    AngerServer.applyAction(winner, loser, ACTIONS[i++ % 3]);
+    return winner.score;
+  }
+
+  @Benchmark
+  public String toJsonState() {
+    return AngerServer.toJsonState(room, AngerServer.JOINED);
+  }
+
+  @Benchmark
+  public String[] parseMoveBody() {
+    return Json.read(moveBody, 0, moveBody.length, AngerServer.MOVE_FIELDS);
+  }
+
+  @Benchmark
+  public Map<String,String> parseQuery() {
+    return AngerServer.parseQuery(joinQuery);
+  }
+}
@@ -0,0 +1,60 @@
+// file: src/main/java/com/anger/server/JournalAppendBenchmark.java
+package com.anger.server;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Durable /move commits per second against a {@link Journal} in a temp directory: each op
+ * appends one MOVE record and waits until the flusher reports it on disk, which is what a
+ * request's reply waits for. With several threads, BATCH and ALWAYS share one force among
+ * every record appended since the last one.
+ *
+ * <pre>
+ * java -jar bench/target/benchmarks.jar JournalAppendBenchmark -t 8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class JournalAppendBenchmark {
+
+  @Param({"NONE", "BATCH", "ALWAYS"})
+  public String fsync;
+
+  Path dir;
+  Journal journal;
+
+  @Setup
+  public void setup() throws IOException {
+    dir = Files.createTempDirectory("journal-bench");
+    AngerServer.Config cfg = new AngerServer.Config();
+    cfg.journalDir = dir.toString();
+    cfg.journalSegmentMb = 16;
+    cfg.journalFsync = Journal.Fsync.parse(fsync);
+    cfg.journalFlushMs = 2;
+    journal = Journal.open(cfg, new RoomRegistry(1000, Long.MAX_VALUE));
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    journal.close();
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public void durableMove() {
+    long lsn = journal.append(Journal.record(Journal.MOVE, "room-123", "P1", "scissors"));
+    journal.whenDurable(lsn).join();
+  }
+}
@@ -0,0 +1,123 @@
+// file: src/main/java/com/anger/server/JsonCodecBenchmark.java
+package com.anger.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The server's JSON hot path before and after {@link Json}: parsing a /move request body
+ * from its byte stream, and encoding an action event (full state plus extras) into an
+ * {@link EventFrame}. The {@code legacy*} methods are the pre-Json code kept verbatim.
+ *
+ * <pre>
+ * java -jar bench/target/benchmarks.jar JsonCodecBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonCodecBenchmark {
+
+  byte[] moveBody;
+  AngerServer.Room room;
+
+  @Setup
+  public void setup() {
+    moveBody = "{\"room\":\"room-123\",\"player\":\"P1\",\"move\":\"scissors\"}".getBytes(StandardCharsets.UTF_8);
+    room = new AngerServer.Room();
+    room.id = "bench";
+    room.seq = 42;
+    room.round = 7;
+    room.p1.score = 18;
+    room.p2.score = 11;
+  }
+
+  @Benchmark
+  public String[] parseStreaming() throws IOException {
+    return Json.read(new ByteArrayInputStream(moveBody), AngerServer.MOVE_FIELDS);
+  }
+
+  @Benchmark
+  public Map<String,String> parseLegacy() throws IOException {
+    return legacyParseJson(legacyReadBody(new ByteArrayInputStream(moveBody)));
+  }
+
+  @Benchmark
+  public EventFrame encodeStreaming() {
+    Object[] extras = {"lastAction", "Kick", "actor", "P1", "winnerName", "Player 1", "gameOver", false};
+    return EventFrame.of(room.seq, "state", AngerServer.writeState(Json.writer(), room, extras));
+  }
+
+  @Benchmark
+  public EventFrame encodeLegacy() {
+    Map<String,Object> extras = new HashMap<String,Object>();
+    extras.put("lastAction", "Kick");
+    extras.put("actor", "P1");
+    extras.put("winnerName", "Player 1");
+    extras.put("gameOver", Boolean.FALSE);
+    return EventFrame.of(room.seq, "state", legacyToJsonState(room, extras));
+  }
+
+  // ==== Pre-Json implementations ====
+  static String legacyReadBody(InputStream is) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    int read;
+    while ((read = is.read(buf)) != -1) {
+      baos.write(buf, 0, read);
+    }
+    return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  static Map<String,String> legacyParseJson(String body) {
+    Map<String,String> out = new HashMap<>();
+    body = body.trim();
+    if (body.startsWith("{") && body.endsWith("}")) {
+      body = body.substring(1, body.length()-1);
+      for (String pair : body.split(",")) {
+        String[] kv = pair.split(":",2);
+        if (kv.length==2) {
+          String k = kv[0].trim().replaceAll("^\"|\"$", "");
+          String v = kv[1].trim();
+          if (v.startsWith("\"") && v.endsWith("\"")) v = v.substring(1, v.length()-1);
+          out.put(k, v);
+        }
+      }
+    }
+    return out;
+  }
+
+  static String legacyToJsonState(AngerServer.Room r, Map<String, Object> extras) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{");
+    sb.append("\"seq\":").append(r.seq).append(",");
+    sb.append("\"round\":").append(r.round).append(",");
+    sb.append("\"p1\":{\"name\":\"").append(r.p1.name).append("\",\"score\":").append(r.p1.score)
+      .append(",\"anger\":").append(r.p1.anger).append(",\"satisfaction\":").append(r.p1.satisfaction)
+      .append(",\"confidence\":").append(r.p1.confidence).append("},");
+    sb.append("\"p2\":{\"name\":\"").append(r.p2.name).append("\",\"score\":").append(r.p2.score)
+      .append(",\"anger\":").append(r.p2.anger).append(",\"satisfaction\":").append(r.p2.satisfaction)
+      .append(",\"confidence\":").append(r.p2.confidence).append("},");
+    sb.append("\"p1Move\":\"").append(r.p1Move).append("\",\"p2Move\":\"").append(r.p2Move)
+      .append("\",\"pendingActionFor\":\"").append(r.pendingActionFor == null ? "" : r.pendingActionFor).append("\"");
+    for (Map.Entry<String,Object> e : extras.entrySet()) {
+      sb.append(",\"").append(e.getKey()).append("\":");
+      Object v = e.getValue();
+      if (v == null) sb.append("null");
+      else if (v instanceof Number || v instanceof Boolean) sb.append(v.toString());
+      else sb.append("\"").append(v.toString().replace("\"","\\\"")).append("\"");
+    }
+    sb.append("}");
+    return sb.toString();
+  }
+}
@@ -0,0 +1,264 @@
+// file: src/main/java/com/anger/server/LoadGenerator.java
+package com.anger.server;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays complete games over the real wire protocol and reports how many one server sustains.
+ * Each simulated room has one /events stream driving two players and {@code spectators}
+ * more streams that only watch. Players join with /join, then alternate /move pairs and the
+ * winner's /action until a score reaches 50, exactly as the JavaFX client does.
+ *
+ * <pre>
+ * java -cp server/target/classes:bench/target/classes com.anger.server.LoadGenerator \
+ *      rooms=2000 spectators=1 games=1 seconds=120 executor=virtual
+ * </pre>
+ *
+ * Without {@code url=} the server is started in-process on an ephemeral port. Input-to-broadcast
+ * latency is measured from sending a command to its event arriving on each stream: commands
+ * are issued in lockstep with the room's events, so the sequence number each one will get is
+ * known when it is sent.
+ */
+public class LoadGenerator {
+
+  static final String[] MOVES = {"rock", "paper", "scissors"};
+  static final String[] ACTIONS = {"Slap", "Punch", "Kick"};
+  static final Json.Fields EVENT = new Json.Fields("seq", "p1Move", "p2Move", "pendingActionFor", "result", "gameOver");
+
+  // Results
+  static final Metrics.Histogram playerLatency = new Metrics.Histogram();
+  static final Metrics.Histogram spectatorLatency = new Metrics.Histogram();
+  static final Metrics.Histogram requestLatency = new Metrics.Histogram();
+  static final LongAccumulator maxPlayer = new LongAccumulator(Math::max, 0);
+  static final LongAccumulator maxSpectator = new LongAccumulator(Math::max, 0);
+  static final LongAdder requests = new LongAdder();
+  static final LongAdder events = new LongAdder();
+  static final LongAdder games = new LongAdder();
+  static final LongAdder errors = new LongAdder();
+
+  static HttpClient http;
+  static String base;
+
+  public static void main(String[] args) throws Exception {
+    Map<String,String> opts = new HashMap<>();
+    for (String a : args) { String[] kv = a.split("=", 2); opts.put(kv[0], kv.length > 1 ? kv[1] : ""); }
+    int rooms = Integer.parseInt(opts.getOrDefault("rooms", "500"));
+    int spectators = Integer.parseInt(opts.getOrDefault("spectators", "1"));
+    int gamesPerRoom = Integer.parseInt(opts.getOrDefault("games", "1"));
+    int seconds = Integer.parseInt(opts.getOrDefault("seconds", "120"));
+    int rampMs = Integer.parseInt(opts.getOrDefault("rampMs", "1000"));
+
+    base = opts.get("url");
+    if (base == null) {
+      AngerServer.Config cfg = new AngerServer.Config();
+      cfg.port = 0;
+      cfg.wsPort = -1;
+      cfg.backlog = 4096;
+      cfg.executor = AngerServer.ExecutorMode.parse(opts.getOrDefault("executor", "pool"));
+      cfg.roomCapacity = Math.max(cfg.roomCapacity, rooms * gamesPerRoom);
+      if (opts.containsKey("journal")) cfg.journalDir = opts.get("journal");
+      HttpServer server = AngerServer.start(cfg);
+      base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+    http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .followRedirects(HttpClient.Redirect.NORMAL) // cluster nodes redirect to a room's owner
+        .executor(Executors.newCachedThreadPool(AngerServer.daemonFactory("load-client")))
+        .build();
+
+    System.out.printf("target=%s rooms=%d spectators=%d games=%d%n", base, rooms, spectators, gamesPerRoom);
+    CountDownLatch finished = new CountDownLatch(rooms);
+    long start = System.nanoTime();
+    for (int i = 0; i < rooms; i++) {
+      new RoomSim("load-" + i, spectators, gamesPerRoom, finished).startGame();
+      if (rampMs > 0) LockSupport.parkNanos((long) rampMs * 1_000_000 / rooms); // spread the connects
+    }
+    ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(AngerServer.daemonFactory("load-progress"));
+    progress.scheduleAtFixedRate(() -> System.out.printf("  %5.1fs games=%d requests=%d events=%d errors=%d%n",
+        (System.nanoTime() - start) / 1e9, games.sum(), requests.sum(), events.sum(), errors.sum()), 5, 5, TimeUnit.SECONDS);
+    boolean complete = finished.await(seconds, TimeUnit.SECONDS);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    progress.shutdownNow();
+
+    System.out.printf("%n%s after %.1fs%n", complete ? "finished" : "timed out", elapsed);
+    System.out.printf("games      %10d  (%.1f/s)%n", games.sum(), games.sum() / elapsed);
+    System.out.printf("requests   %10d  (%.0f/s)%n", requests.sum(), requests.sum() / elapsed);
+    System.out.printf("events     %10d  (%.0f/s delivered)%n", events.sum(), events.sum() / elapsed);
+    System.out.printf("errors     %10d%n", errors.sum());
+    System.out.printf("%n%-28s %9s %9s %9s %9s%n", "latency (ms)", "p50", "p99", "p999", "max");
+    row("request -> response", requestLatency, -1);
+    row("input -> player stream", playerLatency, maxPlayer.get());
+    if (spectators > 0) row("input -> spectator stream", spectatorLatency, maxSpectator.get());
+    System.exit(complete && errors.sum() == 0 ? 0 : 1);
+  }
+
+  static void row(String name, Metrics.Histogram h, long max) {
+    System.out.printf("%-28s %9.2f %9.2f %9.2f %9s%n", name, h.quantile(0.5) / 1e6, h.quantile(0.99) / 1e6,
+        h.quantile(0.999) / 1e6, max < 0 ? "-" : String.format("%.2f", max / 1e6));
+  }
+
+  /**
+   * One room being played. All game decisions happen on the player stream's callbacks, which
+   * the HttpClient delivers one at a time, so the fields below need no locking.
+   */
+  static final class RoomSim {
+    private static final int RING = 64;
+
+    final String prefix;
+    final int spectators;
+    final CountDownLatch finished;
+    int gamesLeft;
+    String room;
+    final List<Flow.Subscription> streams = new ArrayList<>();
+    // seq -> send time of the command producing it, shared with the spectator streams
+    final AtomicLongArray sentSeq = new AtomicLongArray(RING);
+    final AtomicLongArray sentAt = new AtomicLongArray(RING);
+
+    long seq = -1;
+    String p1Move = "", p2Move = "", pending = "";
+    boolean joined, gameOver;
+    volatile boolean done;
+    int expected; // events still owed for the commands last sent
+
+    RoomSim(String prefix, int spectators, int games, CountDownLatch finished) {
+      this.prefix = prefix; this.spectators = spectators; this.gamesLeft = games; this.finished = finished;
+    }
+
+    void startGame() {
+      room = prefix + "-" + gamesLeft;
+      seq = -1; p1Move = ""; p2Move = ""; pending = "";
+      joined = false; gameOver = false; expected = 0;
+      subscribe(true);
+      for (int i = 0; i < spectators; i++) subscribe(false);
+    }
+
+    private void subscribe(boolean player) {
+      HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/events?room=" + room)).GET().build();
+      http.sendAsync(req, HttpResponse.BodyHandlers.fromLineSubscriber(new Stream(player)))
+          .whenComplete((resp, err) -> {
+            if (err != null && !done) fail(err);
+          });
+    }
+
+    private final class Stream implements Flow.Subscriber<String> {
+      final boolean player;
+      Stream(boolean player) { this.player = player; }
+
+      @Override public void onSubscribe(Flow.Subscription s) {
+        synchronized (streams) { streams.add(s); }
+        s.request(Long.MAX_VALUE);
+      }
+
+      @Override public void onNext(String line) {
+        if (!line.startsWith("data:")) return;
+        byte[] json = line.substring(5).trim().getBytes(StandardCharsets.UTF_8);
+        String[] f = Json.read(json, 0, json.length, EVENT);
+        long s = Long.parseLong(f[0]);
+        events.increment();
+        int slot = (int) (s % RING);
+        long sent = sentSeq.get(slot) == s ? sentAt.get(slot) : 0;
+        if (sent != 0) {
+          long nanos = System.nanoTime() - sent;
+          (player ? playerLatency : spectatorLatency).record(nanos);
+          (player ? maxPlayer : maxSpectator).accumulate(nanos);
+        }
+        if (player) onEvent(s, f);
+      }
+
+      @Override public void onError(Throwable t) { if (!done) fail(t); }
+      @Override public void onComplete() { }
+    }
+
+    private void onEvent(long s, String[] f) {
+      if (done) return;
+      seq = s;
+      if (f[1] != null) p1Move = f[1];
+      if (f[2] != null) p2Move = f[2];
+      if (f[3] != null) pending = f[3];
+      if ("DRAW".equals(f[4])) { p1Move = ""; p2Move = ""; } // the server replays the round
+      if ("true".equals(f[5])) gameOver = true;
+      if (expected > 0) expected--;
+      if (expected == 0) step();
+    }
+
+    // Issues the next commands once every event owed by the previous ones has arrived.
+    private void step() {
+      ThreadLocalRandom rnd = ThreadLocalRandom.current();
+      if (gameOver) {
+        games.increment();
+        endGame();
+      } else if (!joined) {
+        joined = true;
+        send(2, post("/join?room=" + room + "&name=Player%201", ""), post("/join?room=" + room + "&name=Player%202", ""));
+      } else if (!pending.isEmpty()) {
+        send(1, post("/action", "{\"room\":\"" + room + "\",\"player\":\"" + pending + "\",\"action\":\""
+            + ACTIONS[rnd.nextInt(3)] + "\"}"));
+      } else if (p1Move.isEmpty() && p2Move.isEmpty()) {
+        send(2, post("/move", "{\"room\":\"" + room + "\",\"player\":\"P1\",\"move\":\"" + MOVES[rnd.nextInt(3)] + "\"}"),
+            post("/move", "{\"room\":\"" + room + "\",\"player\":\"P2\",\"move\":\"" + MOVES[rnd.nextInt(3)] + "\"}"));
+      }
+    }
+
+    private void send(int events, HttpRequest... reqs) {
+      expected = events;
+      long now = System.nanoTime();
+      for (int i = 1; i <= events; i++) {
+        int slot = (int) ((seq + i) % RING);
+        sentAt.set(slot, now);
+        sentSeq.set(slot, seq + i);
+      }
+      for (HttpRequest req : reqs) {
+        long t0 = System.nanoTime();
+        http.sendAsync(req, HttpResponse.BodyHandlers.discarding()).whenComplete((resp, err) -> {
+          requests.increment();
+          requestLatency.record(System.nanoTime() - t0);
+          if (err != null) fail(err);
+          else if (resp.statusCode() != 200) fail(new IllegalStateException("HTTP " + resp.statusCode() + " " + req.uri()));
+        });
+      }
+    }
+
+    private HttpRequest post(String path, String body) {
+      return HttpRequest.newBuilder(URI.create(base + path))
+          .timeout(Duration.ofSeconds(30))
+          .POST(HttpRequest.BodyPublishers.ofString(body))
+          .build();
+    }
+
+    private void closeStreams() {
+      synchronized (streams) {
+        for (Flow.Subscription s : streams) s.cancel();
+        streams.clear();
+      }
+    }
+
+    private void endGame() {
+      closeStreams();
+      if (--gamesLeft > 0) { startGame(); return; }
+      done = true;
+      finished.countDown();
+    }
+
+    private synchronized void fail(Throwable t) {
+      errors.increment();
+      if (done) return;
+      done = true;
+      System.err.println(room + ": " + t);
+      closeStreams();
+      finished.countDown();
+    }
+  }
+}
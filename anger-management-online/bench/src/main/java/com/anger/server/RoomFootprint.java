@@ -0,0 +1,76 @@
+// file: src/main/java/com/anger/server/RoomFootprint.java
+package com.anger.server;
+
+import java.lang.ref.Reference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Heap per room: fills either a {@link RoomTable} or a map of {@link AngerServer.Room}
+ * objects (as {@link RoomRegistry} holds them) with {@code rooms} rooms part-way through a
+ * game, and reports the retained heap per room after a full GC.
+ *
+ * <pre>
+ * java -Xmx64m  -cp server/target/classes:bench/target/classes com.anger.server.RoomFootprint store=table rooms=1000000
+ * java -Xmx2g   -cp server/target/classes:bench/target/classes com.anger.server.RoomFootprint store=objects rooms=1000000
+ * </pre>
+ *
+ * Run one store per JVM so the other's garbage does not blur the figure. Ids look like the
+ * matchmaker's ({@code m-<n>}).
+ */
+public class RoomFootprint {
+
+  public static void main(String[] args) {
+    Map<String,String> opts = new HashMap<>();
+    for (String a : args) { String[] kv = a.split("=", 2); opts.put(kv[0], kv.length > 1 ? kv[1] : ""); }
+    int rooms = Integer.parseInt(opts.getOrDefault("rooms", "1000000"));
+    String store = opts.getOrDefault("store", "table");
+
+    long before = usedAfterGc();
+    long start = System.nanoTime();
+    Object held;
+    long arrays = -1;
+    if (store.equals("table")) {
+      RoomTable t = new RoomTable(rooms);
+      for (int i = 0; i < rooms; i++) {
+        int h = t.open("m-" + Integer.toString(i, 36));
+        t.move(h, "P1", "rock");
+        t.move(h, "P2", "scissors");
+        t.action(h, "P1", "Punch");
+        t.move(h, "P1", "paper");
+      }
+      arrays = t.footprintBytes();
+      held = t;
+    } else if (store.equals("objects")) {
+      Map<String, AngerServer.Room> map = new HashMap<>();
+      for (int i = 0; i < rooms; i++) {
+        AngerServer.Room r = new AngerServer.Room();
+        r.id = "m-" + Integer.toString(i, 36);
+        AngerServer.applyAction(r.p1, r.p2, "Punch");
+        r.round++;
+        r.p1Move = "paper";
+        map.put(r.id, r);
+      }
+      held = map;
+    } else {
+      throw new IllegalArgumentException("store=table|objects");
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long used = usedAfterGc() - before;
+
+    System.out.printf("%s: %d rooms in %.2fs, %.1f MiB retained, %.1f bytes/room (max heap %d MiB)%n",
+        store, rooms, seconds, used / 1048576.0, (double) used / rooms, Runtime.getRuntime().maxMemory() >> 20);
+    if (arrays >= 0) System.out.printf("table arrays: %.1f MiB, %.1f bytes/room%n", arrays / 1048576.0, (double) arrays / rooms);
+    Reference.reachabilityFence(held); // measured above while still in use
+  }
+
+  static long usedAfterGc() {
+    Runtime rt = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      used = Math.min(used, rt.totalMemory() - rt.freeMemory());
+    }
+    return used;
+  }
+}
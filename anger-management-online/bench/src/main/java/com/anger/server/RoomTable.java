@@ -0,0 +1,306 @@
+// file: src/main/java/com/anger/server/RoomTable.java
+package com.anger.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Game state for many rooms in a handful of primitive arrays, one slot per room, addressed by
+ * an int handle. A {@link AngerServer.Room} is a graph of objects (strings, two player
+ * states, a subscriber list, a mailbox) costing a few hundred bytes and several pointer hops;
+ * here a room is about 30 bytes plus its id:
+ * <ul>
+ *   <li>scores as shorts, anger/satisfaction/confidence as bytes (all clamped to 0..100),
+ *       two entries per room at {@code 2 * handle + player};
+ *   <li>the round as an int;
+ *   <li>one state byte packing both moves (2 bits each: none, rock, paper, scissors) and
+ *       who may act (2 bits: nobody, P1, P2);
+ *   <li>the id as UTF-8 in a shared byte arena, found through an open-addressing int index.
+ * </ul>
+ * Commands follow {@link AngerServer#move} and {@link AngerServer#action}, validating with
+ * the same checks and scoring through {@link AngerServer#applyAction} itself, so the rules
+ * cannot drift. Player names are not stored: they are always "Player 1" and "Player 2".
+ * Used by {@link RoomFootprint} to measure the layout; the server keeps {@code Room} objects.
+ *
+ * <p>Capacity is fixed up front. Not thread-safe: like a room on its mailbox, a table has a
+ * single owner; shard rooms over several tables to use more threads. A released handle is
+ * reused by a later {@link #open}.
+ */
+final class RoomTable {
+  static final String[] MOVES = {"", "rock", "paper", "scissors"};
+  private static final int P1_MOVE = 0, P2_MOVE = 2, PENDING = 4; // bit offsets in state[]
+  private static final int IN_USE = 1 << 6;
+  private static final int MAX_ID = 255; // id bytes, stored in one unsigned byte
+
+  private final int capacity;
+  private final short[] score;
+  private final byte[] anger, satisfaction, confidence;
+  private final int[] round;
+  private final byte[] state;
+
+  // Ids: bytes in an arena, located by offset/length. A free handle's idOffset links the free list.
+  private final int[] idOffset;
+  private final byte[] idLength;
+  private byte[] ids;
+  private int idTop, idGarbage;
+  private int freeHead;
+  private int size;
+
+  // Linear-probing index from id to handle + 1 (0 = empty), at most half full.
+  private final int[] slots;
+  private final int mask;
+
+  // Scratch for applyAction, so an action allocates nothing.
+  private final AngerServer.PlayerState winner = new AngerServer.PlayerState("");
+  private final AngerServer.PlayerState loser = new AngerServer.PlayerState("");
+
+  RoomTable(int capacity) {
+    if (capacity <= 0 || capacity > 1 << 29) throw new IllegalArgumentException("capacity " + capacity);
+    this.capacity = capacity;
+    score = new short[2 * capacity];
+    anger = new byte[2 * capacity];
+    satisfaction = new byte[2 * capacity];
+    confidence = new byte[2 * capacity];
+    round = new int[capacity];
+    state = new byte[capacity];
+    idOffset = new int[capacity];
+    idLength = new byte[capacity];
+    ids = new byte[Math.max(1024, capacity * 8)];
+    for (int h = 0; h < capacity; h++) idOffset[h] = h + 1 < capacity ? h + 1 : -1;
+    freeHead = 0;
+    slots = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+    mask = slots.length - 1;
+  }
+
+  int capacity() { return capacity; }
+
+  int size() { return size; }
+
+  /** The handle for {@code id}, or -1 if it has no room here. */
+  int find(String id) {
+    byte[] key = key(id);
+    int i = slot(key);
+    return i < 0 ? -1 : slots[i] - 1;
+  }
+
+  /** The handle for {@code id}, starting a fresh game if it has none; -1 when the table is full. */
+  int open(String id) {
+    byte[] key = key(id);
+    int i = slot(key);
+    if (i >= 0) return slots[i] - 1;
+    if (freeHead < 0) return -1;
+    int h = freeHead;
+    freeHead = idOffset[h];
+    idOffset[h] = storeId(key);
+    idLength[h] = (byte) key.length;
+    slots[-i - 1] = h + 1;
+    reset(h);
+    size++;
+    return h;
+  }
+
+  /** Forgets the room at {@code h}; the handle may then be handed out again. */
+  void release(int h) {
+    check(h);
+    byte[] key = Arrays.copyOfRange(ids, idOffset[h], idOffset[h] + (idLength[h] & 0xff));
+    removeSlot(slot(key));
+    idGarbage += key.length;
+    state[h] = 0;
+    idOffset[h] = freeHead;
+    freeHead = h;
+    size--;
+  }
+
+  private void reset(int h) {
+    for (int p = 2 * h; p < 2 * h + 2; p++) {
+      score[p] = 0; anger[p] = 50; satisfaction[p] = 25; confidence[p] = 0;
+    }
+    round[h] = 1;
+    state[h] = (byte) IN_USE;
+  }
+
+  // ==== Game state ====
+  String id(int h) { check(h); return new String(ids, idOffset[h], idLength[h] & 0xff, StandardCharsets.UTF_8); }
+  int score(int h, int player) { check(h); return score[2 * h + player]; }
+  int anger(int h, int player) { check(h); return anger[2 * h + player]; }
+  int satisfaction(int h, int player) { check(h); return satisfaction[2 * h + player]; }
+  int confidence(int h, int player) { check(h); return confidence[2 * h + player]; }
+  int round(int h) { check(h); return round[h]; }
+
+  /** {@code player} 0 is P1, 1 is P2; "" until they have moved this round. */
+  String move(int h, int player) { check(h); return MOVES[bits(h, player == 0 ? P1_MOVE : P2_MOVE)]; }
+
+  /** "P1", "P2" or null, as {@link AngerServer.Room#pendingActionFor}. */
+  String pendingActionFor(int h) {
+    check(h);
+    int p = bits(h, PENDING);
+    return p == 0 ? null : p == 1 ? "P1" : "P2";
+  }
+
+  boolean gameOver(int h) { check(h); return score[2 * h] >= 50 || score[2 * h + 1] >= 50; }
+
+  // ==== Commands ====
+
+  /**
+   * {@link AngerServer#move}: records the player's move if they have not moved this round and,
+   * once both have, returns the result (a draw clears both moves); null until then. A player
+   * or move the server answers with 400 throws here, changing nothing.
+   */
+  String move(int h, String player, String move) {
+    check(h);
+    if (!AngerServer.isPlayer(player)) throw new IllegalArgumentException("player " + player);
+    if (!AngerServer.isMove(move)) throw new IllegalArgumentException("move " + move);
+    int code = moveCode(move);
+    if ("P1".equals(player) && bits(h, P1_MOVE) == 0) setBits(h, P1_MOVE, code);
+    else if ("P2".equals(player) && bits(h, P2_MOVE) == 0) setBits(h, P2_MOVE, code);
+    int m1 = bits(h, P1_MOVE), m2 = bits(h, P2_MOVE);
+    if (m1 == 0 || m2 == 0) return null;
+    String result = AngerServer.determineWinner(MOVES[m1], MOVES[m2]);
+    setBits(h, PENDING, result.equals("P1_WIN") ? 1 : result.equals("P2_WIN") ? 2 : 0);
+    if (result.equals("DRAW")) { setBits(h, P1_MOVE, 0); setBits(h, P2_MOVE, 0); }
+    return result;
+  }
+
+  /**
+   * {@link AngerServer#action}: false, changing nothing, unless {@code player} won the round. A
+   * player or action the server answers with 400 throws, whether or not it is their turn.
+   */
+  boolean action(int h, String player, String action) {
+    check(h);
+    if (!AngerServer.isPlayer(player)) throw new IllegalArgumentException("player " + player);
+    if (!AngerServer.isAction(action)) throw new IllegalArgumentException("action " + action);
+    int pending = bits(h, PENDING);
+    if (pending == 0 || !(pending == 1 ? "P1" : "P2").equals(player)) return false;
+    int w = 2 * h + pending - 1, l = 2 * h + 2 - pending;
+    load(w, winner);
+    load(l, loser);
+    AngerServer.applyAction(winner, loser, action);
+    store(winner, w);
+    store(loser, l);
+    round[h]++;
+    state[h] = (byte) IN_USE;
+    return true;
+  }
+
+  // ==== Conversion ====
+
+  /** Writes the room's game state into {@code r}, as a snapshot would restore it. */
+  void copyTo(int h, AngerServer.Room r) {
+    check(h);
+    load(2 * h, r.p1);
+    load(2 * h + 1, r.p2);
+    r.round = round[h];
+    r.p1Move = move(h, 0);
+    r.p2Move = move(h, 1);
+    r.pendingActionFor = pendingActionFor(h);
+  }
+
+  /** Loads {@code r}'s game state into the slot at {@code h}; moves must be rock/paper/scissors. */
+  void copyFrom(AngerServer.Room r, int h) {
+    check(h);
+    store(r.p1, 2 * h);
+    store(r.p2, 2 * h + 1);
+    round[h] = r.round;
+    int pending = "P1".equals(r.pendingActionFor) ? 1 : "P2".equals(r.pendingActionFor) ? 2 : 0;
+    state[h] = (byte) (IN_USE | moveCode(r.p1Move) << P1_MOVE | moveCode(r.p2Move) << P2_MOVE | pending << PENDING);
+  }
+
+  /** Bytes held by this table's arrays, from their lengths (object headers excluded). */
+  long footprintBytes() {
+    return 2L * score.length + anger.length + satisfaction.length + confidence.length
+        + 4L * round.length + state.length + 4L * idOffset.length + idLength.length
+        + ids.length + 4L * slots.length;
+  }
+
+  // ==== Internals ====
+  private void load(int p, AngerServer.PlayerState s) {
+    s.score = score[p]; s.anger = anger[p]; s.satisfaction = satisfaction[p]; s.confidence = confidence[p];
+  }
+
+  private void store(AngerServer.PlayerState s, int p) {
+    score[p] = (short) Math.min(s.score, Short.MAX_VALUE);
+    anger[p] = (byte) s.anger;
+    satisfaction[p] = (byte) s.satisfaction;
+    confidence[p] = (byte) s.confidence;
+  }
+
+  private int bits(int h, int at) { return (state[h] >>> at) & 3; }
+
+  private void setBits(int h, int at, int v) { state[h] = (byte) ((state[h] & ~(3 << at)) | v << at); }
+
+  private static int moveCode(String move) {
+    if (move == null || move.isEmpty()) return 0;
+    for (int i = 1; i < MOVES.length; i++) if (MOVES[i].equals(move)) return i;
+    throw new IllegalArgumentException("move " + move);
+  }
+
+  private void check(int h) {
+    if (h < 0 || h >= capacity || (state[h] & IN_USE) == 0) throw new IllegalArgumentException("handle " + h);
+  }
+
+  private static byte[] key(String id) {
+    byte[] key = id.getBytes(StandardCharsets.UTF_8);
+    if (key.length > MAX_ID) throw new IllegalArgumentException("room id longer than " + MAX_ID + " bytes");
+    return key;
+  }
+
+  // FNV-1a over the id bytes, finished with the MurmurHash3 mixer.
+  private static int hash(byte[] b, int off, int len) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = off; i < off + len; i++) { h ^= b[i] & 0xff; h *= 0x100000001b3L; }
+    h ^= h >>> 33; h *= 0xff51afd7ed558ccdL;
+    return (int) (h ^ (h >>> 33));
+  }
+
+  /** Index of {@code key}'s slot, or {@code -(empty slot) - 1} where it would go. */
+  private int slot(byte[] key) {
+    for (int i = hash(key, 0, key.length) & mask; ; i = (i + 1) & mask) {
+      int s = slots[i];
+      if (s == 0) return -i - 1;
+      int h = s - 1, off = idOffset[h];
+      if ((idLength[h] & 0xff) == key.length && Arrays.equals(ids, off, off + key.length, key, 0, key.length)) return i;
+    }
+  }
+
+  // Backward-shift deletion: pulls later entries of the probe run into the hole, so no tombstones.
+  private void removeSlot(int hole) {
+    slots[hole] = 0;
+    for (int i = (hole + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+      int h = slots[i] - 1;
+      int home = hash(ids, idOffset[h], idLength[h] & 0xff) & mask;
+      // Move the entry if its home is not in the (cyclic) range (hole, i].
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        slots[hole] = slots[i];
+        slots[i] = 0;
+        hole = i;
+      }
+    }
+  }
+
+  private int storeId(byte[] key) {
+    if (idTop + key.length > ids.length) {
+      if (idGarbage >= ids.length / 2) compactIds();
+      if (idTop + key.length > ids.length) ids = Arrays.copyOf(ids, Math.max(ids.length * 2, idTop + key.length));
+    }
+    int off = idTop;
+    System.arraycopy(key, 0, ids, off, key.length);
+    idTop += key.length;
+    return off;
+  }
+
+  // Rewrites the arena with only live ids, in handle order.
+  private void compactIds() {
+    byte[] fresh = new byte[ids.length];
+    int top = 0;
+    for (int h = 0; h < capacity; h++) {
+      if ((state[h] & IN_USE) == 0) continue;
+      int len = idLength[h] & 0xff;
+      System.arraycopy(ids, idOffset[h], fresh, top, len);
+      idOffset[h] = top;
+      top += len;
+    }
+    ids = fresh;
+    idTop = top;
+    idGarbage = 0;
+  }
+}
@@ -0,0 +1,311 @@
+// file: src/main/java/com/anger/server/Tournament.java
+package com.anger.server;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Plays bot-vs-bot games in process, with exactly the server's rules: moves are judged by
+ * {@link AngerServer#determineWinner}, the round winner's Slap/Punch/Kick is scored by
+ * {@link AngerServer#applyAction}, and a game ends when a score reaches 50. A draw replays the
+ * round, as it does online.
+ *
+ * <pre>
+ * java -cp server/target/classes:bench/target/classes com.anger.server.Tournament \
+ *      games=100000 seed=42 bots=random/random,counter/greedy,cycle/kick threads=8
+ * </pre>
+ *
+ * Every ordered pairing of {@code bots} (so each bot plays both seats) plays {@code games}
+ * games, spread over a fork/join pool. Each game draws from its own random stream derived
+ * from the seed and the game's index, and the tallies are integers merged in any order, so a
+ * run is reproducible for a given seed whatever the thread count.
+ */
+public final class Tournament {
+  static final String ROCK = "rock", PAPER = "paper", SCISSORS = "scissors";
+  static final String SLAP = "Slap", PUNCH = "Punch", KICK = "Kick";
+  static final String[] MOVES = {ROCK, PAPER, SCISSORS};
+  static final String[] ACTIONS = {SLAP, PUNCH, KICK};
+  static final int TARGET = 50;
+  static final int MAX_TURNS = 5_000; // a game still running after this many turns is abandoned
+  private static final int SCORE_BUCKETS = 64;
+  private static final int LEAF = 512;
+
+  /** Picks a move for {@code turn} (draws included); {@code theirLast} is the opponent's previous move, or null. */
+  interface MoveStrategy {
+    String move(int turn, AngerServer.PlayerState me, AngerServer.PlayerState them, String theirLast, SplittableRandom rnd);
+  }
+
+  /** Picks the round winner's action. */
+  interface ActionStrategy {
+    String action(AngerServer.PlayerState me, AngerServer.PlayerState them, SplittableRandom rnd);
+  }
+
+  static final class Bot {
+    final String name;
+    final MoveStrategy moves;
+    final ActionStrategy actions;
+
+    Bot(String name, MoveStrategy moves, ActionStrategy actions) {
+      this.name = name; this.moves = moves; this.actions = actions;
+    }
+  }
+
+  // ==== Built-in strategies ====
+  static final Map<String, MoveStrategy> MOVE_STRATEGIES = new LinkedHashMap<>();
+  static final Map<String, ActionStrategy> ACTION_STRATEGIES = new LinkedHashMap<>();
+  static {
+    MOVE_STRATEGIES.put("random", (turn, me, them, last, rnd) -> MOVES[rnd.nextInt(3)]);
+    MOVE_STRATEGIES.put("rock", (turn, me, them, last, rnd) -> ROCK);
+    // rock, paper, scissors, rock, ..
+    MOVE_STRATEGIES.put("cycle", (turn, me, them, last, rnd) -> MOVES[turn % 3]);
+    // beats whatever the opponent played last
+    MOVE_STRATEGIES.put("counter", (turn, me, them, last, rnd) ->
+        last == null ? MOVES[rnd.nextInt(3)] : beats(last));
+
+    ACTION_STRATEGIES.put("random", (me, them, rnd) -> ACTIONS[rnd.nextInt(3)]);
+    ACTION_STRATEGIES.put("slap", (me, them, rnd) -> SLAP);
+    ACTION_STRATEGIES.put("punch", (me, them, rnd) -> PUNCH);
+    ACTION_STRATEGIES.put("kick", (me, them, rnd) -> KICK);
+    // whichever action scores the most right now, tried on copies
+    ACTION_STRATEGIES.put("greedy", (me, them, rnd) -> {
+      String best = SLAP;
+      int bestGain = -1;
+      for (String a : ACTIONS) {
+        AngerServer.PlayerState w = copy(me), l = copy(them);
+        AngerServer.applyAction(w, l, a);
+        if (w.score - me.score > bestGain) { bestGain = w.score - me.score; best = a; }
+      }
+      return best;
+    });
+  }
+
+  static String beats(String move) {
+    switch (move) {
+      case ROCK: return PAPER;
+      case PAPER: return SCISSORS;
+      default: return ROCK;
+    }
+  }
+
+  static int actionIndex(String action) {
+    switch (action) {
+      case SLAP: return 0;
+      case PUNCH: return 1;
+      case KICK: return 2;
+      default: throw new IllegalArgumentException("unknown action " + action);
+    }
+  }
+
+  static AngerServer.PlayerState copy(AngerServer.PlayerState p) {
+    AngerServer.PlayerState c = new AngerServer.PlayerState(p.name);
+    c.score = p.score; c.anger = p.anger; c.satisfaction = p.satisfaction; c.confidence = p.confidence;
+    return c;
+  }
+
+  /** {@code moves/actions}, e.g. {@code counter/greedy}. */
+  static Bot parseBot(String spec) {
+    String[] parts = spec.split("/", 2);
+    MoveStrategy m = MOVE_STRATEGIES.get(parts[0]);
+    ActionStrategy a = ACTION_STRATEGIES.get(parts.length > 1 ? parts[1] : "random");
+    if (m == null || a == null) {
+      throw new IllegalArgumentException("unknown bot " + spec + "; moves: " + MOVE_STRATEGIES.keySet()
+          + ", actions: " + ACTION_STRATEGIES.keySet());
+    }
+    return new Bot(spec, m, a);
+  }
+
+  // ==== Results ====
+
+  /** Tallies for a set of games; every field is a count or a sum of integers. */
+  static final class Stats {
+    final int bots;
+    final long[] games, wins, abandoned, roundsInWins;
+    final long[][] versus;      // [winner][loser]
+    final long[][] finalScores; // [bot][min(score, SCORE_BUCKETS - 1)]
+    final long[] actionUses = new long[ACTIONS.length];
+    final long[] actionPoints = new long[ACTIONS.length];
+    long draws, rounds;
+
+    Stats(int bots) {
+      this.bots = bots;
+      games = new long[bots]; wins = new long[bots]; abandoned = new long[bots]; roundsInWins = new long[bots];
+      versus = new long[bots][bots];
+      finalScores = new long[bots][SCORE_BUCKETS];
+    }
+
+    Stats merge(Stats o) {
+      for (int i = 0; i < bots; i++) {
+        games[i] += o.games[i]; wins[i] += o.wins[i]; abandoned[i] += o.abandoned[i]; roundsInWins[i] += o.roundsInWins[i];
+        for (int j = 0; j < bots; j++) versus[i][j] += o.versus[i][j];
+        for (int s = 0; s < SCORE_BUCKETS; s++) finalScores[i][s] += o.finalScores[i][s];
+      }
+      for (int a = 0; a < ACTIONS.length; a++) { actionUses[a] += o.actionUses[a]; actionPoints[a] += o.actionPoints[a]; }
+      draws += o.draws;
+      rounds += o.rounds;
+      return this;
+    }
+
+    double winRate(int bot) { return games[bot] == 0 ? 0 : (double) wins[bot] / games[bot]; }
+
+    double averageRoundsToWin(int bot) { return wins[bot] == 0 ? 0 : (double) roundsInWins[bot] / wins[bot]; }
+
+    /** Final score at quantile {@code q} over every game {@code bot} played. */
+    int scoreQuantile(int bot, double q) {
+      long rank = (long) Math.ceil(q * games[bot]);
+      for (int s = 0; s < SCORE_BUCKETS; s++) if ((rank -= finalScores[bot][s]) <= 0) return s;
+      return SCORE_BUCKETS - 1;
+    }
+  }
+
+  // ==== Engine ====
+  final List<Bot> bots;
+  final long seed;
+
+  Tournament(List<Bot> bots, long seed) {
+    if (bots.size() < 2) throw new IllegalArgumentException("need at least two bots");
+    this.bots = List.copyOf(bots);
+    this.seed = seed;
+  }
+
+  /** Plays {@code gamesPerPairing} games for every ordered pair of distinct bots. */
+  Stats run(int gamesPerPairing, ForkJoinPool pool) {
+    int n = bots.size();
+    long total = (long) n * (n - 1) * gamesPerPairing;
+    return pool.invoke(new Games(0, total, gamesPerPairing));
+  }
+
+  @SuppressWarnings("serial") // never serialized
+  private final class Games extends RecursiveTask<Stats> {
+    final long from, to;
+    final int perPairing;
+
+    Games(long from, long to, int perPairing) { this.from = from; this.to = to; this.perPairing = perPairing; }
+
+    @Override protected Stats compute() {
+      if (to - from <= LEAF) {
+        Stats s = new Stats(bots.size());
+        for (long g = from; g < to; g++) play(g, s);
+        return s;
+      }
+      long mid = (from + to) >>> 1;
+      Games left = new Games(from, mid, perPairing);
+      left.fork();
+      Stats right = new Games(mid, to, perPairing).compute();
+      return left.join().merge(right);
+    }
+
+    // Game g: pairing g / perPairing, in the order (0,1), (0,2), .., (1,0), (1,2), ..
+    private void play(long g, Stats s) {
+      int n = bots.size();
+      int pairing = (int) (g / perPairing);
+      int a = pairing / (n - 1), b = pairing % (n - 1);
+      if (b >= a) b++;
+      playGame(a, b, new SplittableRandom(mix(seed + g)), s);
+    }
+  }
+
+  /** One game between bot {@code a} as P1 and bot {@code b} as P2. */
+  void playGame(int a, int b, SplittableRandom rnd, Stats s) {
+    Bot botA = bots.get(a), botB = bots.get(b);
+    AngerServer.PlayerState p1 = new AngerServer.PlayerState("Player 1");
+    AngerServer.PlayerState p2 = new AngerServer.PlayerState("Player 2");
+    String last1 = null, last2 = null;
+    int rounds = 0;
+    for (int turn = 0; turn < MAX_TURNS; turn++) {
+      String m1 = botA.moves.move(turn, p1, p2, last2, rnd);
+      String m2 = botB.moves.move(turn, p2, p1, last1, rnd);
+      last1 = m1; last2 = m2;
+      String result = AngerServer.determineWinner(m1, m2);
+      if (result.equals("DRAW")) { s.draws++; continue; }
+      boolean p1Won = result.equals("P1_WIN");
+      AngerServer.PlayerState winner = p1Won ? p1 : p2, loser = p1Won ? p2 : p1;
+      String action = (p1Won ? botA : botB).actions.action(winner, loser, rnd);
+      int before = winner.score;
+      AngerServer.applyAction(winner, loser, action);
+      int idx = actionIndex(action);
+      s.actionUses[idx]++;
+      s.actionPoints[idx] += winner.score - before;
+      rounds++;
+      if (winner.score >= TARGET) {
+        int w = p1Won ? a : b, l = p1Won ? b : a;
+        s.wins[w]++;
+        s.roundsInWins[w] += rounds;
+        s.versus[w][l]++;
+        finish(a, b, p1, p2, rounds, s);
+        return;
+      }
+    }
+    s.abandoned[a]++;
+    s.abandoned[b]++;
+    finish(a, b, p1, p2, rounds, s);
+  }
+
+  private static void finish(int a, int b, AngerServer.PlayerState p1, AngerServer.PlayerState p2, int rounds, Stats s) {
+    s.games[a]++;
+    s.games[b]++;
+    s.rounds += rounds;
+    s.finalScores[a][Math.min(p1.score, SCORE_BUCKETS - 1)]++;
+    s.finalScores[b][Math.min(p2.score, SCORE_BUCKETS - 1)]++;
+  }
+
+  // SplitMix64 finalizer: neighbouring game indexes get unrelated streams.
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // ==== Command line ====
+  public static void main(String[] args) {
+    Map<String,String> opts = new HashMap<>();
+    for (String a : args) { String[] kv = a.split("=", 2); opts.put(kv[0], kv.length > 1 ? kv[1] : ""); }
+    int games = Integer.parseInt(opts.getOrDefault("games", "100000"));
+    long seed = Long.parseLong(opts.getOrDefault("seed", "42"));
+    int threads = Integer.parseInt(opts.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+    List<Bot> bots = new ArrayList<>();
+    for (String spec : opts.getOrDefault("bots", "random/random,random/slap,random/punch,random/kick,counter/greedy").split(",")) {
+      bots.add(parseBot(spec.trim()));
+    }
+
+    Tournament t = new Tournament(bots, seed);
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long start = System.nanoTime();
+    Stats s = t.run(games, pool);
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    pool.shutdown();
+
+    long played = 0;
+    for (long g : s.games) played += g;
+    played /= 2;
+    System.out.printf("%d games (%d per pairing) in %.2fs on %d threads, %.0f games/s, seed=%d%n",
+        played, games, elapsed, threads, played / elapsed, seed);
+    System.out.printf("%d rounds, %.1f per game, %.1f draws per game%n%n", s.rounds, (double) s.rounds / played, (double) s.draws / played);
+
+    System.out.printf("%-20s %10s %8s %12s %10s %7s %7s %7s%n", "bot", "games", "win %", "rounds/win", "abandoned", "p10", "p50", "p90");
+    for (int i = 0; i < bots.size(); i++) {
+      System.out.printf("%-20s %10d %8.2f %12.1f %10d %7d %7d %7d%n", bots.get(i).name, s.games[i], 100 * s.winRate(i),
+          s.averageRoundsToWin(i), s.abandoned[i], s.scoreQuantile(i, 0.1), s.scoreQuantile(i, 0.5), s.scoreQuantile(i, 0.9));
+    }
+
+    System.out.printf("%n%-8s %12s %14s%n", "action", "uses", "points/use");
+    for (int a = 0; a < ACTIONS.length; a++) {
+      System.out.printf("%-8s %12d %14.3f%n", ACTIONS[a], s.actionUses[a],
+          s.actionUses[a] == 0 ? 0.0 : (double) s.actionPoints[a] / s.actionUses[a]);
+    }
+
+    System.out.printf("%nwin %% of row against column%n%-20s", "");
+    for (Bot b : bots) System.out.printf(" %14s", abbreviate(b.name));
+    System.out.println();
+    for (int i = 0; i < bots.size(); i++) {
+      System.out.printf("%-20s", bots.get(i).name);
+      for (int j = 0; j < bots.size(); j++) {
+        long n = s.versus[i][j] + s.versus[j][i];
+        System.out.printf(" %14s", i == j ? "-" : n == 0 ? "n/a" : String.format("%.2f", 100.0 * s.versus[i][j] / n));
+      }
+      System.out.println();
+    }
+  }
+
+  private static String abbreviate(String s) { return s.length() <= 14 ? s : s.substring(0, 14); }
+}
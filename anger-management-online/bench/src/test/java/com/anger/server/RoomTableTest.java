@@ -0,0 +1,160 @@
+// file: src/test/java/com/anger/server/RoomTableTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class RoomTableTest {
+
+  @Test void opensFindsAndReusesReleasedHandles() {
+    RoomTable t = new RoomTable(2);
+    int a = t.open("a"), b = t.open("b");
+    assertNotEquals(a, b);
+    assertEquals(a, t.open("a"), "open of a known id returns its handle");
+    assertEquals(-1, t.open("c"), "full");
+    assertEquals(2, t.size());
+
+    t.move(a, "P1", "rock");
+    t.release(a);
+    assertEquals(-1, t.find("a"));
+    assertEquals(b, t.find("b"));
+    assertThrows(IllegalArgumentException.class, () -> t.round(a), "released handle");
+
+    int c = t.open("c");
+    assertEquals(a, c, "the freed slot is reused");
+    assertEquals("c", t.id(c));
+    assertEquals("", t.move(c, 0), "a reused slot starts a fresh game");
+    assertEquals(1, t.round(c));
+  }
+
+  // Random opens and releases against a map, in a small index so probe runs collide and wrap.
+  @Test void deletionKeepsCollidingIdsFindable() {
+    RoomTable t = new RoomTable(64);
+    Map<String, Integer> live = new HashMap<>();
+    List<String> ids = new ArrayList<>();
+    Random rnd = new Random(42);
+    for (int step = 0; step < 100_000; step++) {
+      if (live.size() < 64 && (live.isEmpty() || rnd.nextInt(3) > 0)) {
+        String id = "m-" + Integer.toString(rnd.nextInt(500), 36);
+        int h = t.open(id);
+        Integer known = live.putIfAbsent(id, h);
+        if (known == null) ids.add(id); else assertEquals(known.intValue(), h, id);
+      } else {
+        String id = ids.remove(rnd.nextInt(ids.size()));
+        t.release(live.remove(id));
+      }
+      if (step % 1_000 == 0) {
+        for (Map.Entry<String, Integer> e : live.entrySet()) assertEquals(e.getValue().intValue(), t.find(e.getKey()), e.getKey());
+        for (int i = 0; i < 500; i++) {
+          String id = "m-" + Integer.toString(i, 36);
+          if (!live.containsKey(id)) assertEquals(-1, t.find(id), id);
+        }
+      }
+    }
+    assertEquals(live.size(), t.size());
+  }
+
+  @Test void idArenaIsCompactedRatherThanGrown() {
+    RoomTable t = new RoomTable(16);
+    for (int i = 0; i < 8; i++) t.open("keep-" + i);
+    long footprint = t.footprintBytes();
+    for (int i = 0; i < 50_000; i++) t.release(t.open("churn-" + i));
+    assertEquals(footprint, t.footprintBytes(), "released ids are reclaimed");
+    for (int i = 0; i < 8; i++) {
+      int h = t.find("keep-" + i);
+      assertTrue(h >= 0);
+      assertEquals("keep-" + i, t.id(h));
+    }
+  }
+
+  @Test void rejectsWhatTheServerRejectsWithoutChangingTheRoom() {
+    RoomTable t = new RoomTable(1);
+    int h = t.open("r1");
+    t.move(h, "P1", "rock");
+    assertEquals("P1_WIN", t.move(h, "P2", "scissors"));
+    AngerServer.Room before = new AngerServer.Room();
+    t.copyTo(h, before);
+
+    assertThrows(IllegalArgumentException.class, () -> t.move(h, "P3", "rock"));
+    assertThrows(IllegalArgumentException.class, () -> t.move(h, null, "rock"));
+    assertThrows(IllegalArgumentException.class, () -> t.move(h, "P1", "lizard"));
+    assertThrows(IllegalArgumentException.class, () -> t.move(h, "P1", ""));
+    assertThrows(IllegalArgumentException.class, () -> t.action(h, "P3", "Kick"));
+    assertThrows(IllegalArgumentException.class, () -> t.action(h, "P1", "Headbutt"));
+    assertThrows(IllegalArgumentException.class, () -> t.action(h, "P2", "Headbutt"), "checked before the turn");
+    assertFalse(t.action(h, "P2", "Kick"), "not their turn");
+
+    AngerServer.Room after = new AngerServer.Room();
+    t.copyTo(h, after);
+    assertEquals(before.p1Move, after.p1Move);
+    assertEquals(before.p2Move, after.p2Move);
+    assertEquals(before.pendingActionFor, after.pendingActionFor);
+    assertEquals(before.p1.score, after.p1.score);
+    assertTrue(t.action(h, "P1", "Kick"));
+  }
+
+  // The same commands on a table slot and on a Room give the same game.
+  @Test void followsTheServerRules() {
+    RoomTable t = new RoomTable(1);
+    int h = t.open("r1");
+    AngerServer.Room r = new AngerServer.Room();
+    r.id = "r1";
+    String[][] script = {
+      {"move", "P1", "rock"}, {"move", "P2", "scissors"}, {"action", "P1", "Punch"},
+      {"move", "P2", "paper"}, {"move", "P1", "paper"},
+      {"move", "P1", "scissors"}, {"move", "P2", "rock"}, {"action", "P1", "Slap"}, {"action", "P2", "Kick"},
+    };
+    for (String[] c : script) {
+      if (c[0].equals("move")) { t.move(h, c[1], c[2]); AngerServer.move(r, c[1], c[2]); }
+      else { t.action(h, c[1], c[2]); AngerServer.action(r, c[1], c[2]); }
+      AngerServer.Room copy = new AngerServer.Room();
+      t.copyTo(h, copy);
+      String at = String.join(" ", c);
+      assertEquals(r.round, copy.round, at);
+      assertEquals(r.p1Move, copy.p1Move, at);
+      assertEquals(r.p2Move, copy.p2Move, at);
+      assertEquals(r.pendingActionFor, copy.pendingActionFor, at);
+      for (int p = 0; p < 2; p++) {
+        AngerServer.PlayerState s = p == 0 ? r.p1 : r.p2, u = p == 0 ? copy.p1 : copy.p2;
+        assertEquals(s.score, u.score, at);
+        assertEquals(s.anger, u.anger, at);
+        assertEquals(s.satisfaction, u.satisfaction, at);
+        assertEquals(s.confidence, u.confidence, at);
+      }
+    }
+  }
+
+  @Test void copiesRoundTrip() {
+    AngerServer.Room r = new AngerServer.Room();
+    r.round = 12;
+    r.p1.score = 48; r.p1.anger = 100; r.p1.satisfaction = 3; r.p1.confidence = 77;
+    r.p2.score = 0; r.p2.anger = 0; r.p2.satisfaction = 100; r.p2.confidence = 0;
+    r.p1Move = "paper";
+    r.p2Move = "";
+    r.pendingActionFor = "P2";
+
+    RoomTable t = new RoomTable(4);
+    int h = t.open("r1");
+    t.copyFrom(r, h);
+    AngerServer.Room copy = new AngerServer.Room();
+    t.copyTo(h, copy);
+    assertEquals(12, copy.round);
+    assertEquals(48, copy.p1.score);
+    assertEquals(100, copy.p1.anger);
+    assertEquals(3, copy.p1.satisfaction);
+    assertEquals(77, copy.p1.confidence);
+    assertEquals(100, copy.p2.satisfaction);
+    assertEquals("paper", copy.p1Move);
+    assertEquals("", copy.p2Move);
+    assertEquals("P2", copy.pendingActionFor);
+
+    r.p2Move = "lizard";
+    assertThrows(IllegalArgumentException.class, () -> t.copyFrom(r, h));
+  }
+}
@@ -0,0 +1,103 @@
+package application;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.media.AudioClip;
+import javafx.scene.media.Media;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+// Every image and sound the game uses, decoded exactly once from the classpath
+// (/application/images, /application/sounds) and shared. preload() starts decoding all of them
+// in parallel on background daemon threads while the start screen is up. Nothing here blocks the
+// FX thread: an asset still loading shows up once decoded, and one that failed to load (logged
+// once) is left out - an empty ImageView, a silent sound.
+public final class Assets {
+
+    public static final String MUSIC = "BackgroundMusic.MP3";
+    private static final String[] IMAGES = { "rock.jpg", "paper.jpg", "scissors.jpg", "kick.jpg", "punch.jpg", "slap.jpg" };
+    private static final String[] CLIPS = { "Punch.mp3", "Kick.mp3", "Slap.mp3" };
+
+    private static final Map<String, CompletableFuture<?>> CACHE = new ConcurrentHashMap<>();
+    private static final ExecutorService LOADER = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())), r -> {
+                Thread t = new Thread(r, "asset-loader");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private Assets() {
+    }
+
+    public static void preload() {
+        for (String name : IMAGES) imageAsync(name);
+        for (String name : CLIPS) clipAsync(name);
+        mediaAsync(MUSIC);
+    }
+
+    public static CompletableFuture<Image> imageAsync(String name) {
+        return load("images/" + name, Image::new);
+    }
+
+    public static CompletableFuture<AudioClip> clipAsync(String name) {
+        return load("sounds/" + name, AudioClip::new);
+    }
+
+    public static CompletableFuture<Media> mediaAsync(String name) {
+        return load("sounds/" + name, Media::new);
+    }
+
+    // The decoded image, or null while it is loading or if it could not be loaded
+    public static Image image(String name) {
+        return now(imageAsync(name));
+    }
+
+    // The decoded clip, or null while it is loading or if it could not be loaded
+    public static AudioClip clip(String name) {
+        return now(clipAsync(name));
+    }
+
+    // Plays the clip now if it is decoded, otherwise as soon as it is (on the FX thread)
+    public static void play(String name) {
+        CompletableFuture<AudioClip> clip = clipAsync(name);
+        AudioClip now = now(clip);
+        if (now != null) {
+            now.play();
+        } else {
+            clip.thenAccept(c -> Platform.runLater(c::play));
+        }
+    }
+
+    // Sets the image now if it is decoded, otherwise as soon as it is (on the FX thread)
+    public static void into(ImageView view, String name) {
+        CompletableFuture<Image> img = imageAsync(name);
+        Image now = now(img);
+        if (now != null) {
+            view.setImage(now);
+        } else {
+            img.thenAccept(i -> Platform.runLater(() -> view.setImage(i)));
+        }
+    }
+
+    private static <T> T now(CompletableFuture<T> asset) {
+        return asset.isDone() && !asset.isCompletedExceptionally() ? asset.join() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> CompletableFuture<T> load(String path, Function<String, T> decode) {
+        return (CompletableFuture<T>) CACHE.computeIfAbsent(path, p -> CompletableFuture.supplyAsync(() -> {
+            URL url = Assets.class.getResource("/application/" + p);
+            if (url == null) throw new IllegalStateException("Missing asset /application/" + p);
+            return decode.apply(url.toExternalForm());
+        }, LOADER).whenComplete((v, error) -> {
+            if (error != null) error.printStackTrace();
+        }));
+    }
+}
@@ -0,0 +1,283 @@
+package application;
+
+// Immutable picture of the room as the server last described it. Each SSE/WebSocket event is
+// folded into the previous state by apply(), which reads the JSON in a single pass; that runs
+// on the network thread so the FX thread only ever copies finished values into controls.
+public final class GameState {
+
+    public static final class PlayerView {
+        public final String name;
+        public final int score;
+        public final int anger;
+        public final int satisfaction;
+        public final int confidence;
+
+        PlayerView(String name, int score, int anger, int satisfaction, int confidence) {
+            this.name = name;
+            this.score = score;
+            this.anger = anger;
+            this.satisfaction = satisfaction;
+            this.confidence = confidence;
+        }
+    }
+
+    public static final GameState INITIAL = new GameState(new Builder());
+
+    // Last applied event; deltas only apply on top of seq - 1
+    public final long seq;
+    // Not yet in step with the server: before the first snapshot, or after a delta was missed
+    // until the stream, resumed after seq, resends what came next
+    public final boolean behind;
+
+    public final int round;
+    public final PlayerView p1;
+    public final PlayerView p2;
+    public final String p1Move;
+    public final String p2Move;
+    public final String pendingActionFor;
+
+    // Per-event outcomes, stamped with the seq that carried them, so a UI that skips
+    // intermediate states can still tell whether it has shown the latest one
+    public final String result;
+    public final long resultSeq;
+    public final String lastAction;
+    public final String actor;
+    public final long actionSeq;
+    public final String winnerName;
+    public final boolean gameOver;
+
+    private GameState(Builder b) {
+        seq = b.seq;
+        behind = b.behind;
+        round = b.round;
+        p1 = new PlayerView(b.p1Name, b.p1Stats[0], b.p1Stats[1], b.p1Stats[2], b.p1Stats[3]);
+        p2 = new PlayerView(b.p2Name, b.p2Stats[0], b.p2Stats[1], b.p2Stats[2], b.p2Stats[3]);
+        p1Move = b.p1Move;
+        p2Move = b.p2Move;
+        pendingActionFor = b.pendingActionFor;
+        result = b.result;
+        resultSeq = b.resultSeq;
+        lastAction = b.lastAction;
+        actor = b.actor;
+        actionSeq = b.actionSeq;
+        winnerName = b.winnerName;
+        gameOver = b.gameOver;
+    }
+
+    // "state" is a full snapshot; "delta" carries only what changed since seq - 1. Fields the
+    // event leaves out keep their current value. Returns this when the event changes nothing.
+    public GameState apply(String type, String json) {
+        Builder b = new Builder(this);
+        try {
+            new Parser(json, b).top();
+        } catch (RuntimeException malformed) {
+            return this;
+        }
+        if ("delta".equals(type)) {
+            if (b.seq <= seq) return this; // already applied before a reconnect
+            if (b.seq != seq + 1) {
+                // Missed something: hold this state until the gap is filled or a snapshot comes
+                if (behind) return this;
+                Builder gap = new Builder(this);
+                gap.behind = true;
+                return new GameState(gap);
+            }
+        }
+        b.behind = false;
+        if (b.result != null) b.resultSeq = b.seq;
+        else b.result = result;
+        if (b.eventAction != null && b.eventActor != null) {
+            b.lastAction = b.eventAction;
+            b.actor = b.eventActor;
+            b.actionSeq = b.seq;
+        }
+        return new GameState(b);
+    }
+
+    private static final class Builder {
+        long seq = -1;
+        boolean behind = true;
+        int round = 1;
+        String p1Name = "Player 1";
+        String p2Name = "Player 2";
+        int[] p1Stats = { 0, 50, 25, 0 }; // score, anger, satisfaction, confidence
+        int[] p2Stats = { 0, 50, 25, 0 };
+        String p1Move = "";
+        String p2Move = "";
+        String pendingActionFor = "";
+        String result = "";
+        long resultSeq = -1;
+        String lastAction = "";
+        String actor = "";
+        long actionSeq = -1;
+        String winnerName = "";
+        boolean gameOver;
+        String eventAction;
+        String eventActor;
+
+        Builder() {
+        }
+
+        Builder(GameState s) {
+            seq = s.seq;
+            behind = s.behind;
+            round = s.round;
+            p1Name = s.p1.name;
+            p2Name = s.p2.name;
+            p1Stats = new int[] { s.p1.score, s.p1.anger, s.p1.satisfaction, s.p1.confidence };
+            p2Stats = new int[] { s.p2.score, s.p2.anger, s.p2.satisfaction, s.p2.confidence };
+            p1Move = s.p1Move;
+            p2Move = s.p2Move;
+            pendingActionFor = s.pendingActionFor;
+            result = null; // only set when this event carries one
+            resultSeq = s.resultSeq;
+            lastAction = s.lastAction;
+            actor = s.actor;
+            actionSeq = s.actionSeq;
+            winnerName = s.winnerName;
+            gameOver = s.gameOver;
+        }
+    }
+
+    // Recursive-descent reader for the shapes the server sends: one object whose members are
+    // strings, numbers, booleans, or the nested p1/p2 objects
+    private static final class Parser {
+        private final String s;
+        private final Builder b;
+        private int p;
+
+        Parser(String s, Builder b) {
+            this.s = s;
+            this.b = b;
+        }
+
+        void top() {
+            expect('{');
+            if (peekAfterWs() == '}') { p++; return; }
+            do {
+                String key = string();
+                expect(':');
+                ws();
+                switch (key) {
+                    case "seq": b.seq = number(); break;
+                    case "round": b.round = (int) number(); break;
+                    case "p1": b.p1Name = player(b.p1Name, b.p1Stats); break;
+                    case "p2": b.p2Name = player(b.p2Name, b.p2Stats); break;
+                    case "p1Move": b.p1Move = string(); break;
+                    case "p2Move": b.p2Move = string(); break;
+                    case "pendingActionFor": b.pendingActionFor = string(); break;
+                    case "result": b.result = string(); break;
+                    case "lastAction": b.eventAction = string(); break;
+                    case "actor": b.eventActor = string(); break;
+                    case "winnerName": b.winnerName = string(); break;
+                    case "gameOver": b.gameOver = bool(); break;
+                    default: skipValue();
+                }
+            } while (comma());
+        }
+
+        // Fills stats in place; returns the (possibly updated) name
+        private String player(String name, int[] stats) {
+            expect('{');
+            if (peekAfterWs() == '}') { p++; return name; }
+            do {
+                String key = string();
+                expect(':');
+                ws();
+                switch (key) {
+                    case "name": name = string(); break;
+                    case "score": stats[0] = (int) number(); break;
+                    case "anger": stats[1] = (int) number(); break;
+                    case "satisfaction": stats[2] = (int) number(); break;
+                    case "confidence": stats[3] = (int) number(); break;
+                    default: skipValue();
+                }
+            } while (comma());
+            return name;
+        }
+
+        // true after ',', false after the closing '}'
+        private boolean comma() {
+            ws();
+            char c = s.charAt(p++);
+            if (c == ',') return true;
+            if (c == '}') return false;
+            throw new IllegalArgumentException("expected , or } at " + (p - 1));
+        }
+
+        private String string() {
+            expect('"');
+            StringBuilder out = null;
+            int start = p;
+            while (true) {
+                char c = s.charAt(p);
+                if (c == '"') {
+                    String v = out == null ? s.substring(start, p) : out.append(s, start, p).toString();
+                    p++;
+                    return v;
+                }
+                if (c != '\\') { p++; continue; }
+                if (out == null) out = new StringBuilder();
+                out.append(s, start, p);
+                char e = s.charAt(p + 1);
+                p += 2;
+                switch (e) {
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    case 't': out.append('\t'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u': out.append((char) Integer.parseInt(s.substring(p, p + 4), 16)); p += 4; break;
+                    default: out.append(e);
+                }
+                start = p;
+            }
+        }
+
+        private long number() {
+            int start = p;
+            if (s.charAt(p) == '-') p++;
+            while (p < s.length() && Character.isDigit(s.charAt(p))) p++;
+            return Long.parseLong(s.substring(start, p));
+        }
+
+        private boolean bool() {
+            if (s.startsWith("true", p)) { p += 4; return true; }
+            if (s.startsWith("false", p)) { p += 5; return false; }
+            throw new IllegalArgumentException("expected boolean at " + p);
+        }
+
+        private void skipValue() {
+            char c = s.charAt(p);
+            if (c == '"') { string(); return; }
+            if (c == '{' || c == '[') {
+                int depth = 0;
+                do {
+                    c = s.charAt(p);
+                    if (c == '"') { string(); continue; }
+                    if (c == '{' || c == '[') depth++;
+                    else if (c == '}' || c == ']') depth--;
+                    p++;
+                } while (depth > 0);
+                return;
+            }
+            while (p < s.length() && ",}] \t\r\n".indexOf(s.charAt(p)) < 0) p++;
+        }
+
+        private void expect(char c) {
+            ws();
+            if (s.charAt(p) != c) throw new IllegalArgumentException("expected " + c + " at " + p);
+            p++;
+            ws();
+        }
+
+        private char peekAfterWs() {
+            ws();
+            return s.charAt(p);
+        }
+
+        private void ws() {
+            while (p < s.length() && Character.isWhitespace(s.charAt(p))) p++;
+        }
+    }
+}
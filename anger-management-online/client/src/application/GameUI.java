@@ -1,15 +1,13 @@
 package application;
 
+import javafx.animation.AnimationTimer;
 import javafx.animation.FadeTransition;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
 import javafx.scene.layout.*;
-import javafx.scene.media.AudioClip;
-import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.stage.Stage;
 import javafx.util.Duration;
@@ -18,11 +16,10 @@ import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonBar;
 import javafx.scene.control.ButtonType;
 
-import java.io.File;
-import java.util.Scanner;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import application.net.HttpClientLite;
+import application.net.SseSubscriber;
 
 public class GameUI {
     private Stage primaryStage;
@@ -45,7 +42,6 @@ public class GameUI {
     private HBox actionButtonsBox;
 
     private MediaPlayer bgMusic;
-    private AudioClip punchSound, kickSound, slapSound;
 
     private int angerScore;
     private int confidenceScore;
@@ -55,10 +51,30 @@ public class GameUI {
     // === Networking fields ===
     private HttpClientLite net;
     private String serverBase = "https://<your-render-service>.onrender.com"; // TODO: set your deployed server URL
-    private String roomId = "room-123";
-    private String myPlayer = "P1"; // or "P2"
+    private String socketUrl = null; // e.g. "wss://<host>:8081/"; null = HTTP POST + SSE
+    private volatile HttpClientLite.GameSocket socket;
+    private volatile SseSubscriber events;
+    private boolean matchmake = true; // pair with whoever is waiting via /matchmake; false = the fixed room below
+    private volatile String roomId = "room-123";
+    private volatile String myPlayer = "P1"; // or "P2"
+
+    // Server state: events are decoded and folded on the network thread into `received`; the
+    // newest result waits in pendingState and the FX thread applies at most one per frame
+    private volatile GameState received = GameState.INITIAL;
+    private final AtomicReference<GameState> pendingState = new AtomicReference<>();
+    private GameState shown = GameState.INITIAL;
+    private final AnimationTimer stateApplier = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            GameState s = pendingState.getAndSet(null);
+            if (s != null) applyState(s);
+        }
+    };
 
     public GameUI() {
+        // Decode images and sounds in the background while the start screen is showing
+        Assets.preload();
+
         // Action buttons container
         actionButtonsBox = new HBox(20);
         actionButtonsBox.setAlignment(Pos.CENTER);
@@ -76,7 +92,6 @@ public class GameUI {
         // Round Label
         roundLabel = new Label();
         roundLabel.getStyleClass().add("round-label");
-        loadSounds();
         playBackgroundMusic();
 
         // Message labels
@@ -173,17 +188,13 @@ public class GameUI {
         }
     }
 
-    private void loadSounds() {
-        punchSound = new AudioClip(new File("src/application/sounds/Punch.mp3").toURI().toString());
-        kickSound = new AudioClip(new File("src/application/sounds/Kick.mp3").toURI().toString());
-        slapSound = new AudioClip(new File("src/application/sounds/Slap.mp3").toURI().toString());
-    }
-
+    // Starts once the track is decoded instead of holding up the first frame
     private void playBackgroundMusic() {
-        Media bg = new Media(new File("src/application/sounds/BackgroundMusic.MP3").toURI().toString());
-        bgMusic = new MediaPlayer(bg);
-        bgMusic.setCycleCount(MediaPlayer.INDEFINITE);
-        bgMusic.play();
+        Assets.mediaAsync(Assets.MUSIC).thenAccept(bg -> Platform.runLater(() -> {
+            bgMusic = new MediaPlayer(bg);
+            bgMusic.setCycleCount(MediaPlayer.INDEFINITE);
+            bgMusic.play();
+        }));
     }
 
     private Label createMessageLabel() {
@@ -206,7 +217,8 @@ public class GameUI {
     }
 
     private ImageView createImageButton(String imageName, Runnable action) {
-        ImageView imageView = new ImageView(new Image("file:src/application/images/" + imageName));
+        ImageView imageView = new ImageView();
+        Assets.into(imageView, imageName);
         imageView.setFitHeight(80);
         imageView.setFitWidth(80);
         imageView.setOnMouseClicked(e -> action.run());
@@ -223,12 +235,13 @@ public class GameUI {
         }
 
         // Send to server; UI updates will arrive via events
-        try {
-            String body = "{\"room\":\"" + roomId + "\",\"player\":\"" + myPlayer + "\",\"move\":\"" + move + "\"}";
-            net.post("/move", "", body);
-        } catch (Exception e) {
-            e.printStackTrace();
+        HttpClientLite.GameSocket ws = socket;
+        if (ws != null) {
+            ws.move(myPlayer, move);
+            return;
         }
+        String body = "{\"room\":\"" + roomId + "\",\"player\":\"" + myPlayer + "\",\"move\":\"" + move + "\"}";
+        net.postAsync("/move", "", body).exceptionally(GameUI::logFailure);
     }
 
     private void setupKeyboardShortcuts() {
@@ -277,7 +290,8 @@ public class GameUI {
     }
 
     private ImageView createActionButton(String img, String action, Player winner, Player loser, Label label) {
-        ImageView imgView = new ImageView(new Image("file:src/application/images/" + img));
+        ImageView imgView = new ImageView();
+        Assets.into(imgView, img);
         imgView.setFitWidth(80);
         imgView.setFitHeight(80);
         imgView.setOnMouseClicked(e -> {
@@ -290,9 +304,9 @@ public class GameUI {
 
     private void playSound(String action) {
         switch (action) {
-            case "Punch": punchSound.play(); break;
-            case "Kick":  kickSound.play();  break;
-            case "Slap":  slapSound.play();  break;
+            case "Punch": Assets.play("Punch.mp3"); break;
+            case "Kick":  Assets.play("Kick.mp3");  break;
+            case "Slap":  Assets.play("Slap.mp3");  break;
         }
     }
 
@@ -341,6 +355,7 @@ public class GameUI {
 
             alert.showAndWait().ifPresent(response -> {
                 if (response == closeButton) {
+                    if (events != null) events.close();
                     Platform.exit();
                     System.exit(0);
                 }
@@ -357,170 +372,174 @@ public class GameUI {
 
     private void connectOnline() {
         net = new HttpClientLite(serverBase);
-        // Join the room
-        try {
-            String body = "room=" + roomId + "&name=" + (myPlayer.equals("P1") ? "Player 1" : "Player 2");
-            net.post("/join", body, "");
-        } catch (Exception e) {
-            e.printStackTrace();
+        stateApplier.start();
+        if (matchmake) {
+            // No seat until paired, so input is ignored meanwhile; the room and role come from the server
+            String fallbackRoom = roomId, fallbackPlayer = myPlayer;
+            myPlayer = "";
+            net.matchmake().whenComplete((match, error) -> {
+                if (error != null) {
+                    logFailure(error);
+                    roomId = fallbackRoom;
+                    myPlayer = fallbackPlayer;
+                } else {
+                    roomId = match.room;
+                    myPlayer = match.role;
+                }
+                joinRoom();
+            });
+            return;
         }
+        joinRoom();
+    }
 
-        // Listen for server-sent events
-        Executors.newSingleThreadExecutor().submit(() -> {
-            try {
-                Scanner sc = net.getEvents("/events?room=" + roomId);
-                while (sc.hasNextLine()) {
-                    String line = sc.nextLine();
-                    if (line.startsWith("data:")) {
-                        String json = line.substring(5).trim();
-                        Platform.runLater(() -> handleServerState(json));
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+    private void joinRoom() {
+        if (socketUrl != null) {
+            connectSocket();
+            return;
+        }
+        // Join the room; the resulting state arrives on the event stream like any other
+        String query = "room=" + roomId + "&name=" + (myPlayer.equals("P1") ? "Player%201" : "Player%202");
+        net.postAsync("/join", query, "").exceptionally(GameUI::logFailure);
+
+        // Listen for server-sent events; the subscriber reconnects with backoff and resumes after
+        // the last event id it saw, so the server replays what was missed or sends a snapshot
+        events = net.subscribe("/events?room=" + roomId, received.seq, new SseSubscriber.Listener() {
+            @Override
+            public void onEvent(String id, String event, String data) {
+                onServerEvent(event, data);
+            }
+
+            @Override
+            public void onDisconnect(Throwable error, long retryInMillis) {
+                System.err.println("Event stream lost (" + error + "), retrying in " + retryInMillis + " ms");
             }
         });
     }
 
+    // One WebSocket for joins, moves, actions and events; reconnects resume after the last event
+    private void connectSocket() {
+        String name = myPlayer.equals("P1") ? "Player 1" : "Player 2";
+        Thread t = new Thread(() -> {
+            while (true) {
+                try {
+                    HttpClientLite.GameSocket ws = net.openSocket(socketUrl, (type, json) -> {
+                        if (!"reply".equals(type)) onServerEvent(type, json);
+                    });
+                    ws.join(roomId, name, received.seq);
+                    socket = ws;
+                    ws.closed().join();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                socket = null;
+                try { Thread.sleep(1000); } catch (InterruptedException e) { return; }
+            }
+        }, "game-socket");
+        t.setDaemon(true);
+        t.start();
+    }
+
     private void sendAction(String action) {
-        try {
-            String body = "{\"room\":\"" + roomId + "\",\"player\":\"" + myPlayer + "\",\"action\":\"" + action + "\"}";
-            net.post("/action", "", body);
-        } catch (Exception e) {
-            e.printStackTrace();
+        HttpClientLite.GameSocket ws = socket;
+        if (ws != null) {
+            ws.action(myPlayer, action);
+            return;
+        }
+        String body = "{\"room\":\"" + roomId + "\",\"player\":\"" + myPlayer + "\",\"action\":\"" + action + "\"}";
+        net.postAsync("/action", "", body).exceptionally(GameUI::logFailure);
+    }
+
+    // Requests complete on the HTTP client's threads; failures are only logged because the
+    // event stream, not the response, is what updates the UI
+    private static String logFailure(Throwable error) {
+        error.printStackTrace();
+        return null;
+    }
+
+    // Network thread: one pass over the JSON, then only the newest state is kept for the UI
+    private synchronized void onServerEvent(String type, String json) {
+        GameState next = received.apply(type, json);
+        if (next == received) return;
+        boolean gap = next.behind && !received.behind;
+        received = next;
+        if (!next.behind) pendingState.set(next);
+        else if (gap) resync(next.seq);
+    }
+
+    // A delta went missing: reconnect now, resuming after the last event applied, rather than
+    // wait for the server's next periodic snapshot
+    private void resync(long lastApplied) {
+        HttpClientLite.GameSocket ws = socket;
+        if (ws != null) {
+            ws.close(); // the socket loop rejoins with received.seq as lastEventId
+            return;
         }
+        SseSubscriber sse = events;
+        if (sse != null) sse.resume(lastApplied);
     }
 
-    private void handleServerState(String json) {
-        // Minimal parser aligned with AngerServer.toJsonState and extras
-        // Updates: round, player bars/scores, moves, result, pendingActionFor, lastAction, actor, winnerName, gameOver
-        int round = parseInt(json, "\"round\":", 1);
-        roundLabel.setText("Round: " + round);
-
-        // p1 state
-        int p1Score = parseInt(json, "\"p1\":{\"name\":", "\"score\":", 0);
-        int p1Anger = parseInt(json, "\"p1\"", "\"anger\":", 50);
-        int p1Satisfaction = parseInt(json, "\"p1\"", "\"satisfaction\":", 25);
-        int p1Confidence = parseInt(json, "\"p1\"", "\"confidence\":", 0);
-        player1.setScore(p1Score);
-        player1.setAnger(p1Anger);
-        player1.setSatisfaction(p1Satisfaction);
-        player1.setConfidence(p1Confidence);
-
-        // p2 state
-        int p2Score = parseInt(json, "\"p2\":{\"name\":", "\"score\":", 0);
-        int p2Anger = parseInt(json, "\"p2\"", "\"anger\":", 50);
-        int p2Satisfaction = parseInt(json, "\"p2\"", "\"satisfaction\":", 25);
-        int p2Confidence = parseInt(json, "\"p2\"", "\"confidence\":", 0);
-        player2.setScore(p2Score);
-        player2.setAnger(p2Anger);
-        player2.setSatisfaction(p2Satisfaction);
-        player2.setConfidence(p2Confidence);
+    // FX thread, at most once per frame. Compares against the last state shown, so outcomes
+    // of states that were skipped in a burst are still reflected by the newest one.
+    private void applyState(GameState s) {
+        GameState prev = shown;
+        shown = s;
+        roundLabel.setText("Round: " + s.round);
+
+        player1.setScore(s.p1.score);
+        player1.setAnger(s.p1.anger);
+        player1.setSatisfaction(s.p1.satisfaction);
+        player1.setConfidence(s.p1.confidence);
+
+        player2.setScore(s.p2.score);
+        player2.setAnger(s.p2.anger);
+        player2.setSatisfaction(s.p2.satisfaction);
+        player2.setConfidence(s.p2.confidence);
 
         // moves and result
-        player1Move = parseString(json, "\"p1Move\":\"", "");
-        player2Move = parseString(json, "\"p2Move\":\"", "");
-        String result = parseString(json, "\"result\":\"", "");
-        String pendingActionFor = parseString(json, "\"pendingActionFor\":\"", "");
-
-        // messages
-        if (!player1Move.isEmpty()) showMessage(p1MessageLabel, "Player 1 chose " + capitalize(player1Move));
-        if (!player2Move.isEmpty()) showMessage(p2MessageLabel, "Player 2 chose " + capitalize(player2Move));
-
-        if ("DRAW".equals(result)) {
-            showMessage(p1MessageLabel, "Draw!");
-            showMessage(p2MessageLabel, "Draw!");
-            actionButtonsBox.getChildren().clear();
-            resetMoves();
-        } else if ("P1_WIN".equals(result)) {
-            showMessage(p1MessageLabel, "Player 1 won this round!");
-        } else if ("P2_WIN".equals(result)) {
-            showMessage(p2MessageLabel, "Player 2 won this round!");
+        player1Move = s.p1Move;
+        player2Move = s.p2Move;
+        if (!s.p1Move.isEmpty() && !s.p1Move.equals(prev.p1Move)) showMessage(p1MessageLabel, "Player 1 chose " + capitalize(s.p1Move));
+        if (!s.p2Move.isEmpty() && !s.p2Move.equals(prev.p2Move)) showMessage(p2MessageLabel, "Player 2 chose " + capitalize(s.p2Move));
+
+        if (s.resultSeq > prev.resultSeq) {
+            if ("DRAW".equals(s.result)) {
+                showMessage(p1MessageLabel, "Draw!");
+                showMessage(p2MessageLabel, "Draw!");
+                resetMoves();
+            } else if ("P1_WIN".equals(s.result)) {
+                showMessage(p1MessageLabel, "Player 1 won this round!");
+            } else if ("P2_WIN".equals(s.result)) {
+                showMessage(p2MessageLabel, "Player 2 won this round!");
+            }
         }
 
         // Show action buttons only for the winner client
-        actionButtonsBox.getChildren().clear();
-        if ("P1".equals(pendingActionFor)) {
-            if ("P1".equals(myPlayer)) showActionButtons(player1, player2, p1MessageLabel);
-        } else if ("P2".equals(pendingActionFor)) {
-            if ("P2".equals(myPlayer)) showActionButtons(player2, player1, p2MessageLabel);
+        if (!s.pendingActionFor.equals(prev.pendingActionFor)) {
+            actionButtonsBox.getChildren().clear();
+            if ("P1".equals(s.pendingActionFor)) {
+                if ("P1".equals(myPlayer)) showActionButtons(player1, player2, p1MessageLabel);
+            } else if ("P2".equals(s.pendingActionFor)) {
+                if ("P2".equals(myPlayer)) showActionButtons(player2, player1, p2MessageLabel);
+            }
         }
 
         // lastAction feedback, game over
-        String lastAction = parseString(json, "\"lastAction\":\"", "");
-        String actor = parseString(json, "\"actor\":\"", "");
-        String winnerName = parseString(json, "\"winnerName\":\"", "");
-        boolean gameOver = parseBool(json, "\"gameOver\":", false);
-
-        if (!lastAction.isEmpty() && !actor.isEmpty()) {
+        if (s.actionSeq > prev.actionSeq) {
             // Play corresponding sound and message
-            playSound(lastAction);
-            if ("P1".equals(actor)) {
-                showMessage(p1MessageLabel, "Player 1 " + lastAction.toLowerCase() + "ed Player 2!");
-            } else if ("P2".equals(actor)) {
-                showMessage(p2MessageLabel, "Player 2 " + lastAction.toLowerCase() + "ed Player 1!");
+            playSound(s.lastAction);
+            if ("P1".equals(s.actor)) {
+                showMessage(p1MessageLabel, "Player 1 " + s.lastAction.toLowerCase() + "ed Player 2!");
+            } else if ("P2".equals(s.actor)) {
+                showMessage(p2MessageLabel, "Player 2 " + s.lastAction.toLowerCase() + "ed Player 1!");
             }
-            // After an action, server resets moves and advances round
-            resetMoves();
-            actionButtonsBox.getChildren().clear();
         }
 
-        if (gameOver && !winnerName.isEmpty()) {
-            showMessage(p1MessageLabel, winnerName + " wins the game!");
-            showMessage(p2MessageLabel, winnerName + " wins the game!");
+        if (s.gameOver && !prev.gameOver && !s.winnerName.isEmpty()) {
+            showMessage(p1MessageLabel, s.winnerName + " wins the game!");
+            showMessage(p2MessageLabel, s.winnerName + " wins the game!");
             disableAllButtons();
-            showEndGamePopup(winnerName);
-        }
-    }
-
-    // === Tiny parsing helpers (no external JSON lib) ===
-
-    private String parseString(String json, String key, String def) {
-        int i = json.indexOf(key);
-        if (i < 0) return def;
-        int s = i + key.length();
-        int e = json.indexOf("\"", s);
-        if (e < 0) return def;
-        return json.substring(s, e);
-    }
-
-    private int parseInt(String json, String sectionKey, String key, int def) {
-        // Optional: narrow to section if present
-        int base = json.indexOf(sectionKey);
-        int startSearch = base >= 0 ? base : 0;
-        int i = json.indexOf(key, startSearch);
-        if (i < 0) return def;
-        int s = i + key.length();
-        // read until non-digit (allow minus)
-        int e = s;
-        while (e < json.length()) {
-            char c = json.charAt(e);
-            if ((c >= '0' && c <= '9') || c == '-') e++;
-            else break;
-        }
-        try { return Integer.parseInt(json.substring(s, e)); } catch (Exception ex) { return def; }
-    }
-
-    private int parseInt(String json, String key, int def) {
-        int i = json.indexOf(key);
-        if (i < 0) return def;
-        int s = i + key.length();
-        int e = s;
-        while (e < json.length()) {
-            char c = json.charAt(e);
-            if ((c >= '0' && c <= '9') || c == '-') e++;
-            else break;
+            showEndGamePopup(s.winnerName);
         }
-        try { return Integer.parseInt(json.substring(s, e)); } catch (Exception ex) { return def; }
-    }
-
-    private boolean parseBool(String json, String key, boolean def) {
-        int i = json.indexOf(key);
-        if (i < 0) return def;
-        int s = i + key.length();
-        // expect true/false
-        if (json.startsWith("true", s)) return true;
-        if (json.startsWith("false", s)) return false;
-        return def;
     }
 }
\ No newline at end of file
@@ -1,80 +1,224 @@
 package application.net;
 
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
 import java.nio.charset.StandardCharsets;
-import java.util.Scanner;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
 
 public class HttpClientLite {
+    // One client for the whole app: keeps connections alive and pools them per host, and its
+    // worker threads are daemons, so nothing here holds the JVM open or blocks the FX thread.
+    static final HttpClient HTTP = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .followRedirects(HttpClient.Redirect.NORMAL) // a cluster node answers 307 for rooms it does not own
+            .build();
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
     private final String base;
 
     public HttpClientLite(String base) {
         this.base = base.endsWith("/") ? base.substring(0, base.length() - 1) : base;
     }
 
-    // POST with JSON body (used by /move and /action)
+    // POST with JSON body (used by /move and /action); completes with the response body
+    public CompletableFuture<String> postAsync(String path, String query, String jsonBody) {
+        return send(path + (query == null || query.isEmpty() ? "" : ("?" + query)),
+                "application/json; charset=utf-8", jsonBody);
+    }
+
+    // POST with application/x-www-form-urlencoded body (used by /join)
+    public CompletableFuture<String> postFormAsync(String path, String formUrlEncoded) {
+        return send(path, "application/x-www-form-urlencoded; charset=utf-8", formUrlEncoded);
+    }
+
+    // Blocking forms of the above, for callers that are already off the FX thread
     public String post(String path, String query, String jsonBody) throws Exception {
-        String urlStr = base + path + (query == null || query.isEmpty() ? "" : ("?" + query));
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/json; charset=utf-8");
-
-        byte[] bytes = jsonBody.getBytes(StandardCharsets.UTF_8);
-        conn.setFixedLengthStreamingMode(bytes.length);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(bytes);
-        }
+        return postAsync(path, query, jsonBody).get();
+    }
+
+    public String post(String path, String formUrlEncoded) throws Exception {
+        return postFormAsync(path, formUrlEncoded).get();
+    }
 
-        int code = conn.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? conn.getInputStream() : conn.getErrorStream();
-        try (Scanner sc = new Scanner(is, StandardCharsets.UTF_8)) {
-            sc.useDelimiter("\\A");
-            return sc.hasNext() ? sc.next() : "";
-        } finally {
-            conn.disconnect();
+    private CompletableFuture<String> send(String pathAndQuery, String contentType, String body) {
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + pathAndQuery))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+        // Error responses complete normally with their body, as the old client returned them
+        return HTTP.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8))
+                .thenApply(HttpResponse::body);
+    }
+
+    // SSE stream kept alive by a background subscriber; lastEventId >= 0 resumes after that event
+    public SseSubscriber subscribe(String path, long lastEventId, SseSubscriber.Listener listener) {
+        return new SseSubscriber(base + path, lastEventId, listener).start();
+    }
+
+    // Waits in the server's /matchmake queue until paired with another player. Completes with
+    // the assigned room and role, or exceptionally if the server gives up or the stream ends.
+    public CompletableFuture<Match> matchmake() {
+        CompletableFuture<Match> result = new CompletableFuture<>();
+        HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/matchmake"))
+                .header("Accept", "text/event-stream")
+                .GET()
+                .build();
+        HTTP.sendAsync(req, HttpResponse.BodyHandlers.fromLineSubscriber(new Flow.Subscriber<String>() {
+            private Flow.Subscription subscription;
+            private String event = "message";
+
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription = s;
+                s.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String line) {
+                if (line.startsWith("event:")) {
+                    event = line.substring(6).trim();
+                } else if (line.startsWith("data:")) {
+                    String data = line.substring(5).trim();
+                    if ("matched".equals(event)) {
+                        result.complete(new Match(field(data, "room"), field(data, "role")));
+                        subscription.cancel();
+                    } else if (!"queued".equals(event)) {
+                        result.completeExceptionally(new IllegalStateException("matchmaking " + event + " " + data));
+                        subscription.cancel();
+                    }
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onComplete() {
+                result.completeExceptionally(new IllegalStateException("matchmaking stream closed"));
+            }
+        })).exceptionally(t -> {
+            result.completeExceptionally(t);
+            return null;
+        });
+        return result;
+    }
+
+    // Room and role handed out by /matchmake
+    public static class Match {
+        public final String room;
+        public final String role; // "P1" or "P2"
+
+        Match(String room, String role) {
+            this.room = room;
+            this.role = role;
         }
     }
 
-    // POST with application/x-www-form-urlencoded body (used by /join)
-    public String post(String path, String formUrlEncoded) throws Exception {
-        String urlStr = base + path;
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("POST");
-        conn.setDoOutput(true);
-        conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
-
-        byte[] bytes = formUrlEncoded.getBytes(StandardCharsets.UTF_8);
-        conn.setFixedLengthStreamingMode(bytes.length);
-        try (OutputStream os = conn.getOutputStream()) {
-            os.write(bytes);
+    // String member of a flat JSON object; the server's ids and roles never need escaping
+    private static String field(String json, String name) {
+        int i = json.indexOf("\"" + name + "\":\"");
+        if (i < 0) return null;
+        int start = i + name.length() + 4;
+        return json.substring(start, json.indexOf('"', start));
+    }
+
+    // WebSocket: one persistent connection carries join/move/action up and events down.
+    // wsUrl is e.g. ws://host:8081/ (the server's WS_PORT). onEvent gets (type, data json) for
+    // "state", "delta" and "reply" events, on the socket's thread.
+    public GameSocket openSocket(String wsUrl, BiConsumer<String, String> onEvent) throws Exception {
+        GameSocket gs = new GameSocket(onEvent);
+        gs.ws = HTTP.newWebSocketBuilder()
+                .buildAsync(URI.create(wsUrl), gs.listener)
+                .get();
+        return gs;
+    }
+
+    public static class GameSocket {
+        private final BiConsumer<String, String> onEvent;
+        private final CompletableFuture<Void> closed = new CompletableFuture<>();
+        private WebSocket ws;
+        private int ref;
+        private CompletableFuture<?> sending = CompletableFuture.completedFuture(null);
+
+        GameSocket(BiConsumer<String, String> onEvent) {
+            this.onEvent = onEvent;
         }
 
-        int code = conn.getResponseCode();
-        InputStream is = (code >= 200 && code < 300) ? conn.getInputStream() : conn.getErrorStream();
-        try (Scanner sc = new Scanner(is, StandardCharsets.UTF_8)) {
-            sc.useDelimiter("\\A");
-            return sc.hasNext() ? sc.next() : "";
-        } finally {
-            conn.disconnect();
+        // Subscribes to the room and joins it; lastEventId >= 0 resumes after that event
+        public void join(String room, String name, long lastEventId) {
+            send("{\"type\":\"join\",\"room\":\"" + room + "\",\"name\":\"" + name
+                    + "\",\"lastEventId\":\"" + lastEventId + "\"");
+        }
+
+        public void move(String player, String move) {
+            send("{\"type\":\"move\",\"player\":\"" + player + "\",\"move\":\"" + move + "\"");
+        }
+
+        public void action(String player, String action) {
+            send("{\"type\":\"action\",\"player\":\"" + player + "\",\"action\":\"" + action + "\"");
         }
-    }
 
-    // SSE stream: returns a Scanner you can read line-by-line
-    public Scanner getEvents(String path) throws Exception {
-        String urlStr = base + path;
-        URL url = new URL(urlStr);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        conn.setDoInput(true);
-        conn.setRequestProperty("Accept", "text/event-stream");
-        conn.setReadTimeout(0); // keep alive
-        InputStream is = conn.getInputStream();
-        // Caller must read lines and not close Scanner until done.
-        return new Scanner(is, StandardCharsets.UTF_8);
+        // Completes when the connection ends for any reason
+        public CompletableFuture<Void> closed() {
+            return closed;
+        }
+
+        public void close() {
+            ws.sendClose(WebSocket.NORMAL_CLOSURE, "");
+        }
+
+        // sendText must not overlap with an unfinished send, so each send is chained after the
+        // previous one instead of waiting for it; callers never block
+        private synchronized void send(String partial) {
+            String msg = partial + ",\"ref\":\"" + (++ref) + "\"}";
+            sending = sending.handle((v, err) -> null).thenCompose(v -> ws.sendText(msg, true));
+        }
+
+        private final WebSocket.Listener listener = new WebSocket.Listener() {
+            private final StringBuilder buf = new StringBuilder();
+
+            @Override
+            public CompletionStage<?> onText(WebSocket socket, CharSequence data, boolean last) {
+                buf.append(data);
+                if (last) {
+                    dispatch(buf.toString());
+                    buf.setLength(0);
+                }
+                socket.request(1);
+                return null;
+            }
+
+            @Override
+            public CompletionStage<?> onClose(WebSocket socket, int status, String reason) {
+                closed.complete(null);
+                return null;
+            }
+
+            @Override
+            public void onError(WebSocket socket, Throwable error) {
+                closed.complete(null);
+            }
+        };
+
+        // {"event":"X","id":N,"data":{...}} - data is always the last member
+        private void dispatch(String msg) {
+            int e = msg.indexOf("\"event\":\"");
+            int d = msg.indexOf("\"data\":");
+            if (e < 0 || d < 0) return;
+            int typeStart = e + 9;
+            String type = msg.substring(typeStart, msg.indexOf('"', typeStart));
+            onEvent.accept(type, msg.substring(d + 7, msg.length() - 1));
+        }
     }
 }
\ No newline at end of file
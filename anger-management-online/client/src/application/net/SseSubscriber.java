@@ -0,0 +1,181 @@
+package application.net;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Keeps one server-sent event stream alive. Parses id:/event:/data:/retry: per the SSE spec,
+// and when the stream drops or fails to connect it retries with jittered exponential backoff,
+// sending Last-Event-ID so the server replays what was missed (or sends a fresh snapshot).
+// Runs on a single daemon thread; close() stops it.
+public class SseSubscriber {
+
+    public interface Listener {
+        // One complete event; id is null for events without one
+        void onEvent(String id, String event, String data);
+
+        // Called each time the stream (re)connects
+        default void onOpen() {}
+
+        // The stream failed or ended; the next attempt starts in retryInMillis
+        default void onDisconnect(Throwable error, long retryInMillis) {}
+    }
+
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final String url;
+    private final Listener listener;
+    private final Thread thread;
+    private volatile String lastEventId;
+    private volatile long retryMs = 1_000; // server may change it with retry:
+    private volatile InputStream current;
+    private volatile boolean closed;
+    private volatile boolean resuming;
+
+    SseSubscriber(String url, long lastEventId, Listener listener) {
+        this.url = url;
+        this.listener = listener;
+        this.lastEventId = lastEventId >= 0 ? Long.toString(lastEventId) : null;
+        this.thread = new Thread(this::run, "sse-subscriber");
+        this.thread.setDaemon(true);
+    }
+
+    SseSubscriber start() {
+        thread.start();
+        return this;
+    }
+
+    public String lastEventId() {
+        return lastEventId;
+    }
+
+    // Drops the current connection and reconnects at once, resuming after lastEventId, for a
+    // listener that found a gap in the events: the server replays the rest or sends a snapshot
+    public void resume(long lastEventId) {
+        this.lastEventId = Long.toString(lastEventId);
+        resuming = true;
+        InputStream in = current;
+        if (in != null) {
+            try { in.close(); } catch (IOException ignore) {}
+        }
+    }
+
+    public void close() {
+        closed = true;
+        InputStream in = current;
+        if (in != null) {
+            try { in.close(); } catch (IOException ignore) {}
+        }
+        thread.interrupt();
+    }
+
+    private void run() {
+        int failures = 0;
+        while (!closed) {
+            Throwable error = null;
+            try {
+                if (stream()) failures = 0; // got at least one event: the connection was healthy
+            } catch (Exception e) {
+                error = e;
+            }
+            if (closed) return;
+            if (resuming) {
+                resuming = false;
+                continue;
+            }
+            long delay = backoff(failures++);
+            listener.onDisconnect(error, delay);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Full jitter: uniform in [retry/2, retry * 2^failures], capped
+    private long backoff(int failures) {
+        long ceiling = Math.min(MAX_BACKOFF_MS, retryMs << Math.min(failures, 10));
+        return ThreadLocalRandom.current().nextLong(retryMs / 2, Math.max(retryMs / 2 + 1, ceiling));
+    }
+
+    // Reads one connection until it ends; true if any event arrived
+    private boolean stream() throws Exception {
+        HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", "text/event-stream")
+                .GET();
+        String last = lastEventId;
+        if (last != null) req.header("Last-Event-ID", last);
+        HttpResponse<InputStream> resp = HttpClientLite.HTTP.send(req.build(), HttpResponse.BodyHandlers.ofInputStream());
+        if (resp.statusCode() != 200) {
+            resp.body().close();
+            throw new IOException("HTTP " + resp.statusCode() + " from " + url);
+        }
+        current = resp.body();
+        if (closed) {
+            current.close();
+            return false;
+        }
+        listener.onOpen();
+        boolean received = false;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(current, StandardCharsets.UTF_8))) {
+            String id = null;
+            String event = "message";
+            StringBuilder data = new StringBuilder();
+            boolean hasData = false;
+            String line;
+            // Lines already buffered are not read once resume() asked for a fresh connection
+            while (!resuming && (line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    // Blank line dispatches the event
+                    if (id != null) lastEventId = id;
+                    if (hasData) {
+                        listener.onEvent(id, event, data.toString());
+                        received = true;
+                    }
+                    id = null;
+                    event = "message";
+                    data.setLength(0);
+                    hasData = false;
+                    continue;
+                }
+                if (line.charAt(0) == ':') continue; // comment / keep-alive
+                int colon = line.indexOf(':');
+                String field = colon < 0 ? line : line.substring(0, colon);
+                String value = colon < 0 ? "" : line.substring(colon + 1);
+                if (value.startsWith(" ")) value = value.substring(1);
+                switch (field) {
+                    case "id":
+                        id = value;
+                        break;
+                    case "event":
+                        event = value;
+                        break;
+                    case "data":
+                        if (hasData) data.append('\n');
+                        data.append(value);
+                        hasData = true;
+                        break;
+                    case "retry":
+                        try {
+                            retryMs = Math.max(100, Long.parseLong(value.trim()));
+                        } catch (NumberFormatException ignore) {
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            current = null;
+        }
+        return received;
+    }
+}
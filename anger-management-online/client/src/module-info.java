@@ -3,5 +3,6 @@ module client {
 	    requires javafx.fxml;
 	    requires javafx.graphics;
 	    requires javafx.media;
+	    requires java.net.http;
 	    exports application;
 }
\ No newline at end of file
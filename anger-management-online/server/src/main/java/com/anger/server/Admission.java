@@ -0,0 +1,212 @@
+// file: src/main/java/com/anger/server/Admission.java
+package com.anger.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Admission control, so a surge is turned away cheaply instead of queueing until every game
+ * slows down. In the order a request meets them:
+ * <ul>
+ *   <li>shedding - while more than {@code SHED_PENDING} room commands wait on mailboxes,
+ *       every command and new stream gets 503;
+ *   <li>per-client rate - commands per second per remote address ({@code CLIENT_RATE});
+ *   <li>per-room rate - commands per second per room ({@code ROOM_RATE});
+ *   <li>stream caps - open /events and WebSocket subscriptions per room and in total.
+ * </ul>
+ * Rate limits answer 429 and caps 503, all with {@code Retry-After}, and every rejection is
+ * counted by reason. Rates are token buckets kept as one "theoretical arrival time" per key
+ * (GCRA), so a check is a map lookup and one CAS. Streams are counted when admitted and
+ * released when the subscriber detaches; a cap is one increment, undone if it went over.
+ */
+final class Admission {
+
+  enum Reason {
+    SHED, CLIENT_RATE, ROOM_RATE, ROOM_STREAMS, STREAMS;
+
+    final String label = name().toLowerCase();
+  }
+
+  /** Token buckets by key: {@code rate} per second with room for {@code burst} at once. */
+  static final class Limiter {
+    private final long interval;  // nanos per token
+    private final long tolerance; // how far ahead of now the arrival time may run
+    private final ConcurrentHashMap<Object, AtomicLong> tats = new ConcurrentHashMap<>();
+
+    Limiter(int rate, int burst) {
+      interval = TimeUnit.SECONDS.toNanos(1) / rate;
+      tolerance = interval * (Math.max(1, burst) - 1);
+    }
+
+    /** Takes a token for {@code key}: 0 when admitted, otherwise nanos until one is free. */
+    long acquire(Object key, long now) {
+      AtomicLong tat = tats.get(key);
+      if (tat == null) {
+        AtomicLong fresh = new AtomicLong(now);
+        tat = tats.putIfAbsent(key, fresh);
+        if (tat == null) tat = fresh;
+      }
+      for (;;) {
+        long t = tat.get();
+        long start = Math.max(t, now);
+        if (start - now > tolerance) return start - now - tolerance;
+        if (tat.compareAndSet(t, start + interval)) return 0;
+      }
+    }
+
+    /** Drops keys whose bucket has refilled; a missing key is a full bucket. */
+    void sweep(long now) {
+      tats.values().removeIf(t -> t.get() <= now);
+    }
+
+    int size() { return tats.size(); }
+  }
+
+  private final Limiter clients; // null = off
+  private final Limiter rooms;    // null = off
+  private final int maxRoomStreams, maxStreams, shedPending;
+  private final LongAdder[] rejected = new LongAdder[Reason.values().length];
+  private final AtomicInteger streams = new AtomicInteger();
+  private static final AtomicIntegerFieldUpdater<AngerServer.Room> ROOM_STREAMS =
+      AtomicIntegerFieldUpdater.newUpdater(AngerServer.Room.class, "streams");
+  private final ScheduledExecutorService sweeper;
+
+  Admission(AngerServer.Config cfg) {
+    clients = cfg.clientRate > 0 ? new Limiter(cfg.clientRate, cfg.clientBurst) : null;
+    rooms = cfg.roomRate > 0 ? new Limiter(cfg.roomRate, cfg.roomBurst) : null;
+    maxRoomStreams = cfg.maxRoomStreams;
+    maxStreams = cfg.maxStreams;
+    shedPending = cfg.shedPending;
+    for (int i = 0; i < rejected.length; i++) rejected[i] = new LongAdder();
+    if (clients != null || rooms != null) {
+      sweeper = Executors.newSingleThreadScheduledExecutor(AngerServer.daemonFactory("admission-sweep"));
+      sweeper.scheduleWithFixedDelay(() -> {
+        long now = System.nanoTime();
+        if (clients != null) clients.sweep(now);
+        if (rooms != null) rooms.sweep(now);
+      }, 10, 10, TimeUnit.SECONDS);
+    } else {
+      sweeper = null;
+    }
+  }
+
+  long rejected(Reason r) { return rejected[r.ordinal()].sum(); }
+
+  boolean shedding() { return shedPending > 0 && Mailbox.pending.sum() > shedPending; }
+
+  /**
+   * Sheds load and applies the per-client rate before the handler runs. {@code command} is
+   * false for /events, which only sheds; its caps are checked once the room is known.
+   */
+  Filter filter(boolean command) {
+    return new Filter() {
+      @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+        if (shedding()) { reject(ex, Reason.SHED, 503, TimeUnit.SECONDS.toNanos(1)); return; }
+        if (command && clients != null) {
+          long wait = clients.acquire(ex.getRemoteAddress().getAddress(), System.nanoTime());
+          if (wait > 0) { reject(ex, Reason.CLIENT_RATE, 429, wait); return; }
+        }
+        chain.doFilter(ex);
+      }
+
+      @Override public String description() { return "admission"; }
+    };
+  }
+
+  /**
+   * Shedding and the per-client rate for a WebSocket message, which meets no filter: null when
+   * admitted, else the reason (counted). Every message counts against the client's rate.
+   */
+  Reason admitMessage(InetAddress client) {
+    Reason r = shedding() ? Reason.SHED
+        : clients != null && clients.acquire(client, System.nanoTime()) > 0 ? Reason.CLIENT_RATE : null;
+    if (r != null) rejected[r.ordinal()].increment();
+    return r;
+  }
+
+  /** Per-room rate for a command; false once the rejection has been sent. */
+  boolean admitCommand(HttpExchange ex, String room) throws IOException {
+    long wait = roomDelay(room);
+    if (wait == 0) return true;
+    reject(ex, Reason.ROOM_RATE, 429, wait);
+    return false;
+  }
+
+  /** Nanos before {@code room} takes another command, 0 if it can now; counts a rejection. */
+  long roomDelay(String room) {
+    if (rooms == null) return 0;
+    long wait = rooms.acquire(room, System.nanoTime());
+    if (wait > 0) rejected[Reason.ROOM_RATE.ordinal()].increment();
+    return wait;
+  }
+
+  /**
+   * Stream caps for a new /events subscriber; false once the rejection has been sent. When
+   * admitted the stream is counted until {@link #releaseStream}.
+   */
+  boolean admitStream(HttpExchange ex, AngerServer.Room r) throws IOException {
+    Reason capped = openStream(r);
+    if (capped == null) return true;
+    reject(ex, capped, 503, TimeUnit.SECONDS.toNanos(5));
+    return false;
+  }
+
+  /** Counts a new subscriber of {@code r}: null when admitted, else the cap it hit (counted). */
+  Reason openStream(AngerServer.Room r) {
+    // Counted even without a cap, so a later release always has something to undo.
+    if (ROOM_STREAMS.incrementAndGet(r) > maxRoomStreams && maxRoomStreams > 0) {
+      ROOM_STREAMS.decrementAndGet(r);
+      rejected[Reason.ROOM_STREAMS.ordinal()].increment();
+      return Reason.ROOM_STREAMS;
+    }
+    if (streams.incrementAndGet() > maxStreams && maxStreams > 0) {
+      streams.decrementAndGet();
+      ROOM_STREAMS.decrementAndGet(r);
+      rejected[Reason.STREAMS.ordinal()].increment();
+      return Reason.STREAMS;
+    }
+    return null;
+  }
+
+  /** Undoes one admitted {@link #openStream}. */
+  void releaseStream(AngerServer.Room r) {
+    ROOM_STREAMS.decrementAndGet(r);
+    streams.decrementAndGet();
+  }
+
+  /** Stops the sweeper; for a server restarted with a new configuration. */
+  void close() {
+    if (sweeper != null) sweeper.shutdownNow();
+  }
+
+  private void reject(HttpExchange ex, Reason reason, int code, long retryNanos) throws IOException {
+    // roomDelay and openStream counted their own
+    if (reason == Reason.SHED || reason == Reason.CLIENT_RATE) rejected[reason.ordinal()].increment();
+    long seconds = Math.max(1, (retryNanos + 999_999_999) / 1_000_000_000);
+    ex.getResponseHeaders().add("Retry-After", String.valueOf(seconds));
+    AngerServer.respond(ex, code, "{\"error\":\"" + reason.label + "\"}");
+  }
+
+  /** JSON object for /stats. */
+  String stats() {
+    StringBuilder sb = new StringBuilder("{\"pending\":").append(Mailbox.pending.sum())
+        .append(",\"shedding\":").append(shedding()).append(",\"streams\":").append(streams.get());
+    if (clients != null) sb.append(",\"trackedClients\":").append(clients.size());
+    if (rooms != null) sb.append(",\"trackedRooms\":").append(rooms.size());
+    sb.append(",\"rejected\":{");
+    for (Reason r : Reason.values()) {
+      sb.append(r.ordinal() == 0 ? "" : ",").append('"').append(r.label).append("\":").append(rejected(r));
+    }
+    return sb.append("}}").toString();
+  }
+}
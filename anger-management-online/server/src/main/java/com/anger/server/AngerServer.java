@@ -6,20 +6,264 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AngerServer {
 
   public static void main(String[] args) throws Exception {
-    int port = Integer.parseInt(System.getenv().getOrDefault("PORT", "8080"));
-    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
-    server.createContext("/join", new JoinHandler());
-    server.createContext("/move", new MoveHandler());
-    server.createContext("/action", new ActionHandler());
-    server.createContext("/events", new EventsHandler());
-    server.setExecutor(null);
-    System.out.println("Server started on port " + port);
+    Config cfg = Config.fromEnv();
+    start(cfg);
+    System.out.println("Server started on port " + cfg.port + " (executor=" + cfg.executor.name().toLowerCase()
+        + ", backlog=" + cfg.backlog + ")");
+    if (webSocket != null) System.out.println("WebSocket listening on port " + webSocket.port());
+  }
+
+  static WebSocketServer webSocket; // null unless Config.wsPort >= 0
+  static Journal journal;           // null unless Config.journalDir is set
+  static Matchmaker matchmaker;
+  static Cluster cluster;           // null unless Config.clusterNodes is set
+  static Replication replication;   // null unless Config.replicationPort or replicateFrom is set
+  static Admission admission;        // created by start()
+  static String adminSecret;        // Config.adminSecret
+  static final String SECRET = "X-Anger-Secret";
+
+  public static HttpServer start(Config cfg) throws IOException {
+    // Read once by the JDK server when its first instance is created; without it small
+    // responses sit behind Nagle + delayed ACK for ~40ms.
+    if (cfg.noDelay) System.setProperty("sun.net.httpserver.nodelay", "true");
+    HttpServer server = HttpServer.create(new InetSocketAddress(cfg.port), cfg.backlog);
+    if (cfg.clusterNodes != null) {
+      String self = cfg.clusterSelf != null ? cfg.clusterSelf : "http://127.0.0.1:" + cfg.port;
+      cluster = new Cluster(self, Cluster.parseNodes(cfg.clusterNodes), cfg.clusterVnodes, cfg.clusterRouting);
+    }
+    adminSecret = cfg.adminSecret;
+    Admission previous = admission;
+    admission = new Admission(cfg);
+    if (previous != null) previous.close();
+    context(server, "/join", new JoinHandler(), Metrics.JOIN, false).add(Replication.writeGuard());
+    context(server, "/move", new MoveHandler(), Metrics.MOVE, true).add(Replication.writeGuard());
+    context(server, "/action", new ActionHandler(), Metrics.ACTION, true).add(Replication.writeGuard());
+    context(server, "/events", new EventsHandler(), Metrics.EVENTS, false);
+    if (cluster != null) {
+      server.createContext("/cluster", cluster.new MembershipHandler()).getFilters().add(adminGuard());
+      server.createContext("/cluster/handoff", cluster.new HandoffHandler()).getFilters().add(adminGuard());
+    }
+    List<Filter> lobby = server.createContext("/matchmake", new MatchmakeHandler()).getFilters();
+    lobby.add(admission.filter(true));
+    lobby.add(Replication.writeGuard());
+    List<Filter> batch = server.createContext("/batch", new BatchHandler()).getFilters();
+    batch.add(Metrics.BATCH.filter());
+    batch.add(admission.filter(true));
+    batch.add(Replication.writeGuard());
+    server.createContext("/stats", new StatsHandler());
+    server.createContext("/metrics", new MetricsHandler());
+    Metrics.start();
+    server.setExecutor(cfg.executor.create(cfg));
+    SseClient.configure(cfg);
+    Mailbox.configure(cfg);
+    StatePublisher.snapshotEvery = cfg.snapshotEvery;
+    StatePublisher.replaySize = cfg.replaySize;
+    registry.configure(cfg.roomCapacity, cfg.roomTtlSec * 1000L, cfg.reapIntervalSec * 1000L);
+    if (cfg.hibernateFile != null) {
+      registry.hibernateTo(Hibernation.open(java.nio.file.Paths.get(cfg.hibernateFile)), cfg.hibernateAfterSec * 1000L);
+    }
+    if (matchmaker == null) matchmaker = new Matchmaker(cfg.matchTimeoutSec * 1000L);
+    if (cfg.journalDir != null) {
+      // Replayed before the journal is installed, so recovered commands are not logged twice.
+      Journal j = Journal.open(cfg, registry);
+      journal = j;
+      Runtime.getRuntime().addShutdownHook(new Thread(j::close, "journal-close"));
+    }
+    Replication rep = Replication.start(cfg);
+    if (rep != null) {
+      replication = rep;
+      server.createContext("/replication", rep.new Handler()).getFilters().add(adminGuard());
+    }
     server.start();
+    if (cfg.wsPort >= 0) webSocket = WebSocketServer.start(cfg);
+    return server;
+  }
+
+  // Room-scoped contexts: timed, admitted, and routed to the owning node in cluster mode.
+  private static List<Filter> context(HttpServer server, String path, HttpHandler h, Metrics.Endpoint endpoint, boolean roomInBody) {
+    List<Filter> filters = server.createContext(path, h).getFilters();
+    filters.add(endpoint.filter());
+    filters.add(admission.filter(endpoint != Metrics.EVENTS));
+    if (cluster != null) filters.add(cluster.filter(roomInBody, roomInBody ? null : "default"));
+    return filters;
+  }
+
+  /**
+   * Membership changes, handoffs and promotion rewrite state, so anything but a GET must carry
+   * {@link #SECRET} matching {@link Config#adminSecret}, or come from loopback when none is set.
+   */
+  static Filter adminGuard() {
+    return new Filter() {
+      @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+        String secret = adminSecret;
+        String given = ex.getRequestHeaders().getFirst(SECRET);
+        boolean allowed = "GET".equalsIgnoreCase(ex.getRequestMethod())
+            || (secret == null ? ex.getRemoteAddress().getAddress().isLoopbackAddress()
+                : given != null && java.security.MessageDigest.isEqual(
+                    secret.getBytes(StandardCharsets.UTF_8), given.getBytes(StandardCharsets.UTF_8)));
+        if (allowed) chain.doFilter(ex);
+        else respond(ex, 403, "{\"error\":\"forbidden\"}");
+      }
+
+      @Override public String description() { return "admin secret"; }
+    };
+  }
+
+  // ==== Configuration ====
+  public static class Config {
+    public int port = 8080;
+    public int backlog = 0;                 // 0 = system default accept backlog
+    public ExecutorMode executor = ExecutorMode.SINGLE;
+    public int poolSize = Runtime.getRuntime().availableProcessors() * 2;
+    public int poolQueue = 1024;            // pending requests before the dispatcher runs them itself
+    public boolean noDelay = true;
+    public int sseWriters = Runtime.getRuntime().availableProcessors();
+    public int sseQueue = 64;               // frames buffered per subscriber
+    public SseClient.Overflow sseOverflow = SseClient.Overflow.COALESCE;
+    public int sseWriteTimeoutMs = 10_000;  // a write blocked this long is aborted and the client dropped
+    public int snapshotEvery = 20;          // every Nth event is a full state instead of a delta
+    public int replaySize = 64;             // recent events kept per room for Last-Event-ID resume
+    public int roomCapacity = 100_000;      // new room ids beyond this are refused with 503
+    public int roomTtlSec = 30 * 60;        // idle rooms without subscribers are evicted after this
+    public int reapIntervalSec = 30;
+    public int roomWorkers = Runtime.getRuntime().availableProcessors(); // threads running room mailboxes
+    public int wsPort = -1;                 // WebSocket listener; -1 = off
+    public String journalDir = null;        // write-ahead journal directory; null = off
+    public int journalSegmentMb = 64;
+    public Journal.Fsync journalFsync = Journal.Fsync.BATCH;
+    public int journalFlushMs = 5;          // group-commit interval under BATCH
+    public int journalCompactSegments = 4;  // snapshot every room and drop old segments beyond this many
+    public String hibernateFile = null;     // idle rooms are parked here off-heap; null = off
+    public int hibernateAfterSec = 120;     // idle time without subscribers before a room hibernates
+    public int matchTimeoutSec = 120;       // /matchmake gives up on an unpaired player after this
+    public String clusterNodes = null;      // comma-separated base URLs of every node; null = single node
+    public String clusterSelf = null;       // this node's base URL as listed in clusterNodes; null = http://127.0.0.1:PORT
+    public int clusterVnodes = 128;         // ring points per node
+    public Cluster.Routing clusterRouting = Cluster.Routing.REDIRECT;
+    public int replicationPort = -1;        // leader: followers connect here; -1 = off
+    public String replicateFrom = null;     // follower: leader's host:port; null = not a follower
+    public int replicationBuffer = 65_536;  // commands kept for followers; one further behind resyncs
+    public String adminSecret = null;       // required on cluster and promote POSTs; null = loopback callers only
+    // Admission control; 0 = off
+    public int clientRate = 0;              // commands per second per remote address
+    public int clientBurst = 20;
+    public int roomRate = 0;                // commands per second per room
+    public int roomBurst = 20;
+    public int maxRoomStreams = 0;          // open /events streams per room
+    public int maxStreams = 0;              // open /events and WebSocket subscriptions in total
+    public int shedPending = 0;             // queued room commands beyond which requests get 503
+
+    public static Config fromEnv() {
+      Config c = new Config();
+      c.port = envInt("PORT", c.port);
+      c.backlog = envInt("BACKLOG", c.backlog);
+      c.executor = ExecutorMode.parse(env("EXECUTOR", c.executor.name()));
+      c.poolSize = envInt("POOL_SIZE", c.poolSize);
+      c.poolQueue = envInt("POOL_QUEUE", c.poolQueue);
+      c.noDelay = Boolean.parseBoolean(env("TCP_NODELAY", String.valueOf(c.noDelay)));
+      c.sseWriters = envInt("SSE_WRITERS", c.sseWriters);
+      c.sseQueue = envInt("SSE_QUEUE", c.sseQueue);
+      c.sseOverflow = SseClient.Overflow.parse(env("SSE_OVERFLOW", c.sseOverflow.name()));
+      c.sseWriteTimeoutMs = envInt("SSE_WRITE_TIMEOUT_MS", c.sseWriteTimeoutMs);
+      c.snapshotEvery = envInt("SNAPSHOT_EVERY", c.snapshotEvery);
+      c.replaySize = envInt("REPLAY_SIZE", c.replaySize);
+      c.roomCapacity = envInt("ROOM_CAPACITY", c.roomCapacity);
+      c.roomTtlSec = envInt("ROOM_TTL_SEC", c.roomTtlSec);
+      c.reapIntervalSec = envInt("REAP_INTERVAL_SEC", c.reapIntervalSec);
+      c.roomWorkers = envInt("ROOM_WORKERS", c.roomWorkers);
+      c.wsPort = envInt("WS_PORT", c.wsPort);
+      String dir = env("JOURNAL_DIR", "");
+      c.journalDir = dir.isEmpty() ? null : dir;
+      c.journalSegmentMb = envInt("JOURNAL_SEGMENT_MB", c.journalSegmentMb);
+      c.journalFsync = Journal.Fsync.parse(env("JOURNAL_FSYNC", c.journalFsync.name()));
+      c.journalFlushMs = envInt("JOURNAL_FLUSH_MS", c.journalFlushMs);
+      c.journalCompactSegments = envInt("JOURNAL_COMPACT_SEGMENTS", c.journalCompactSegments);
+      String hib = env("HIBERNATE_FILE", "");
+      c.hibernateFile = hib.isEmpty() ? null : hib;
+      c.hibernateAfterSec = envInt("HIBERNATE_AFTER_SEC", c.hibernateAfterSec);
+      c.matchTimeoutSec = envInt("MATCH_TIMEOUT_SEC", c.matchTimeoutSec);
+      String nodes = env("CLUSTER_NODES", "");
+      c.clusterNodes = nodes.isEmpty() ? null : nodes;
+      c.clusterSelf = env("CLUSTER_SELF", "http://127.0.0.1:" + c.port);
+      c.clusterVnodes = envInt("CLUSTER_VNODES", c.clusterVnodes);
+      c.clusterRouting = Cluster.Routing.parse(env("CLUSTER_ROUTING", c.clusterRouting.name()));
+      c.replicationPort = envInt("REPLICATION_PORT", c.replicationPort);
+      String from = env("REPLICATE_FROM", "");
+      c.replicateFrom = from.isEmpty() ? null : from;
+      c.replicationBuffer = envInt("REPLICATION_BUFFER", c.replicationBuffer);
+      String secret = env("ADMIN_SECRET", "");
+      c.adminSecret = secret.isEmpty() ? null : secret;
+      c.clientRate = envInt("CLIENT_RATE", c.clientRate);
+      c.clientBurst = envInt("CLIENT_BURST", c.clientBurst);
+      c.roomRate = envInt("ROOM_RATE", c.roomRate);
+      c.roomBurst = envInt("ROOM_BURST", c.roomBurst);
+      c.maxRoomStreams = envInt("MAX_ROOM_STREAMS", c.maxRoomStreams);
+      c.maxStreams = envInt("MAX_STREAMS", c.maxStreams);
+      c.shedPending = envInt("SHED_PENDING", c.shedPending);
+      return c;
+    }
+  }
+
+  static String env(String key, String def) { return System.getenv().getOrDefault(key, def); }
+  static int envInt(String key, int def) { return Integer.parseInt(env(key, String.valueOf(def))); }
+
+  /** How HttpServer dispatches exchanges to handlers. */
+  public enum ExecutorMode {
+    /** Everything on the HttpServer dispatcher thread (the original behaviour). */
+    SINGLE,
+    /** Fixed pool of platform threads with a bounded queue; overflow runs on the dispatcher. */
+    POOL,
+    /** One virtual thread per request; falls back to POOL on JVMs without virtual threads. */
+    VIRTUAL;
+
+    public static ExecutorMode parse(String s) {
+      return valueOf(s.trim().toUpperCase());
+    }
+
+    ExecutorService create(Config cfg) {
+      switch (this) {
+        case POOL:
+          return newBoundedPool("anger-http", cfg.poolSize, cfg.poolQueue);
+        case VIRTUAL:
+          ExecutorService vt = newVirtualThreadPerTaskExecutor();
+          if (vt != null) return vt;
+          System.out.println("Virtual threads unavailable on this JVM; using a bounded pool");
+          return newBoundedPool("anger-http", cfg.poolSize, cfg.poolQueue);
+        default:
+          return null; // HttpServer default: run on the dispatcher thread
+      }
+    }
+  }
+
+  static ExecutorService newBoundedPool(String name, int threads, int queue) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<Runnable>(queue), daemonFactory(name), new ThreadPoolExecutor.CallerRunsPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  static ThreadFactory daemonFactory(String name) {
+    AtomicInteger n = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+
+  // Looked up reflectively so the server still builds and runs on JDK 17.
+  static ExecutorService newVirtualThreadPerTaskExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
   }
 
   // ==== Simple models/state ====
@@ -41,20 +285,35 @@ public class AngerServer {
     String p2Move = "";
     int round = 1;
     // SSE subscribers
-    List<SseClient> clients = Collections.synchronizedList(new ArrayList<SseClient>());
+    List<SseClient> clients = new CopyOnWriteArrayList<SseClient>();
     // Winner allowed to act
     String pendingActionFor = null; // "P1" or "P2" or null
-  }
-  static class SseClient {
-    HttpExchange exchange;
-    OutputStream os;
+    // Event numbering, see StatePublisher
+    long seq = 0;
+    int sinceSnapshot = 0;
+    StatePublisher.StateView lastPublished;
+    EventFrame[] replay; // ring indexed by seq, allocated on first publish
+    // Non-null while a /batch runs this room's commands, see BatchHandler.begin
+    BatchHandler.Batch batch;
+    // Registry bookkeeping
+    volatile long lastActivity = System.currentTimeMillis();
+    volatile boolean evicted;
+    volatile int streams; // subscribers admitted by Admission, including ones not yet attached
+    CompletableFuture<Void> handedOff; // set by Cluster while the room moves to another node
+    // Game state and event numbering are only touched by tasks on this mailbox
+    final Mailbox mailbox = new Mailbox();
   }
 
-  static Map<String, Room> rooms = new ConcurrentHashMap<>();
+  static RoomRegistry registry = new RoomRegistry(100_000, 30 * 60 * 1000L);
 
   // ==== Utilities ====
+  // Null when the registry is at capacity; handlers answer that with roomsFull().
   static Room room(String id) {
-    return rooms.computeIfAbsent(id, k -> { Room r = new Room(); r.id = id; return r; });
+    return registry.get(id);
+  }
+
+  static void roomsFull(HttpExchange ex) throws IOException {
+    respond(ex, 503, "{\"error\":\"rooms-full\"}");
   }
 
   static void respond(HttpExchange ex, int code, String body) throws IOException {
@@ -64,33 +323,25 @@ public class AngerServer {
     try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
   }
 
-  static String readBody(HttpExchange ex) throws IOException {
+  static final Json.Fields MOVE_FIELDS = new Json.Fields("room", "player", "move");
+  static final Json.Fields ACTION_FIELDS = new Json.Fields("room", "player", "action");
+
+  /**
+   * Reads the request body as JSON, every one of {@code fields} required; on a malformed body
+   * or a missing (or null) field answers 400 itself and returns null.
+   */
+  static String[] readJson(HttpExchange ex, Json.Fields fields) throws IOException {
+    String[] f;
     try (InputStream is = ex.getRequestBody()) {
-      ByteArrayOutputStream baos = new ByteArrayOutputStream();
-      byte[] buf = new byte[8192];
-      int read;
-      while ((read = is.read(buf)) != -1) {
-        baos.write(buf, 0, read);
-      }
-      return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+      f = Json.read(is, fields);
+    } catch (IllegalArgumentException e) {
+      respond(ex, 400, "{\"error\":\"bad-json\"}");
+      return null;
     }
-  }
-
-  static void broadcast(Room r, String eventType, String jsonPayload) {
-    synchronized (r.clients) {
-      Iterator<SseClient> it = r.clients.iterator();
-      while (it.hasNext()) {
-        SseClient c = it.next();
-        try {
-          String msg = "event: " + eventType + "\n" + "data: " + jsonPayload + "\n\n";
-          c.os.write(msg.getBytes(StandardCharsets.UTF_8));
-          c.os.flush();
-        } catch (IOException e) {
-          try { c.exchange.close(); } catch (Exception ignore) {}
-          it.remove();
-        }
-      }
+    for (int i = 0; i < f.length; i++) {
+      if (f[i] == null) { respond(ex, 400, "{\"error\":\"missing\",\"field\":\"" + fields.names[i] + "\"}"); return null; }
     }
+    return f;
   }
 
   static int clamp(int v){ return Math.max(0, Math.min(100, v)); }
@@ -103,30 +354,190 @@ public class AngerServer {
     return "P2_WIN";
   }
 
-  static String toJsonState(Room r, Map<String, Object> extras) {
-    StringBuilder sb = new StringBuilder();
-    sb.append("{");
-    sb.append("\"round\":").append(r.round).append(",");
-    sb.append("\"p1\":{\"name\":\"").append(r.p1.name).append("\",\"score\":").append(r.p1.score)
-      .append(",\"anger\":").append(r.p1.anger).append(",\"satisfaction\":").append(r.p1.satisfaction)
-      .append(",\"confidence\":").append(r.p1.confidence).append("},");
-    sb.append("\"p2\":{\"name\":\"").append(r.p2.name).append("\",\"score\":").append(r.p2.score)
-      .append(",\"anger\":").append(r.p2.anger).append(",\"satisfaction\":").append(r.p2.satisfaction)
-      .append(",\"confidence\":").append(r.p2.confidence).append("}");
-    if (extras != null && !extras.isEmpty()) {
-      sb.append(",");
-      int i=0;
-      for (Map.Entry<String,Object> e : extras.entrySet()) {
-        if (i++>0) sb.append(",");
-        sb.append("\"").append(e.getKey()).append("\":");
-        Object v = e.getValue();
-        if (v == null) sb.append("null");
-        else if (v instanceof Number || v instanceof Boolean) sb.append(v.toString());
-        else sb.append("\"").append(v.toString().replace("\"","\\\"")).append("\"");
-      }
+  static String toJsonState(Room r, Object[] extras) {
+    return writeState(Json.writer(), r, extras).toString();
+  }
+
+  /** Full room state plus extras (alternating key/value pairs, may be null) as one object. */
+  static Json.Writer writeState(Json.Writer w, Room r, Object[] extras) {
+    w.beginObject()
+        .field("seq", r.seq)
+        .field("round", r.round);
+    writePlayer(w.name("p1"), r.p1);
+    writePlayer(w.name("p2"), r.p2);
+    w.field("p1Move", r.p1Move)
+        .field("p2Move", r.p2Move)
+        .field("pendingActionFor", r.pendingActionFor == null ? "" : r.pendingActionFor)
+        .fields(extras);
+    return w.endObject();
+  }
+
+  private static void writePlayer(Json.Writer w, PlayerState p) {
+    w.beginObject()
+        .field("name", p.name)
+        .field("score", p.score)
+        .field("anger", p.anger)
+        .field("satisfaction", p.satisfaction)
+        .field("confidence", p.confidence)
+        .endObject();
+  }
+
+  static final Object[] JOINED = {"message", "joined"};
+  static final Object[] INIT = {"message", "init"};
+
+  // ==== Room commands ====
+  // Each runs on the room's Mailbox, so it owns the room's game state while it runs. Accepted
+  // commands are journaled before they change anything; lsn is where, or -1 when not journaled.
+  static final class Reply {
+    final int code; final String body; final long lsn;
+    Reply(int code, String body) { this(code, body, -1); }
+    Reply(int code, String body, long lsn) { this.code = code; this.body = body; this.lsn = lsn; }
+  }
+  static final Reply OK = new Reply(200, "{\"ok\":true}");
+  static Reply ok(long lsn) { return lsn < 0 ? OK : new Reply(OK.code, OK.body, lsn); }
+  static final Reply NOT_YOUR_TURN = new Reply(400, "{\"error\":\"not-your-turn\"}");
+  static final Reply BAD_PLAYER = new Reply(400, "{\"error\":\"player\"}");
+  static final Reply BAD_MOVE = new Reply(400, "{\"error\":\"move\"}");
+  static final Reply BAD_ACTION = new Reply(400, "{\"error\":\"action\"}");
+  // A command queued on a room that was detached meanwhile (handed to another node, evicted):
+  // it would change nothing anyone reads, so the client retries and finds where the room went.
+  static final Reply DETACHED = new Reply(503, "{\"error\":\"handoff\"}");
+
+  // Checked by move()/action() before anything is journaled, so every transport (HTTP,
+  // WebSocket, /batch) and journal replay reject the same input the same way.
+  static boolean isPlayer(String p) { return "P1".equals(p) || "P2".equals(p); }
+  static boolean isMove(String m) { return "rock".equals(m) || "paper".equals(m) || "scissors".equals(m); }
+  static boolean isAction(String a) { return "Slap".equals(a) || "Punch".equals(a) || "Kick".equals(a); }
+
+  // Hands an accepted command to the journal and to any followers; returns the journal LSN or -1.
+  static long log(byte type, String... fields) {
+    if (journal == null && replication == null) return -1;
+    return log(Journal.record(type, fields));
+  }
+
+  /** Logs a command of {@code r}; during a batch it is held for the batch's one record. */
+  static long log(Room r, byte type, String... fields) {
+    if (journal == null && replication == null) return -1;
+    byte[] record = Journal.record(type, fields);
+    return r.batch == null ? log(record) : BatchHandler.hold(r, record);
+  }
+
+  static long log(byte[] record) {
+    Replication rep = replication;
+    if (rep != null) rep.append(record);
+    Journal j = journal;
+    return j == null ? -1 : j.append(record);
+  }
+
+  static Reply join(Room r, String name) {
+    if (r.evicted) return DETACHED;
+    long lsn = log(r, Journal.JOIN, r.id, name);
+    if ("Player 1".equalsIgnoreCase(name)) r.p1.name = "Player 1";
+    else if ("Player 2".equalsIgnoreCase(name)) r.p2.name = "Player 2";
+    Reply reply = new Reply(200, toJsonState(r, JOINED), lsn);
+    StatePublisher.publish(r, JOINED);
+    return reply;
+  }
+
+  static Reply move(Room r, String player, String move) {
+    if (r.evicted) return DETACHED;
+    if (!isPlayer(player)) return BAD_PLAYER;
+    if (!isMove(move)) return BAD_MOVE;
+    long lsn = log(r, Journal.MOVE, r.id, player, move);
+    if ("P1".equals(player) && r.p1Move.isEmpty()) r.p1Move = move;
+    else if ("P2".equals(player) && r.p2Move.isEmpty()) r.p2Move = move;
+
+    String result = null;
+    if (!r.p1Move.isEmpty() && !r.p2Move.isEmpty()) {
+      result = determineWinner(r.p1Move, r.p2Move);
+      r.pendingActionFor = result.equals("P1_WIN") ? "P1" : result.equals("P2_WIN") ? "P2" : null;
     }
-    sb.append("}");
-    return sb.toString();
+
+    // p1Move, p2Move and pendingActionFor are room state and travel in every snapshot/delta.
+    StatePublisher.publish(r, new Object[] {"result", result == null ? "" : result});
+    // A draw replays the round: the event above still shows both moves, the next one clears them.
+    if ("DRAW".equals(result)) { r.p1Move = ""; r.p2Move = ""; }
+    return ok(lsn);
+  }
+
+  static Reply action(Room r, String player, String action) {
+    if (r.evicted) return DETACHED;
+    if (!isPlayer(player)) return BAD_PLAYER;
+    if (!isAction(action)) return BAD_ACTION;
+    if (r.pendingActionFor == null || !r.pendingActionFor.equals(player)) return NOT_YOUR_TURN;
+    long lsn = log(r, Journal.ACTION, r.id, player, action);
+
+    PlayerState winner = "P1".equals(player) ? r.p1 : r.p2;
+    PlayerState loser  = "P1".equals(player) ? r.p2 : r.p1;
+    applyAction(winner, loser, action);
+    r.round++;
+    r.p1Move = ""; r.p2Move = "";
+    r.pendingActionFor = null;
+
+    boolean gameOver = (r.p1.score >= 50 || r.p2.score >= 50);
+    StatePublisher.publish(r, new Object[] {
+        "lastAction", action, "actor", player, "winnerName", winner.name, "gameOver", gameOver});
+    return ok(lsn);
+  }
+
+  // Scoring for one Slap/Punch/Kick by the round winner.
+  static void applyAction(PlayerState winner, PlayerState loser, String action) {
+    winner.confidence = clamp(winner.confidence + 10);
+    winner.satisfaction = clamp(winner.satisfaction + 5);
+    winner.anger = clamp(winner.anger - 10);
+
+    loser.confidence = clamp(loser.confidence - 10);
+    loser.satisfaction = clamp(loser.satisfaction - 5);
+    loser.anger = clamp(loser.anger + 10);
+
+    int additionalScore = (int) Math.ceil(winner.anger * 0.05)
+                        - (int) Math.ceil(winner.satisfaction * 0.025)
+                        - (int) Math.ceil(winner.confidence * 0.01);
+    int base;
+    switch (action) {
+      case "Slap":
+        winner.satisfaction = clamp(winner.satisfaction + 15);
+        loser.confidence = clamp(loser.confidence - 15);
+        base = 1 + additionalScore;
+        break;
+      case "Punch":
+        winner.confidence = clamp(winner.confidence + 10);
+        loser.anger = clamp(loser.anger + 15);
+        loser.satisfaction = clamp(loser.satisfaction - 10);
+        base = 2 + additionalScore;
+        break;
+      case "Kick":
+        loser.anger = clamp(loser.anger + 25);
+        loser.satisfaction = clamp(loser.satisfaction - 10);
+        additionalScore = (int) Math.ceil(winner.anger * 0.035)
+                        - (int) Math.ceil(winner.satisfaction * 0.025)
+                        - (int) Math.ceil(winner.confidence * 0.01);
+        base = 3 + additionalScore;
+        break;
+      default:
+        base = 0;
+    }
+    winner.score += Math.max(0, base);
+  }
+
+  // A command's reply, held back until its journal record is on disk. Subscribers may already
+  // have seen the new state; the caller is only told "ok" once it would survive a crash.
+  static CompletableFuture<Reply> durable(CompletableFuture<Reply> pending) {
+    Journal j = journal;
+    if (j == null) return pending;
+    return pending.thenCompose(rep -> j.whenDurable(rep.lsn).thenApply(v -> rep));
+  }
+
+  // Sends the reply once the room's mailbox has run the command. The HTTP thread is released
+  // immediately; the (small) response is written by whichever thread completes the command.
+  static void reply(HttpExchange ex, CompletableFuture<Reply> pending) {
+    durable(pending).whenComplete((rep, err) -> {
+      if (err != null) {
+        err.printStackTrace();
+        rep = new Reply(500, "{\"error\":\"internal\"}");
+      }
+      try { respond(ex, rep.code, rep.body); } catch (IOException e) { ex.close(); }
+    });
   }
 
   // ==== Handlers ====
@@ -137,111 +548,36 @@ public class AngerServer {
       Map<String,String> params = parseQuery(q);
       String rid = params.getOrDefault("room", "default");
       String name = params.getOrDefault("name", "");
+      if (!admission.admitCommand(ex, rid)) return;
       Room r = room(rid);
-      if ("Player 1".equalsIgnoreCase(name)) r.p1.name = "Player 1";
-      else if ("Player 2".equalsIgnoreCase(name)) r.p2.name = "Player 2";
-      Map<String,Object> extras = new HashMap<String,Object>();
-      extras.put("message", "joined");
-      String state = toJsonState(r, extras);
-      respond(ex, 200, state);
-      broadcast(r, "state", state);
+      if (r == null) { roomsFull(ex); return; }
+      reply(ex, r.mailbox.ask(() -> join(r, name)));
     }
   }
 
   static class MoveHandler implements HttpHandler {
     @Override public void handle(HttpExchange ex) throws IOException {
       if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { respond(ex, 405, "{\"error\":\"method\"}"); return; }
-      String body = readBody(ex);
-      Map<String,String> m = parseJson(body);
-      String rid = m.get("room"); String player = m.get("player"); String move = m.get("move");
+      String[] f = readJson(ex, MOVE_FIELDS);
+      if (f == null) return;
+      String rid = f[0]; String player = f[1]; String move = f[2];
+      if (!admission.admitCommand(ex, rid)) return;
       Room r = room(rid);
-      if ("P1".equals(player) && r.p1Move.isEmpty()) r.p1Move = move;
-      else if ("P2".equals(player) && r.p2Move.isEmpty()) r.p2Move = move;
-
-      String result = null;
-      if (!r.p1Move.isEmpty() && !r.p2Move.isEmpty()) {
-        result = determineWinner(r.p1Move, r.p2Move);
-        r.pendingActionFor = result.equals("P1_WIN") ? "P1" : result.equals("P2_WIN") ? "P2" : null;
-      }
-
-      Map<String,Object> extras = new HashMap<String,Object>();
-      extras.put("p1Move", r.p1Move);
-      extras.put("p2Move", r.p2Move);
-      extras.put("result", result == null ? "" : result);
-      extras.put("pendingActionFor", r.pendingActionFor == null ? "" : r.pendingActionFor);
-
-      String payload = toJsonState(r, extras);
-      respond(ex, 200, "{\"ok\":true}");
-      broadcast(r, "state", payload);
+      if (r == null) { roomsFull(ex); return; }
+      reply(ex, r.mailbox.ask(() -> move(r, player, move)));
     }
   }
 
   static class ActionHandler implements HttpHandler {
     @Override public void handle(HttpExchange ex) throws IOException {
       if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { respond(ex, 405, "{\"error\":\"method\"}"); return; }
-      String body = readBody(ex);
-      Map<String,String> m = parseJson(body);
-      String rid = m.get("room"); String player = m.get("player"); String action = m.get("action");
+      String[] f = readJson(ex, ACTION_FIELDS);
+      if (f == null) return;
+      String rid = f[0]; String player = f[1]; String action = f[2];
+      if (!admission.admitCommand(ex, rid)) return;
       Room r = room(rid);
-
-      if (r.pendingActionFor == null || !r.pendingActionFor.equals(player)) {
-        respond(ex, 400, "{\"error\":\"not-your-turn\"}");
-        return;
-      }
-
-      PlayerState winner = "P1".equals(player) ? r.p1 : r.p2;
-      PlayerState loser  = "P1".equals(player) ? r.p2 : r.p1;
-
-      winner.confidence = clamp(winner.confidence + 10);
-      winner.satisfaction = clamp(winner.satisfaction + 5);
-      winner.anger = clamp(winner.anger - 10);
-
-      loser.confidence = clamp(loser.confidence - 10);
-      loser.satisfaction = clamp(loser.satisfaction - 5);
-      loser.anger = clamp(loser.anger + 10);
-
-      int additionalScore = (int) Math.ceil(winner.anger * 0.05)
-                          - (int) Math.ceil(winner.satisfaction * 0.025)
-                          - (int) Math.ceil(winner.confidence * 0.01);
-      int base;
-      switch (action) {
-        case "Slap":
-          winner.satisfaction = clamp(winner.satisfaction + 15);
-          loser.confidence = clamp(loser.confidence - 15);
-          base = 1 + additionalScore;
-          break;
-        case "Punch":
-          winner.confidence = clamp(winner.confidence + 10);
-          loser.anger = clamp(loser.anger + 15);
-          loser.satisfaction = clamp(loser.satisfaction - 10);
-          base = 2 + additionalScore;
-          break;
-        case "Kick":
-          loser.anger = clamp(loser.anger + 25);
-          loser.satisfaction = clamp(loser.satisfaction - 10);
-          additionalScore = (int) Math.ceil(winner.anger * 0.035)
-                          - (int) Math.ceil(winner.satisfaction * 0.025)
-                          - (int) Math.ceil(winner.confidence * 0.01);
-          base = 3 + additionalScore;
-          break;
-        default:
-          base = 0;
-      }
-      winner.score += Math.max(0, base);
-      r.round++;
-      r.p1Move = ""; r.p2Move = "";
-      r.pendingActionFor = null;
-
-      boolean gameOver = (r.p1.score >= 50 || r.p2.score >= 50);
-      Map<String,Object> extras = new HashMap<String,Object>();
-      extras.put("lastAction", action);
-      extras.put("actor", player);
-      extras.put("winnerName", winner.name);
-      extras.put("gameOver", Boolean.valueOf(gameOver));
-
-      String state = toJsonState(r, extras);
-      respond(ex, 200, "{\"ok\":true}");
-      broadcast(r, "state", state);
+      if (r == null) { roomsFull(ex); return; }
+      reply(ex, r.mailbox.ask(() -> action(r, player, action)));
     }
   }
 
@@ -250,22 +586,95 @@ public class AngerServer {
       if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { respond(ex, 405, "{\"error\":\"method\"}"); return; }
       Map<String,String> params = parseQuery(ex.getRequestURI().getQuery());
       Room r = room(params.getOrDefault("room", "default"));
+      if (r == null) { roomsFull(ex); return; }
+      Admission a = admission;
+      if (!a.admitStream(ex, r)) return;
       Headers h = ex.getResponseHeaders();
       h.add("Content-Type", "text/event-stream");
       h.add("Cache-Control", "no-cache");
       h.add("Connection", "keep-alive");
-      ex.sendResponseHeaders(200, 0); // streaming
-      SseClient client = new SseClient();
-      client.exchange = ex;
-      client.os = ex.getResponseBody();
-      r.clients.add(client);
-
-      // Send initial full state
-      Map<String,Object> extras = new HashMap<String,Object>();
-      extras.put("message", "init");
-      String init = toJsonState(r, extras);
-      broadcast(r, "state", init);
-      // Keep connection open; writes happen via broadcast()
+      try {
+        ex.sendResponseHeaders(200, 0); // streaming
+      } catch (IOException e) {
+        a.releaseStream(r);
+        throw e;
+      }
+      // Resume after Last-Event-ID when possible, otherwise a full state for this subscriber only
+      String last = ex.getRequestHeaders().getFirst("Last-Event-ID");
+      if (last == null) last = params.get("lastEventId");
+      SseClient client = new SseClient(r, ex, ex.getResponseBody());
+      client.admittedBy(a);
+      long lastEventId = parseLong(last, -1);
+      r.mailbox.execute(() -> StatePublisher.subscribe(r, client, lastEventId, INIT));
+      // Keep connection open; writes happen via StatePublisher
+    }
+  }
+
+  static class MatchmakeHandler implements HttpHandler {
+    @Override public void handle(HttpExchange ex) throws IOException {
+      if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { respond(ex, 405, "{\"error\":\"method\"}"); return; }
+      matchmaker.enqueue(ex);
+      // Keep connection open; the matcher answers with the room and role
+    }
+  }
+
+  static class StatsHandler implements HttpHandler {
+    @Override public void handle(HttpExchange ex) throws IOException {
+      if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { respond(ex, 405, "{\"error\":\"method\"}"); return; }
+      respond(ex, 200, "{\"rooms\":" + registry.size() + ",\"capacity\":" + registry.capacity()
+          + ",\"created\":" + registry.created.sum() + ",\"evicted\":" + registry.evicted.sum()
+          + ",\"rejected\":" + registry.rejected.sum() + ",\"admission\":" + admission.stats() + matchmakingStats() + clusterStats() + replicationStats() + hibernationStats() + journalStats() + "}");
+    }
+  }
+
+  static String matchmakingStats() {
+    Matchmaker m = matchmaker;
+    if (m == null) return "";
+    return ",\"matchmaking\":{\"waiting\":" + m.depth() + ",\"matched\":" + m.matched.sum()
+        + ",\"cancelled\":" + m.cancelled.sum() + ",\"timedOut\":" + m.timedOut.sum()
+        + ",\"roomsFull\":" + m.roomsFull.sum()
+        + ",\"waitP50Ms\":" + m.timeToMatch.quantile(0.5) / 1_000_000
+        + ",\"waitP99Ms\":" + m.timeToMatch.quantile(0.99) / 1_000_000 + "}";
+  }
+
+  static String clusterStats() {
+    Cluster c = cluster;
+    return c == null ? "" : ",\"cluster\":" + c.stats();
+  }
+
+  static String replicationStats() {
+    Replication r = replication;
+    return r == null ? "" : ",\"replication\":" + r.stats();
+  }
+
+  static String hibernationStats() {
+    Hibernation h = registry.hibernation();
+    if (h == null) return "";
+    long sleeps = h.hibernated.sum(), wakes = h.woken.sum();
+    return ",\"hibernation\":{\"rooms\":" + h.size() + ",\"hibernated\":" + sleeps + ",\"woken\":" + wakes
+        + ",\"expired\":" + h.expired.sum() + ",\"tooLarge\":" + h.tooLarge.sum()
+        + ",\"hibernateAvgUs\":" + (sleeps == 0 ? 0 : h.hibernateNanos.sum() / sleeps / 1000)
+        + ",\"hibernateMaxUs\":" + h.hibernateMaxNanos.get() / 1000
+        + ",\"wakeAvgUs\":" + (wakes == 0 ? 0 : h.wakeNanos.sum() / wakes / 1000)
+        + ",\"wakeMaxUs\":" + h.wakeMaxNanos.get() / 1000 + "}";
+  }
+
+  static String journalStats() {
+    Journal j = journal;
+    if (j == null) return "";
+    return ",\"journal\":{\"segments\":" + j.segmentCount() + ",\"records\":" + j.records.sum()
+        + ",\"forces\":" + j.forces.sum() + ",\"compactions\":" + j.compactions.sum()
+        + ",\"snapshotFailures\":" + j.snapshotFailures.sum()
+        + ",\"replayed\":" + j.replayed + "}";
+  }
+
+  static class MetricsHandler implements HttpHandler {
+    @Override public void handle(HttpExchange ex) throws IOException {
+      if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { respond(ex, 405, "{\"error\":\"method\"}"); return; }
+      byte[] bytes = Metrics.render(registry).getBytes(StandardCharsets.UTF_8);
+      ex.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      ex.sendResponseHeaders(200, bytes.length);
+      try (OutputStream os = ex.getResponseBody()) { os.write(bytes); }
     }
   }
 
@@ -279,25 +688,11 @@ public class AngerServer {
     }
     return out;
   }
+  static long parseLong(String s, long def) {
+    if (s == null) return def;
+    try { return Long.parseLong(s.trim()); } catch (NumberFormatException e) { return def; }
+  }
   static String urlDecode(String s) {
     try { return java.net.URLDecoder.decode(s, "UTF-8"); } catch (Exception e){ return s; }
   }
-  static Map<String,String> parseJson(String body){
-    // Minimal JSON key:value string parser for {"a":"b","c":"d"} or {"a":"b","n":2}
-    Map<String,String> out = new HashMap<>();
-    body = body.trim();
-    if (body.startsWith("{") && body.endsWith("}")) {
-      body = body.substring(1, body.length()-1);
-      for (String pair : body.split(",")) {
-        String[] kv = pair.split(":",2);
-        if (kv.length==2) {
-          String k = kv[0].trim().replaceAll("^\"|\"$", "");
-          String v = kv[1].trim();
-          if (v.startsWith("\"") && v.endsWith("\"")) v = v.substring(1, v.length()-1);
-          out.put(k, v);
-        }
-      }
-    }
-    return out;
-  }
 }
\ No newline at end of file
@@ -0,0 +1,186 @@
+// file: src/main/java/com/anger/server/BatchHandler.java
+package com.anger.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@code POST /batch}: many join/move/action commands, across any number of rooms, in one
+ * request, for bots and tournament runners. The body is an array of command objects shaped
+ * like the single-command bodies plus a {@code type}:
+ *
+ * <pre>
+ * [{"type":"join","room":"t1","name":"Player 1"},
+ *  {"type":"move","room":"t1","player":"P1","move":"rock"},
+ *  {"type":"action","room":"t2","player":"P2","action":"Kick"}]
+ * </pre>
+ *
+ * Each room's commands run in body order as one task on its mailbox, through the same
+ * {@link AngerServer#join}/{@link AngerServer#move}/{@link AngerServer#action} as the single
+ * endpoints, with publishing held back so a room emits one event for the whole batch; its
+ * extras are those of every command merged, a later command's value winning for the same key.
+ * The room's commands are journaled and replicated as one {@link Journal#BATCH} record, which
+ * replay applies the same way, so event numbering after a restart or failover matches what
+ * subscribers saw. A batch too large for one record is split, with one event per record.
+ * The reply lists a result per command, in body order:
+ * {@code {"results":[{"status":200,"body":{..}},..]}}, a command that failed unexpectedly
+ * reporting 500 without stopping the rest; it is sent once every command is journaled, like
+ * any other reply.
+ */
+final class BatchHandler implements HttpHandler {
+  static final int MAX_COMMANDS = 1_000;
+  static final int MAX_BODY = 1 << 20;
+  private static final Json.Fields COMMAND = new Json.Fields("type", "room", "name", "player", "move", "action");
+  private static final AngerServer.Reply BAD_TYPE = new AngerServer.Reply(400, "{\"error\":\"type\"}");
+  private static final AngerServer.Reply NO_ROOM = new AngerServer.Reply(400, "{\"error\":\"room\"}");
+  private static final AngerServer.Reply ROOMS_FULL = new AngerServer.Reply(503, "{\"error\":\"rooms-full\"}");
+  private static final AngerServer.Reply ROOM_RATE = new AngerServer.Reply(429, "{\"error\":\"room_rate\"}");
+  private static final AngerServer.Reply INTERNAL = new AngerServer.Reply(500, "{\"error\":\"internal\"}");
+
+  /** A room's batch in progress: held extras and command records. */
+  static final class Batch {
+    Object[] extras;
+    final List<byte[]> records = new ArrayList<>();
+    int bytes;
+    long lsn = -1;
+
+    // Merged by key, in first-seen order; extras are alternating key/value pairs.
+    void hold(Object[] more) {
+      if (extras == null || more == null) { if (more != null) extras = more; return; }
+      List<Object> merged = new ArrayList<>(Arrays.asList(extras));
+      next:
+      for (int i = 0; i + 1 < more.length; i += 2) {
+        for (int j = 0; j + 1 < merged.size(); j += 2) {
+          if (merged.get(j).equals(more[i])) { merged.set(j + 1, more[i + 1]); continue next; }
+        }
+        merged.add(more[i]);
+        merged.add(more[i + 1]);
+      }
+      extras = merged.toArray();
+    }
+  }
+
+  @Override public void handle(HttpExchange ex) throws IOException {
+    if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { AngerServer.respond(ex, 405, "{\"error\":\"method\"}"); return; }
+    byte[] body;
+    try (InputStream in = ex.getRequestBody()) {
+      body = in.readNBytes(MAX_BODY + 1);
+    }
+    if (body.length > MAX_BODY) { AngerServer.respond(ex, 413, "{\"error\":\"body-too-large\"}"); return; }
+    List<String[]> commands;
+    try {
+      commands = Json.readArray(body, 0, body.length, COMMAND);
+    } catch (IllegalArgumentException e) {
+      AngerServer.respond(ex, 400, "{\"error\":\"bad-json\"}");
+      return;
+    }
+    if (commands.size() > MAX_COMMANDS) { AngerServer.respond(ex, 413, "{\"error\":\"too-many-commands\"}"); return; }
+
+    // Validate, then group by room keeping body order within each room.
+    AngerServer.Reply[] results = new AngerServer.Reply[commands.size()];
+    Map<String, List<Integer>> byRoom = new LinkedHashMap<>();
+    Cluster cluster = AngerServer.cluster;
+    for (int i = 0; i < results.length; i++) {
+      String[] c = commands.get(i);
+      String type = c[0] == null ? "" : c[0];
+      if (!type.equals("join") && !type.equals("move") && !type.equals("action")) { results[i] = BAD_TYPE; continue; }
+      String rid = c[1] != null ? c[1] : type.equals("join") ? "default" : null;
+      if (rid == null) { results[i] = NO_ROOM; continue; }
+      if (cluster != null && !cluster.owns(rid)) {
+        results[i] = new AngerServer.Reply(421, "{\"error\":\"wrong-node\",\"owner\":\"" + cluster.owner(rid) + "\"}");
+        continue;
+      }
+      if (AngerServer.admission.roomDelay(rid) > 0) { results[i] = ROOM_RATE; continue; }
+      byRoom.computeIfAbsent(rid, k -> new ArrayList<>()).add(i);
+    }
+
+    List<CompletableFuture<Long>> pending = new ArrayList<>(byRoom.size());
+    for (Map.Entry<String, List<Integer>> e : byRoom.entrySet()) {
+      AngerServer.Room r = AngerServer.room(e.getKey());
+      List<Integer> indexes = e.getValue();
+      if (r == null) {
+        for (int i : indexes) results[i] = ROOMS_FULL;
+        continue;
+      }
+      pending.add(r.mailbox.ask(() -> run(r, indexes, commands, results)));
+    }
+
+    // The futures' completion publishes results[] to whichever thread builds the reply.
+    CompletableFuture<AngerServer.Reply> reply = CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+        .thenApply(v -> {
+          long lsn = -1;
+          for (CompletableFuture<Long> f : pending) lsn = Math.max(lsn, f.join());
+          Json.Writer w = Json.writer().beginObject().name("results").beginArray();
+          for (AngerServer.Reply rep : results) w.beginObject().field("status", rep.code).name("body").raw(rep.body).endObject();
+          return new AngerServer.Reply(200, w.endArray().endObject().toString(), lsn);
+        });
+    AngerServer.reply(ex, reply);
+  }
+
+  // On the room's mailbox: every command for the room, then one publish. Returns the last LSN.
+  private static long run(AngerServer.Room r, List<Integer> indexes, List<String[]> commands, AngerServer.Reply[] results) {
+    long lsn;
+    begin(r);
+    try {
+      for (int i : indexes) {
+        String[] c = commands.get(i);
+        try {
+          switch (c[0]) {
+            case "join": results[i] = AngerServer.join(r, c[2] == null ? "" : c[2]); break;
+            case "move": results[i] = AngerServer.move(r, c[3], c[4]); break;
+            default: results[i] = AngerServer.action(r, c[3], c[5]); break;
+          }
+        } catch (RuntimeException e) {
+          System.err.println("batch: " + c[0] + " in " + r.id + " failed: " + e);
+          results[i] = INTERNAL;
+        }
+      }
+    } finally {
+      lsn = end(r);
+    }
+    return lsn;
+  }
+
+  // ==== Holding a room's publishes and records (also used by journal and replica replay) ====
+
+  static void begin(AngerServer.Room r) { r.batch = new Batch(); }
+
+  /** Holds a command record of {@code r}'s batch; flushes what is held first if it would not fit. */
+  static long hold(AngerServer.Room r, byte[] record) {
+    Batch b = r.batch;
+    if (!b.records.isEmpty()
+        && Journal.batchBound(r.id, b.records.size() + 1, b.bytes + record.length) > Journal.MAX_RECORD - 8) {
+      flush(r, b);
+    }
+    b.records.add(record);
+    b.bytes += record.length;
+    return -1;
+  }
+
+  /** Logs and publishes what {@code r}'s batch holds and ends it; returns the batch's last LSN. */
+  static long end(AngerServer.Room r) {
+    Batch b = r.batch;
+    flush(r, b);
+    r.batch = null;
+    return b.lsn;
+  }
+
+  // One record, then one event for the commands in it; replay does the same per record.
+  private static void flush(AngerServer.Room r, Batch b) {
+    if (!b.records.isEmpty()) {
+      b.lsn = AngerServer.log(Journal.batch(r.id, b.records));
+      b.records.clear();
+      b.bytes = 0;
+    }
+    Object[] extras = b.extras;
+    if (extras == null) return;
+    b.extras = null;
+    r.batch = null; // lets the publish through
+    StatePublisher.publish(r, extras);
+    r.batch = b;
+  }
+}
@@ -0,0 +1,446 @@
+// file: src/main/java/com/anger/server/Cluster.java
+package com.anger.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multi-node mode: every room id is owned by one node, chosen by consistent hashing over a
+ * ring of {@link #vnodes} points per node. A request reaching a node that does not own its
+ * room is answered with a 307 to the owner (clients follow it, method and body included) or,
+ * with {@code CLUSTER_ROUTING=proxy}, forwarded there and relayed; /events streams are
+ * relayed as they arrive. Forwarded requests carry {@link #FORWARDED} and are always served
+ * where they land, so nodes that briefly disagree on membership never bounce a request.
+ *
+ * <p>Membership is changed with {@code POST /cluster?nodes=http://a:8080,http://b:8080} on
+ * any node, which passes the list on to every old and new member. Each node then hands the
+ * rooms it no longer owns to their new owners ({@code POST /cluster/handoff}, the
+ * {@link RoomCodec} state as body) and closes their subscribers, who reconnect through the
+ * new routing. Only rooms whose arc of the ring changed hands move.
+ *
+ * <p>A room is answered with 503 and {@code Retry-After} while it is in flight: on the old
+ * node from the moment it is detached, and on the new owner while a node that owned its arc
+ * before the change has not yet reported all its handoffs done ({@code settled}), unless the
+ * room has already arrived. A failed handoff is retried with backoff until the owner takes it,
+ * or reinstated here if the ring has moved the room back meanwhile. The new owner stops
+ * waiting for a silent node after {@link #SETTLE_MS}. Membership and handoff requests carry
+ * {@link AngerServer#SECRET} (see {@link AngerServer#adminGuard}).
+ */
+final class Cluster {
+  static final String FORWARDED = "X-Anger-Forwarded";
+  private static final Json.Fields ROOM = new Json.Fields("room");
+  private static final long RETRY_MIN_MS = 250, RETRY_MAX_MS = 30_000;
+  static final long SETTLE_MS = 30_000;
+
+  /** How a request for another node's room is answered. */
+  enum Routing {
+    REDIRECT, PROXY;
+
+    static Routing parse(String s) { return valueOf(s.trim().toUpperCase()); }
+  }
+
+  /** Immutable ring: {@code points} sorted, {@code owners[i]} indexes the node at points[i]. */
+  static final class Ring {
+    final List<String> nodes;
+    final long[] points;
+    final int[] owners;
+
+    Ring(Collection<String> members, int vnodes) {
+      nodes = List.copyOf(new TreeSet<>(members));
+      long[][] all = new long[nodes.size() * vnodes][];
+      for (int n = 0, k = 0; n < nodes.size(); n++) {
+        for (int v = 0; v < vnodes; v++) all[k++] = new long[] { hash(nodes.get(n) + "#" + v), n };
+      }
+      Arrays.sort(all, (a, b) -> Long.compare(a[0], b[0]));
+      points = new long[all.length];
+      owners = new int[all.length];
+      for (int i = 0; i < all.length; i++) { points[i] = all[i][0]; owners[i] = (int) all[i][1]; }
+    }
+
+    String owner(String roomId) {
+      int i = Arrays.binarySearch(points, hash(roomId));
+      if (i < 0) i = -i - 1;
+      return nodes.get(owners[i == points.length ? 0 : i]);
+    }
+  }
+
+  /** 64-bit FNV-1a over the UTF-16 code units, finished with the MurmurHash3 mixer. */
+  static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < s.length(); i++) { h ^= s.charAt(i); h *= 0x100000001b3L; }
+    h ^= h >>> 33; h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33; h *= 0xc4ceb9fe1a85ec53L;
+    return h ^ (h >>> 33);
+  }
+
+  final String self;
+  private final int vnodes;
+  private final Routing routing;
+  private volatile Ring ring;
+  private final HttpClient http;
+  private final ExecutorService relays = Executors.newCachedThreadPool(AngerServer.daemonFactory("cluster-relay"));
+  private final ScheduledExecutorService retries = Executors.newSingleThreadScheduledExecutor(AngerServer.daemonFactory("cluster-retry"));
+  // Rooms detached here whose owner has not yet accepted them.
+  private final Map<String, AngerServer.Room> outgoing = new ConcurrentHashMap<>();
+  // Nodes that owned arcs of the ring before the last change and have not yet settled.
+  private final Set<String> settling = ConcurrentHashMap.newKeySet();
+  private volatile Ring previous;
+  private volatile long settleDeadline;
+
+  // Counters for /stats
+  final LongAdder redirected = new LongAdder();
+  final LongAdder proxied = new LongAdder();
+  final LongAdder proxyErrors = new LongAdder();
+  final LongAdder handedOff = new LongAdder();
+  final LongAdder handoffFailed = new LongAdder();
+  final LongAdder handoffConflicts = new LongAdder();
+  final LongAdder awaitingRefused = new LongAdder();
+  final LongAdder received = new LongAdder();
+
+  Cluster(String self, Collection<String> nodes, int vnodes, Routing routing) {
+    this.self = trim(self);
+    this.vnodes = vnodes;
+    this.routing = routing;
+    this.ring = new Ring(withSelf(nodes), vnodes);
+    this.previous = ring;
+    this.http = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(2))
+        .executor(relays)
+        .build();
+  }
+
+  static List<String> parseNodes(String csv) {
+    List<String> out = new ArrayList<>();
+    for (String s : csv.split(",")) if (!s.isBlank()) out.add(trim(s));
+    return out;
+  }
+
+  private static String trim(String url) {
+    url = url.trim();
+    return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+  }
+
+  private Set<String> withSelf(Collection<String> nodes) {
+    Set<String> all = new TreeSet<>(nodes);
+    all.add(self);
+    return all;
+  }
+
+  Ring ring() { return ring; }
+
+  boolean owns(String roomId) { return ring.owner(roomId).equals(self); }
+
+  String owner(String roomId) { return ring.owner(roomId); }
+
+  /**
+   * Whether commands for {@code roomId} must wait: it is being handed away from here, or its
+   * state may still be on its way from the node that owned it before the last ring change.
+   */
+  boolean awaitingHandoff(String roomId) {
+    if (outgoing.containsKey(roomId)) return true;
+    if (settling.isEmpty()) return false;
+    String from = previous.owner(roomId);
+    return !from.equals(self) && settling.contains(from) && !AngerServer.registry.isResident(roomId);
+  }
+
+  // Request to another member, marked forwarded and authenticated.
+  private static HttpRequest.Builder peer(String url, String self) {
+    HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(url)).header(FORWARDED, self);
+    String secret = AngerServer.adminSecret;
+    return secret == null ? b : b.header(AngerServer.SECRET, secret);
+  }
+
+  // ==== Routing ====
+
+  /**
+   * Sends requests for other nodes' rooms away before the handler sees them. The room is read
+   * from the query, or from the JSON body when {@code roomInBody}, which is then replayed to
+   * the handler; {@code defaultRoom} stands in when the request names none.
+   */
+  Filter filter(boolean roomInBody, String defaultRoom) {
+    return new Filter() {
+      @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+        boolean forwarded = ex.getRequestHeaders().containsKey(FORWARDED);
+        byte[] body = null;
+        String room;
+        if (roomInBody) {
+          body = ex.getRequestBody().readAllBytes();
+          ex.setStreams(new ByteArrayInputStream(body), null);
+          try {
+            room = Json.read(body, 0, body.length, ROOM)[0];
+          } catch (IllegalArgumentException e) {
+            room = null; // the handler reports it
+          }
+        } else {
+          room = AngerServer.parseQuery(ex.getRequestURI().getQuery()).get("room");
+        }
+        if (room == null) room = defaultRoom;
+        String owner = room == null || forwarded ? self : ring.owner(room);
+        if (owner.equals(self)) {
+          if (room != null && awaitingHandoff(room)) {
+            awaitingRefused.increment();
+            ex.getResponseHeaders().add("Retry-After", "1");
+            AngerServer.respond(ex, 503, "{\"error\":\"handoff\"}");
+            return;
+          }
+          chain.doFilter(ex);
+          return;
+        }
+        if (routing == Routing.REDIRECT) {
+          redirected.increment();
+          ex.getResponseHeaders().add("Location", owner + ex.getRequestURI());
+          ex.sendResponseHeaders(307, -1);
+          ex.close();
+        } else {
+          proxy(ex, owner, body);
+        }
+      }
+
+      @Override public String description() { return "cluster routing"; }
+    };
+  }
+
+  private void proxy(HttpExchange ex, String owner, byte[] body) throws IOException {
+    proxied.increment();
+    HttpRequest.Builder req = HttpRequest.newBuilder(URI.create(owner + ex.getRequestURI()))
+        .header(FORWARDED, self)
+        .method(ex.getRequestMethod(), body == null
+            ? HttpRequest.BodyPublishers.ofByteArray(ex.getRequestBody().readAllBytes())
+            : HttpRequest.BodyPublishers.ofByteArray(body));
+    for (String h : new String[] { "Content-Type", "Last-Event-ID" }) {
+      String v = ex.getRequestHeaders().getFirst(h);
+      if (v != null) req.header(h, v);
+    }
+    http.sendAsync(req.build(), HttpResponse.BodyHandlers.ofInputStream()).whenComplete((resp, err) -> {
+      if (err != null) {
+        proxyErrors.increment();
+        try {
+          AngerServer.respond(ex, 502, "{\"error\":\"owner-unreachable\"}");
+        } catch (IOException ignored) {
+          ex.close();
+        }
+        return;
+      }
+      // Copied on a relay thread: /events responses run for as long as the subscriber stays.
+      relays.execute(() -> relay(ex, resp));
+    });
+  }
+
+  private void relay(HttpExchange ex, HttpResponse<InputStream> resp) {
+    try (InputStream in = resp.body(); OutputStream os = ex.getResponseBody()) {
+      resp.headers().firstValue("Content-Type").ifPresent(v -> ex.getResponseHeaders().add("Content-Type", v));
+      boolean streaming = resp.headers().firstValue("Content-Type").orElse("").startsWith("text/event-stream");
+      long length = resp.headers().firstValueAsLong("Content-Length").orElse(-1);
+      ex.sendResponseHeaders(resp.statusCode(), streaming || length < 0 ? 0 : length == 0 ? -1 : length);
+      byte[] buf = new byte[8192];
+      for (int n; (n = in.read(buf)) >= 0; ) {
+        os.write(buf, 0, n);
+        if (streaming) os.flush();
+      }
+    } catch (IOException e) {
+      // Either side went away; closing both ends is all there is to do.
+    } finally {
+      ex.close();
+    }
+  }
+
+  /** JSON object for /stats and {@code GET /cluster}. */
+  String stats() {
+    Ring r = ring;
+    StringBuilder nodes = new StringBuilder();
+    for (String n : r.nodes) nodes.append(nodes.length() == 0 ? "" : ",").append('"').append(n).append('"');
+    return "{\"self\":\"" + self + "\",\"nodes\":[" + nodes + "],\"vnodes\":" + vnodes
+        + ",\"routing\":\"" + routing.name().toLowerCase() + "\",\"redirected\":" + redirected.sum()
+        + ",\"proxied\":" + proxied.sum() + ",\"proxyErrors\":" + proxyErrors.sum()
+        + ",\"handedOff\":" + handedOff.sum() + ",\"handoffFailed\":" + handoffFailed.sum()
+        + ",\"handoffConflicts\":" + handoffConflicts.sum() + ",\"outgoing\":" + outgoing.size()
+        + ",\"settling\":" + settling.size() + ",\"awaitingRefused\":" + awaitingRefused.sum()
+        + ",\"received\":" + received.sum() + "}";
+  }
+
+  // ==== Membership and handoff ====
+
+  /** {@code GET /cluster} shows the ring, {@code POST /cluster?nodes=...} replaces it. */
+  final class MembershipHandler implements HttpHandler {
+    @Override public void handle(HttpExchange ex) throws IOException {
+      if ("GET".equalsIgnoreCase(ex.getRequestMethod())) {
+        AngerServer.respond(ex, 200, stats());
+        return;
+      }
+      if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { AngerServer.respond(ex, 405, "{\"error\":\"method\"}"); return; }
+      String nodes = AngerServer.parseQuery(ex.getRequestURI().getQuery()).get("nodes");
+      if (nodes == null || parseNodes(nodes).isEmpty()) { AngerServer.respond(ex, 400, "{\"error\":\"nodes\"}"); return; }
+      List<String> members = parseNodes(nodes);
+      Ring old = ring;
+      Ring next = new Ring(withSelf(members), vnodes);
+      previous = old;
+      settling.clear();
+      for (String n : old.nodes) if (!n.equals(self)) settling.add(n);
+      long deadline = System.currentTimeMillis() + SETTLE_MS;
+      settleDeadline = deadline;
+      retries.schedule(() -> stopWaiting(deadline), SETTLE_MS, TimeUnit.MILLISECONDS);
+      ring = next;
+      if (!ex.getRequestHeaders().containsKey(FORWARDED)) {
+        Set<String> peers = new TreeSet<>(old.nodes);
+        peers.addAll(members);
+        peers.remove(self);
+        for (String peer : peers) {
+          HttpRequest req = peer(peer + ex.getRequestURI(), self)
+              .POST(HttpRequest.BodyPublishers.noBody())
+              .build();
+          http.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+              .exceptionally(e -> { System.err.println("cluster: " + peer + " missed the membership change: " + e); return null; });
+        }
+      }
+      relays.execute(Cluster.this::rebalance);
+      AngerServer.respond(ex, 200, "{\"ok\":true,\"nodes\":" + ring.nodes.size() + "}");
+    }
+  }
+
+  // Gives up on the nodes that have not settled by the deadline of the change that set it.
+  private void stopWaiting(long deadline) {
+    if (settleDeadline != deadline || settling.isEmpty()) return;
+    System.err.println("cluster: stopped waiting for handoffs from " + settling);
+    settling.clear();
+  }
+
+  /**
+   * Hands every local room this node no longer owns to its owner, then tells every member
+   * this node has settled once all of them have been accepted.
+   */
+  void rebalance() {
+    RoomRegistry registry = AngerServer.registry;
+    List<String> parked = new ArrayList<>();
+    registry.forEachHibernated((id, state) -> { if (!owns(id)) parked.add(id); });
+    for (String id : parked) registry.get(id); // wakes it, so it moves like a resident room
+    List<CompletableFuture<Void>> moves = new ArrayList<>();
+    for (AngerServer.Room r : registry.rooms()) {
+      if (!owns(r.id)) moves.add(handOff(r));
+    }
+    for (AngerServer.Room r : outgoing.values()) moves.add(r.handedOff); // from an earlier change
+    CompletableFuture.allOf(moves.toArray(new CompletableFuture<?>[0])).thenRun(this::announceSettled);
+  }
+
+  private CompletableFuture<Void> handOff(AngerServer.Room r) {
+    r.handedOff = new CompletableFuture<>();
+    AngerServer.Room inFlight = outgoing.putIfAbsent(r.id, r);
+    if (inFlight != null) return inFlight.handedOff;
+    // Detached and encoded in one task on its mailbox, so no command is half applied and the
+    // state sent is final; commands queued behind it are refused. Until the owner accepts the
+    // room, the filter answers its requests here with 503.
+    r.mailbox.ask(() -> {
+      AngerServer.registry.detach(r);
+      return RoomCodec.encode(r);
+    }).thenAccept(state -> send(r, state, RETRY_MIN_MS));
+    return r.handedOff;
+  }
+
+  private void send(AngerServer.Room r, byte[] state, long backoff) {
+    String owner = ring.owner(r.id);
+    if (owner.equals(self)) { reinstate(r, state, backoff); return; }
+    HttpRequest req = peer(owner + "/cluster/handoff?room=" + java.net.URLEncoder.encode(r.id, StandardCharsets.UTF_8), self)
+        .timeout(Duration.ofSeconds(10))
+        .POST(HttpRequest.BodyPublishers.ofByteArray(state))
+        .build();
+    http.sendAsync(req, HttpResponse.BodyHandlers.discarding()).whenComplete((resp, err) -> {
+      int code = err == null ? resp.statusCode() : 0;
+      if (code == 200 || code == 409) {
+        // 409: the owner already has the room, typically from an attempt whose reply was lost.
+        if (code == 409) {
+          handoffConflicts.increment();
+          System.err.println("cluster: " + owner + " already holds " + r.id + "; dropping the local copy");
+        } else {
+          handedOff.increment();
+        }
+        AngerServer.log(Journal.EVICT, r.id);
+        outgoing.remove(r.id, r);
+        for (SseClient c : r.clients) c.close(); // they reconnect and are routed to the owner
+        r.handedOff.complete(null);
+        return;
+      }
+      handoffFailed.increment();
+      System.err.println("cluster: handoff of " + r.id + " to " + owner + " failed ("
+          + (err != null ? err : "HTTP " + code) + "), retrying in " + backoff + "ms");
+      retries.schedule(() -> send(r, state, Math.min(backoff * 2, RETRY_MAX_MS)), backoff, TimeUnit.MILLISECONDS);
+    });
+  }
+
+  // The ring gave the room back while it was in flight: serve it here again.
+  private void reinstate(AngerServer.Room r, byte[] state, long backoff) {
+    AngerServer.Room back = AngerServer.registry.get(r.id);
+    if (back == null) { // full; it stays refused until there is room for it
+      retries.schedule(() -> send(r, state, Math.min(backoff * 2, RETRY_MAX_MS)), backoff, TimeUnit.MILLISECONDS);
+      return;
+    }
+    // Queued before outgoing lets commands through, so they all run after the restore.
+    back.mailbox.execute(() -> RoomCodec.restore(ByteBuffer.wrap(state), back));
+    outgoing.remove(r.id, r);
+    for (SseClient c : r.clients) c.close(); // subscribed to the detached object
+    r.handedOff.complete(null);
+  }
+
+  private void announceSettled() {
+    Set<String> peers = new TreeSet<>(previous.nodes);
+    peers.addAll(ring.nodes);
+    peers.remove(self);
+    for (String peer : peers) {
+      HttpRequest req = peer(peer + "/cluster/handoff?settled=" + java.net.URLEncoder.encode(self, StandardCharsets.UTF_8), self)
+          .POST(HttpRequest.BodyPublishers.noBody())
+          .build();
+      http.sendAsync(req, HttpResponse.BodyHandlers.discarding())
+          .exceptionally(e -> { System.err.println("cluster: " + peer + " missed that " + self + " settled: " + e); return null; });
+    }
+  }
+
+  /**
+   * {@code POST /cluster/handoff?room=id}: installs a room handed over by another node, or 409
+   * when one of that id is already live here. {@code POST /cluster/handoff?settled=node}:
+   * that node has handed over everything it no longer owns.
+   */
+  final class HandoffHandler implements HttpHandler {
+    @Override public void handle(HttpExchange ex) throws IOException {
+      if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { AngerServer.respond(ex, 405, "{\"error\":\"method\"}"); return; }
+      Map<String, String> q = AngerServer.parseQuery(ex.getRequestURI().getQuery());
+      String from = q.get("settled");
+      if (from != null) {
+        settling.remove(trim(from));
+        AngerServer.respond(ex, 200, "{\"ok\":true}");
+        return;
+      }
+      String id = q.get("room");
+      if (id == null) { AngerServer.respond(ex, 400, "{\"error\":\"room\"}"); return; }
+      ByteBuffer state = ByteBuffer.wrap(ex.getRequestBody().readAllBytes());
+      // Commands for it were refused until now unless the wait for its old owner timed out;
+      // then they may have started a fresh room, which the handoff must not silently replace.
+      if (AngerServer.registry.isResident(id)) { AngerServer.respond(ex, 409, "{\"error\":\"room-exists\"}"); return; }
+      AngerServer.Room r = AngerServer.registry.get(id);
+      if (r == null) { AngerServer.roomsFull(ex); return; }
+      AngerServer.reply(ex, r.mailbox.ask(() -> {
+        RoomCodec.restore(state, r);
+        received.increment();
+        return AngerServer.ok(AngerServer.log(Journal.snapshot(r)));
+      }));
+    }
+  }
+}
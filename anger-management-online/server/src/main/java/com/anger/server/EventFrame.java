@@ -0,0 +1,86 @@
+// file: src/main/java/com/anger/server/EventFrame.java
+package com.anger.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A fully encoded SSE event ({@code id: ...\nevent: ...\ndata: ...\n\n}). Built once per
+ * broadcast and shared by every subscriber queue and the room's replay ring, so fan-out cost
+ * does not include any per-client string building or UTF-8 encoding. Instances are immutable.
+ */
+final class EventFrame {
+  private static final byte[] ID = "id: ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] EVENT = "event: ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] DATA = "\ndata: ".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] END = "\n\n".getBytes(StandardCharsets.US_ASCII);
+
+  final long id;      // room sequence number, -1 for unnumbered events
+  final String event;
+  private final byte[] bytes;
+  private final int dataStart, dataLength; // the JSON payload inside bytes
+  private volatile byte[] ws;              // WebSocket encoding, built on first use
+
+  private EventFrame(long id, String event, byte[] bytes, int dataStart, int dataLength) {
+    this.id = id;
+    this.event = event;
+    this.bytes = bytes;
+    this.dataStart = dataStart;
+    this.dataLength = dataLength;
+  }
+
+  static EventFrame of(String event, String jsonPayload) {
+    return of(-1, event, jsonPayload);
+  }
+
+  static EventFrame of(long id, String event, String jsonPayload) {
+    byte[] data = jsonPayload.getBytes(StandardCharsets.UTF_8);
+    return encode(id, event, data, data.length);
+  }
+
+  /** Copies the writer's current contents as the payload; the writer may be reused after. */
+  static EventFrame of(long id, String event, Json.Writer json) {
+    return encode(id, event, json.buffer(), json.size());
+  }
+
+  private static EventFrame encode(long id, String event, byte[] data, int dataLength) {
+    byte[] idLine = id < 0 ? new byte[0] : (id + "\n").getBytes(StandardCharsets.US_ASCII);
+    byte[] type = event.getBytes(StandardCharsets.US_ASCII);
+    int idLen = id < 0 ? 0 : ID.length + idLine.length;
+    byte[] out = new byte[idLen + EVENT.length + type.length + DATA.length + dataLength + END.length];
+    int p = 0;
+    if (id >= 0) {
+      System.arraycopy(ID, 0, out, p, ID.length); p += ID.length;
+      System.arraycopy(idLine, 0, out, p, idLine.length); p += idLine.length;
+    }
+    System.arraycopy(EVENT, 0, out, p, EVENT.length); p += EVENT.length;
+    System.arraycopy(type, 0, out, p, type.length); p += type.length;
+    System.arraycopy(DATA, 0, out, p, DATA.length); p += DATA.length;
+    int dataStart = p;
+    System.arraycopy(data, 0, out, p, dataLength); p += dataLength;
+    System.arraycopy(END, 0, out, p, END.length);
+    return new EventFrame(id, event, out, dataStart, dataLength);
+  }
+
+  void writeTo(OutputStream os) throws IOException { os.write(bytes, 0, bytes.length); }
+
+  /**
+   * The same event as one WebSocket text frame, {@code {"event":..,"id":..,"data":{..}}}.
+   * Encoded at most once per frame however many sockets it goes to; {@code data} is always
+   * the last member so clients can slice it out without a parser.
+   */
+  void writeWebSocketTo(OutputStream os) throws IOException {
+    byte[] b = ws;
+    if (b == null) {
+      String head = "{\"event\":\"" + event + "\"" + (id < 0 ? "" : ",\"id\":" + id) + ",\"data\":";
+      byte[] h = head.getBytes(StandardCharsets.US_ASCII);
+      byte[] payload = new byte[h.length + dataLength + 1];
+      System.arraycopy(h, 0, payload, 0, h.length);
+      System.arraycopy(bytes, dataStart, payload, h.length, dataLength);
+      payload[payload.length - 1] = '}';
+      ws = b = WebSocketServer.textFrame(payload);
+    }
+    os.write(b, 0, b.length);
+  }
+}
@@ -0,0 +1,174 @@
+// file: src/main/java/com/anger/server/Hibernation.java
+package com.anger.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Off-heap parking space for idle rooms. A hibernated room is its {@link RoomCodec} encoding
+ * in a fixed-size slot of a memory-mapped file plus one small index entry on the heap; the
+ * Room, its PlayerStates, mailbox and subscriber list are dropped. {@link RoomRegistry} moves
+ * rooms in here and wakes them again on the next {@code get}.
+ *
+ * <p>The file is scratch space: {@link #open} truncates it, discarding whatever a previous run
+ * parked there, since surviving a restart is the journal's job. Point it at a path nothing else uses.
+ * Slots are {@value #SLOT} bytes ({@code length:short state}); a room whose encoding does not
+ * fit (very long names or moves) simply stays resident. Freed slots are reused.
+ */
+final class Hibernation implements Closeable {
+  static final int SLOT = 256;
+  private static final int SLOTS_PER_REGION = 1 << 16; // 16 MB mapped at a time
+
+  private static final class Entry {
+    final int slot;
+    final long lastActivity;
+    Entry(int slot, long lastActivity) { this.slot = slot; this.lastActivity = lastActivity; }
+  }
+
+  private final FileChannel channel;
+  private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  // Slot allocation, guarded by this
+  private int[] free = new int[64];
+  private int freeCount;
+  private int nextSlot;
+
+  // Counters for /stats
+  final LongAdder hibernated = new LongAdder();
+  final LongAdder woken = new LongAdder();
+  final LongAdder expired = new LongAdder();
+  final LongAdder tooLarge = new LongAdder();
+  final LongAdder hibernateNanos = new LongAdder();
+  final LongAdder wakeNanos = new LongAdder();
+  final LongAccumulator hibernateMaxNanos = new LongAccumulator(Math::max, 0);
+  final LongAccumulator wakeMaxNanos = new LongAccumulator(Math::max, 0);
+
+  private Hibernation(FileChannel channel) { this.channel = channel; }
+
+  static Hibernation open(Path file) throws IOException {
+    if (file.getParent() != null) java.nio.file.Files.createDirectories(file.getParent());
+    return new Hibernation(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+  }
+
+  int size() { return entries.size(); }
+
+  /** Parks {@code r}'s state under {@code id}; false if it does not fit a slot. Run on the room's mailbox. */
+  boolean store(String id, AngerServer.Room r) {
+    long t0 = System.nanoTime();
+    int slot = allocate();
+    ByteBuffer region = region(slot);
+    int off = offset(slot);
+    ByteBuffer out = region.slice(off + 2, SLOT - 2);
+    try {
+      RoomCodec.encode(r, out);
+    } catch (BufferOverflowException e) {
+      release(slot);
+      tooLarge.increment();
+      return false;
+    }
+    region.putShort(off, (short) out.position());
+    entries.put(id, new Entry(slot, r.lastActivity));
+    hibernated.increment();
+    record(hibernateNanos, hibernateMaxNanos, System.nanoTime() - t0);
+    return true;
+  }
+
+  /** Moves the state parked under {@code id} into {@code into}; false if there is none. */
+  boolean restore(String id, AngerServer.Room into) {
+    long t0 = System.nanoTime();
+    Entry e = entries.remove(id);
+    if (e == null) return false;
+    RoomCodec.decode(state(e.slot), into);
+    release(e.slot);
+    woken.increment();
+    record(wakeNanos, wakeMaxNanos, System.nanoTime() - t0);
+    return true;
+  }
+
+  /** Drops the state parked under {@code id}, as an eviction would; false if there is none. */
+  boolean discard(String id) {
+    Entry e = entries.remove(id);
+    if (e == null) return false;
+    release(e.slot);
+    return true;
+  }
+
+  /**
+   * Hands every parked room's encoded state to {@code action}. Each call runs atomically with
+   * respect to waking that room, so a room is either seen here or already back on the heap.
+   */
+  void forEach(BiConsumer<String, ByteBuffer> action) {
+    for (String id : entries.keySet()) {
+      entries.computeIfPresent(id, (k, e) -> {
+        action.accept(k, state(e.slot));
+        return e;
+      });
+    }
+  }
+
+  /** Drops rooms idle since before {@code cutoff}; {@code onExpire} runs for each, atomically with waking it. */
+  void expire(long cutoff, Consumer<String> onExpire) {
+    for (String id : entries.keySet()) {
+      entries.computeIfPresent(id, (k, e) -> {
+        if (e.lastActivity >= cutoff) return e;
+        onExpire.accept(k);
+        release(e.slot);
+        expired.increment();
+        return null;
+      });
+    }
+  }
+
+  private ByteBuffer state(int slot) {
+    ByteBuffer region = region(slot);
+    int off = offset(slot);
+    return region.slice(off + 2, region.getShort(off));
+  }
+
+  private static void record(LongAdder total, LongAccumulator max, long nanos) {
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  // ==== Slots ====
+  private ByteBuffer region(int slot) { return regions[slot / SLOTS_PER_REGION]; }
+  private static int offset(int slot) { return (slot % SLOTS_PER_REGION) * SLOT; }
+
+  private synchronized int allocate() {
+    if (freeCount > 0) return free[--freeCount];
+    int slot = nextSlot++;
+    if (slot / SLOTS_PER_REGION >= regions.length) {
+      try {
+        long base = (long) regions.length * SLOTS_PER_REGION * SLOT;
+        MappedByteBuffer next = channel.map(FileChannel.MapMode.READ_WRITE, base, (long) SLOTS_PER_REGION * SLOT);
+        MappedByteBuffer[] grown = Arrays.copyOf(regions, regions.length + 1);
+        grown[grown.length - 1] = next;
+        regions = grown;
+      } catch (IOException e) {
+        nextSlot--;
+        throw new java.io.UncheckedIOException(e);
+      }
+    }
+    return slot;
+  }
+
+  private synchronized void release(int slot) {
+    if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+    free[freeCount++] = slot;
+  }
+
+  @Override public void close() throws IOException { channel.close(); }
+}
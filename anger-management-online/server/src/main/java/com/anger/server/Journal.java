@@ -0,0 +1,501 @@
+// file: src/main/java/com/anger/server/Journal.java
+package com.anger.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead log of every accepted room command, so a restart rebuilds the games in progress.
+ *
+ * <p>The log is a directory of fixed-size, memory-mapped segment files. A record is
+ * {@code length:int crc32c:int payload}; a zero length marks the end of written data (new
+ * segments are zero-filled). Appending is a copy into the mapping under a short lock; making
+ * it durable is the flusher's job and depends on {@link Fsync}:
+ * <ul>
+ *   <li>NONE   - never forced by us; the OS writes pages back when it likes.
+ *   <li>BATCH  - group commit: a flusher forces the dirty range every {@code flushMs} and then
+ *                completes every waiter whose record it covered.
+ *   <li>ALWAYS - as BATCH, but every append wakes the flusher immediately, so concurrent
+ *                appends still share a force.
+ * </ul>
+ * Replies wait on {@link #whenDurable} asynchronously, so no request thread blocks on disk.
+ *
+ * <p>Positions are LSNs, {@code segmentIndex << 32 | offset}, which only ever grow. When more
+ * than {@code compactAfter} segments exist, compaction rolls to a fresh segment, appends a
+ * {@link #SNAPSHOT} of every live room through its mailbox and of every hibernated one,
+ * forces, and deletes the older segments. A room that cannot be snapshotted is skipped and
+ * logged, and the old segments from the first one that mentions it are kept. Replay applies
+ * records oldest first; a snapshot replaces whatever came before it, and a {@link #BATCH}
+ * replays its commands with one publish, as {@link BatchHandler} ran them. A torn or corrupt tail
+ * is cut off at the last good record.
+ *
+ * <p>Nothing slow runs under the append lock: the next segment is mapped ahead of time on
+ * the compactor thread, and a segment that fills up is forced by the flusher.
+ */
+final class Journal implements Closeable {
+
+  enum Fsync {
+    NONE, BATCH, ALWAYS;
+
+    static Fsync parse(String s) { return valueOf(s.trim().toUpperCase()); }
+  }
+
+  static final byte JOIN = 1, MOVE = 2, ACTION = 3, SNAPSHOT = 4, EVICT = 5, BATCH = 6;
+
+  private static final int HEADER = 8;
+  static final int MAX_RECORD = 64 * 1024;
+  private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+  private static final class Segment {
+    final long index;
+    final Path path;
+    final FileChannel channel;
+    final MappedByteBuffer buf;
+    int position; // end of written data
+    int forced;   // end of data known to be on disk
+
+    Segment(long index, Path path, FileChannel channel, MappedByteBuffer buf) {
+      this.index = index; this.path = path; this.channel = channel; this.buf = buf;
+    }
+
+    long lsn() { return (index << 32) | position; }
+  }
+
+  private static final class Waiter {
+    final long lsn;
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    Waiter(long lsn) { this.lsn = lsn; }
+  }
+
+  private final Path dir;
+  private final int segmentSize;
+  private final Fsync fsync;
+  private final long flushNanos;
+  private final int compactAfter;
+  private final RoomRegistry registry;
+
+  private final ArrayDeque<Segment> segments = new ArrayDeque<>(); // oldest first; guarded by this
+  private Segment active;                                           // guarded by this
+  private Segment spare;                                            // mapped ahead of the next roll; guarded by this
+  private final ArrayDeque<Segment> sealed = new ArrayDeque<>();    // rolled but not yet forced; guarded by this
+  private volatile long durableLsn;
+  private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+  private final Thread flusher;
+  private final ExecutorService compactor = Executors.newSingleThreadExecutor(AngerServer.daemonFactory("journal-compact"));
+  private final AtomicBoolean compacting = new AtomicBoolean();
+  private volatile boolean closed;
+
+  // Counters for /stats
+  final LongAdder records = new LongAdder();
+  final LongAdder forces = new LongAdder();
+  final LongAdder compactions = new LongAdder();
+  final LongAdder snapshotFailures = new LongAdder();
+  long replayed;
+
+  private Journal(Path dir, int segmentSize, Fsync fsync, int flushMs, int compactAfter, RoomRegistry registry) {
+    this.dir = dir;
+    this.segmentSize = segmentSize;
+    this.fsync = fsync;
+    this.flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMs));
+    this.compactAfter = Math.max(2, compactAfter);
+    this.registry = registry;
+    this.flusher = AngerServer.daemonFactory("journal-flush").newThread(this::flushLoop);
+  }
+
+  /**
+   * Opens (or creates) the journal in {@code dir}, replays it into {@code registry} and starts
+   * the flusher. Must run before the server accepts requests, with no journal installed on
+   * AngerServer, so replayed commands are not appended again.
+   */
+  static Journal open(AngerServer.Config cfg, RoomRegistry registry) throws IOException {
+    Path dir = Paths.get(cfg.journalDir);
+    Files.createDirectories(dir);
+    Journal j = new Journal(dir, cfg.journalSegmentMb << 20, cfg.journalFsync, cfg.journalFlushMs,
+        cfg.journalCompactSegments, registry);
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*.seg")) {
+      for (Path p : ds) files.add(p);
+    }
+    Collections.sort(files);
+    for (Path p : files) {
+      long index = Long.parseLong(p.getFileName().toString().replace(".seg", ""));
+      j.segments.addLast(j.map(index, p));
+    }
+    // A spare mapped ahead of a roll that never came is empty; drop it so the segment a crash
+    // could have torn is replayed as the last one and has its tail cleared.
+    while (j.segments.size() > 1 && j.segments.peekLast().buf.getInt(0) == 0) {
+      Segment s = j.segments.pollLast();
+      s.channel.close();
+      Files.delete(s.path);
+    }
+    for (Segment s : j.segments) j.replay(s, s == j.segments.peekLast());
+    if (j.segments.isEmpty()) j.segments.addLast(j.map(0, j.pathFor(0)));
+    j.active = j.segments.peekLast();
+    j.active.forced = j.active.position;
+    j.durableLsn = j.active.lsn();
+    j.flusher.start();
+    j.compactor.execute(j::prepareSpare);
+    return j;
+  }
+
+  // ==== Appending ====
+  /** Must run on the room's mailbox. */
+  long appendSnapshot(AngerServer.Room r) { return append(snapshot(r)); }
+
+  /** A snapshot from an already encoded room, as held by {@link Hibernation}. */
+  long appendSnapshot(String id, ByteBuffer state) { return append(snapshot(id, state)); }
+
+  /** A {@link #SNAPSHOT} record of {@code r}. Must run on the room's mailbox. */
+  static byte[] snapshot(AngerServer.Room r) {
+    ByteBuffer b = ByteBuffer.allocate(1 + RoomCodec.utf8Bound(r.id) + RoomCodec.maxSize(r));
+    b.put(SNAPSHOT);
+    RoomCodec.putString(b, r.id);
+    RoomCodec.encode(r, b);
+    return Arrays.copyOf(b.array(), b.position());
+  }
+
+  static byte[] snapshot(String id, ByteBuffer state) {
+    ByteBuffer b = ByteBuffer.allocate(1 + RoomCodec.utf8Bound(id) + state.remaining());
+    b.put(SNAPSHOT);
+    RoomCodec.putString(b, id);
+    b.put(state);
+    return Arrays.copyOf(b.array(), b.position());
+  }
+
+  /** A {@link #BATCH} of one room's command records: {@code id count (length record)*}. */
+  static byte[] batch(String id, List<byte[]> records) {
+    ByteBuffer b = ByteBuffer.allocate(batchBound(id, records.size(), 0) + records.stream().mapToInt(r -> r.length).sum());
+    b.put(BATCH);
+    RoomCodec.putString(b, id);
+    RoomCodec.putVarLong(b, records.size());
+    for (byte[] r : records) {
+      RoomCodec.putVarLong(b, r.length);
+      b.put(r);
+    }
+    return Arrays.copyOf(b.array(), b.position());
+  }
+
+  /** Upper bound of a batch payload holding {@code count} records of {@code bytes} in all. */
+  static int batchBound(String id, int count, int bytes) {
+    return 1 + RoomCodec.utf8Bound(id) + 5 + 5 * count + bytes;
+  }
+
+  /** Encodes a command record; the payload format shared with {@link Replication}. */
+  static byte[] record(byte type, String... fields) {
+    int bound = 1;
+    for (String f : fields) bound += RoomCodec.utf8Bound(f == null ? "" : f);
+    ByteBuffer b = ByteBuffer.allocate(bound);
+    b.put(type);
+    for (String f : fields) RoomCodec.putString(b, f == null ? "" : f);
+    return Arrays.copyOf(b.array(), b.position());
+  }
+
+  /** Copies the record into the active segment and returns the LSN just past it. */
+  long append(byte[] payload) {
+    if (payload.length + HEADER > MAX_RECORD) throw new IllegalArgumentException("journal record too large");
+    CRC32C crc = new CRC32C();
+    crc.update(payload);
+    long lsn;
+    int count;
+    synchronized (this) {
+      if (closed) throw new IllegalStateException("journal closed");
+      // Keep HEADER bytes free so a zero length always terminates the segment.
+      if (active.position + 2 * HEADER + payload.length > active.buf.capacity()) roll();
+      MappedByteBuffer b = active.buf;
+      int p = active.position;
+      b.putInt(p + 4, (int) crc.getValue());
+      b.put(p + HEADER, payload);
+      b.putInt(p, payload.length);
+      active.position = p + HEADER + payload.length;
+      lsn = active.lsn();
+      count = segments.size();
+    }
+    records.increment();
+    if (fsync == Fsync.ALWAYS) LockSupport.unpark(flusher);
+    if (count > compactAfter && compacting.compareAndSet(false, true)) compactor.execute(this::compact);
+    return lsn;
+  }
+
+  // Holding the lock. Takes the spare segment when it is ready (mapping here is the fallback),
+  // leaves the old one for the flusher to force, and has the next spare mapped off the lock.
+  private void roll() {
+    Segment next = spare;
+    spare = null;
+    if (next == null || next.index != active.index + 1) {
+      try {
+        next = map(active.index + 1, pathFor(active.index + 1));
+      } catch (IOException e) {
+        throw new java.io.UncheckedIOException(e);
+      }
+    }
+    sealed.addLast(active);
+    segments.addLast(next);
+    active = next;
+    if (!closed) compactor.execute(this::prepareSpare);
+  }
+
+  // On the compactor thread: maps the segment after the active one, so roll() need not.
+  private void prepareSpare() {
+    long index;
+    synchronized (this) {
+      if (closed || spare != null) return;
+      index = active.index + 1;
+    }
+    try {
+      Segment s = map(index, pathFor(index));
+      synchronized (this) {
+        if (!closed && spare == null && active.index + 1 == index) { spare = s; return; }
+      }
+      s.channel.close(); // a roll got there first and mapped the file itself
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  // ==== Durability ====
+  /** Completes once everything up to {@code lsn} is on disk (immediately under NONE). */
+  CompletableFuture<Void> whenDurable(long lsn) {
+    if (lsn < 0 || fsync == Fsync.NONE || lsn <= durableLsn) return DONE;
+    Waiter w = new Waiter(lsn);
+    waiters.add(w);
+    if (lsn <= durableLsn) completeWaiters(); // flusher may have passed it while we enqueued
+    return w.future;
+  }
+
+  private void flushLoop() {
+    while (!closed) {
+      LockSupport.parkNanos(this, flushNanos);
+      try {
+        flush();
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private void flush() {
+    Segment seg;
+    int from, to;
+    long target;
+    List<Segment> full;
+    synchronized (this) {
+      seg = active;
+      from = seg.forced;
+      to = seg.position;
+      target = seg.lsn();
+      full = new ArrayList<>(sealed);
+      sealed.clear();
+    }
+    // Rolled segments first: durableLsn below covers everything before the active one too.
+    for (Segment s : full) forceRest(s);
+    if (to > from) {
+      if (fsync != Fsync.NONE) seg.buf.force(from, to - from);
+      forces.increment();
+      synchronized (this) { if (seg.forced < to) seg.forced = to; }
+    }
+    if (target > durableLsn) durableLsn = target;
+    completeWaiters();
+  }
+
+  // A segment no longer appended to: forces what the flusher had not yet.
+  private void forceRest(Segment s) {
+    if (fsync != Fsync.NONE && s.position > s.forced) s.buf.force(s.forced, s.position - s.forced);
+    s.forced = s.position;
+  }
+
+  private void completeWaiters() {
+    long durable = durableLsn;
+    for (Iterator<Waiter> it = waiters.iterator(); it.hasNext(); ) {
+      Waiter w = it.next();
+      if (w.lsn <= durable) {
+        it.remove();
+        w.future.complete(null);
+      }
+    }
+  }
+
+  // ==== Compaction ====
+  private void compact() {
+    try {
+      long keepFrom;
+      synchronized (this) {
+        roll();
+        keepFrom = active.index;
+      }
+      // Each snapshot is taken on the room's mailbox, so it is ordered with that room's commands.
+      // One room failing must not stop the rest; its history is kept instead.
+      Set<String> failed = ConcurrentHashMap.newKeySet();
+      List<CompletableFuture<Object>> done = new ArrayList<>();
+      for (AngerServer.Room r : registry.rooms()) {
+        done.add(r.mailbox.ask(() -> {
+          if (!r.evicted) snapshotOrSkip(r.id, () -> appendSnapshot(r), failed);
+          return null;
+        }));
+      }
+      CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).join();
+      // Rooms parked off-heap, including any that hibernated while the above ran.
+      registry.forEachHibernated((id, state) -> snapshotOrSkip(id, () -> appendSnapshot(id, state), failed));
+      if (!failed.isEmpty()) keepFrom = firstMentioning(failed, keepFrom);
+      Segment seg;
+      synchronized (this) { seg = active; }
+      seg.buf.force(); // snapshots must be on disk before the history they replace goes away
+      List<Segment> old = new ArrayList<>();
+      synchronized (this) {
+        while (segments.peekFirst() != null && segments.peekFirst().index < keepFrom) old.add(segments.pollFirst());
+      }
+      for (Segment s : old) {
+        s.channel.close();
+        Files.deleteIfExists(s.path);
+      }
+      compactions.increment();
+    } catch (Exception e) {
+      e.printStackTrace();
+    } finally {
+      compacting.set(false);
+    }
+  }
+
+  private void snapshotOrSkip(String id, Runnable append, Set<String> failed) {
+    try {
+      append.run();
+    } catch (RuntimeException e) {
+      failed.add(id);
+      snapshotFailures.increment();
+      System.err.println("journal: cannot snapshot room " + id + ", keeping its history: " + e);
+    }
+  }
+
+  // The index of the oldest segment before keepFrom holding a record for any of rooms, or keepFrom.
+  private long firstMentioning(Set<String> rooms, long keepFrom) {
+    List<Segment> old;
+    synchronized (this) { old = new ArrayList<>(segments); }
+    for (Segment s : old) {
+      if (s.index >= keepFrom) break;
+      ByteBuffer b = s.buf.duplicate();
+      for (int p = 0; p + HEADER <= s.position; ) {
+        int len = b.getInt(p);
+        if (len <= 0) break;
+        ByteBuffer rec = b.slice(p + HEADER + 1, len - 1); // past the type byte
+        if (rooms.contains(RoomCodec.getString(rec))) return s.index;
+        p += HEADER + len;
+      }
+    }
+    return keepFrom;
+  }
+
+  // ==== Replay ====
+  private void replay(Segment s, boolean last) {
+    MappedByteBuffer b = s.buf;
+    int p = 0;
+    while (p + HEADER <= b.capacity()) {
+      int len = b.getInt(p);
+      if (len <= 0 || len > MAX_RECORD || p + HEADER + len > b.capacity()) break;
+      byte[] payload = new byte[len];
+      b.get(p + HEADER, payload);
+      CRC32C crc = new CRC32C();
+      crc.update(payload);
+      if ((int) crc.getValue() != b.getInt(p + 4)) break;
+      try {
+        apply(ByteBuffer.wrap(payload));
+      } catch (RuntimeException e) {
+        System.err.println("journal: skipping unreadable record in " + s.path + " at " + p + ": " + e);
+      }
+      replayed++;
+      p += HEADER + len;
+    }
+    s.position = p;
+    if (last) {
+      // Whatever follows the last good record is a torn write; clear it so it is never misread.
+      int end = Math.min(b.capacity(), p + HEADER + MAX_RECORD);
+      for (int i = p; i < end; i++) b.put(i, (byte) 0);
+    } else if (p + HEADER <= b.capacity() && b.getInt(p) != 0) {
+      System.err.println("journal: " + s.path + " is corrupt after offset " + p + "; later records in it are lost");
+    }
+  }
+
+  private void apply(ByteBuffer b) {
+    byte type = b.get();
+    String id = RoomCodec.getString(b);
+    if (type == EVICT) { registry.remove(id); return; }
+    AngerServer.Room r = registry.get(id);
+    if (r == null) return; // over capacity
+    apply(type, b, r);
+  }
+
+  /** Applies the rest of a record, past its type and room id, to {@code r}. */
+  static void apply(byte type, ByteBuffer b, AngerServer.Room r) {
+    switch (type) {
+      case JOIN: AngerServer.join(r, RoomCodec.getString(b)); break;
+      case MOVE: AngerServer.move(r, RoomCodec.getString(b), RoomCodec.getString(b)); break;
+      case ACTION: AngerServer.action(r, RoomCodec.getString(b), RoomCodec.getString(b)); break;
+      case SNAPSHOT: RoomCodec.restore(b, r); break;
+      case BATCH: {
+        BatchHandler.begin(r);
+        try {
+          for (long n = RoomCodec.getVarLong(b); n > 0; n--) {
+            int len = (int) RoomCodec.getVarLong(b);
+            ByteBuffer command = b.slice(b.position(), len);
+            b.position(b.position() + len);
+            byte t = command.get();
+            RoomCodec.getString(command); // the batch's room
+            try {
+              apply(t, command, r);
+            } catch (RuntimeException e) {
+              System.err.println("journal: skipping unreadable command in a batch for " + r.id + ": " + e);
+            }
+          }
+        } finally {
+          BatchHandler.end(r);
+        }
+        break;
+      }
+      default: throw new IllegalArgumentException("unknown record type " + type);
+    }
+  }
+
+  // ==== Files ====
+  private Path pathFor(long index) { return dir.resolve(String.format("%020d.seg", index)); }
+
+  private Segment map(long index, Path path) throws IOException {
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = Math.max(ch.size(), segmentSize);
+    return new Segment(index, path, ch, ch.map(FileChannel.MapMode.READ_WRITE, 0, size));
+  }
+
+  int segmentCount() {
+    synchronized (this) { return segments.size(); }
+  }
+
+  @Override public void close() {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+    }
+    LockSupport.unpark(flusher);
+    try { flusher.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    compactor.shutdownNow();
+    synchronized (this) {
+      for (Segment s : sealed) forceRest(s);
+      sealed.clear();
+      active.buf.force();
+      durableLsn = active.lsn();
+      for (Segment s : segments) {
+        try { s.channel.close(); } catch (IOException ignore) {}
+      }
+      if (spare != null) {
+        try { spare.channel.close(); } catch (IOException ignore) {}
+      }
+    }
+    completeWaiters();
+  }
+}
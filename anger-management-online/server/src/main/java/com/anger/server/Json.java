@@ -0,0 +1,470 @@
+// file: src/main/java/com/anger/server/Json.java
+package com.anger.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-pass JSON for the message shapes the server speaks. {@link #read} picks a fixed set
+ * of fields out of a request object straight from its UTF-8 bytes: keys are matched
+ * byte-for-byte, unwanted values are skipped without being decoded, and only the wanted
+ * values become Strings. {@link Writer} appends escaped UTF-8 into a reusable buffer, so an
+ * event is encoded without an intermediate String or per-event map.
+ */
+final class Json {
+  private Json() {}
+
+  static final int MAX_BODY = 64 * 1024;
+
+  private static final ThreadLocal<byte[]> BODY = ThreadLocal.withInitial(() -> new byte[1024]);
+  private static final ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(Writer::new);
+
+  /** The field names a reader is interested in, encoded once. */
+  static final class Fields {
+    final String[] names;
+    private final byte[][] keys;
+
+    Fields(String... names) {
+      this.names = names;
+      this.keys = new byte[names.length][];
+      for (int i = 0; i < names.length; i++) keys[i] = names[i].getBytes(StandardCharsets.UTF_8);
+    }
+
+    int indexOf(byte[] b, int off, int len) {
+      for (int i = 0; i < keys.length; i++) {
+        if (Arrays.equals(keys[i], 0, keys[i].length, b, off, off + len)) return i;
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Reads one JSON object from {@code in} (at most {@link #MAX_BODY} bytes) into a reused
+   * per-thread buffer and returns the values of {@code fields}, index for index; absent
+   * fields and JSON {@code null} are null. Throws IllegalArgumentException on malformed input.
+   */
+  static String[] read(InputStream in, Fields fields) throws IOException {
+    byte[] buf = BODY.get();
+    int n = 0;
+    for (;;) {
+      if (n == buf.length) {
+        if (n >= MAX_BODY) throw new IllegalArgumentException("body larger than " + MAX_BODY);
+        buf = Arrays.copyOf(buf, Math.min(MAX_BODY, n * 2));
+        BODY.set(buf);
+      }
+      int r = in.read(buf, n, buf.length - n);
+      if (r < 0) break;
+      n += r;
+    }
+    return read(buf, 0, n, fields);
+  }
+
+  static String[] read(byte[] b, int off, int len, Fields fields) {
+    return new Parser(b, off, off + len).object(fields);
+  }
+
+  /** As {@link #read(byte[], int, int, Fields)}, for a top-level array of flat objects. */
+  static List<String[]> readArray(byte[] b, int off, int len, Fields fields) {
+    return new Parser(b, off, off + len).array(fields);
+  }
+
+  /** The calling thread's writer, reset. Not reentrant: finish with it before asking again. */
+  static Writer writer() {
+    return WRITER.get().reset();
+  }
+
+  private static final class Parser {
+    private final byte[] b;
+    private int p;
+    private final int end;
+
+    Parser(byte[] b, int p, int end) { this.b = b; this.p = p; this.end = end; }
+
+    String[] object(Fields fields) {
+      ws();
+      return finish(members(fields));
+    }
+
+    List<String[]> array(Fields fields) {
+      List<String[]> out = new ArrayList<>();
+      ws();
+      expect('[');
+      ws();
+      if (peek() == ']') { p++; finish(null); return out; }
+      for (;;) {
+        out.add(members(fields));
+        ws();
+        int c = next();
+        if (c == ']') { finish(null); return out; }
+        if (c != ',') throw error("expected , or ]");
+        ws();
+      }
+    }
+
+    // One object, from its opening brace to just past its closing one.
+    private String[] members(Fields fields) {
+      String[] out = new String[fields.names.length];
+      expect('{');
+      ws();
+      if (peek() == '}') { p++; return out; }
+      for (;;) {
+        expect('"');
+        int ks = p;
+        skipStringBody();
+        int idx = fields.indexOf(b, ks, p - 1 - ks);
+        ws();
+        expect(':');
+        ws();
+        if (idx >= 0) out[idx] = value();
+        else skipValue();
+        ws();
+        int c = next();
+        if (c == '}') return out;
+        if (c != ',') throw error("expected , or }");
+        ws();
+      }
+    }
+
+    private String[] finish(String[] out) {
+      ws();
+      if (p != end) throw error("trailing data");
+      return out;
+    }
+
+    private String value() {
+      int c = peek();
+      if (c == '"') { p++; return string(); }
+      if (c == '{' || c == '[') { int s = p; skipValue(); return new String(b, s, p - s, StandardCharsets.UTF_8); }
+      int s = p;
+      skipLiteral();
+      if (b[s] == 'n') return null;
+      return new String(b, s, p - s, StandardCharsets.ISO_8859_1);
+    }
+
+    // Called just after the opening quote; leaves p after the closing quote.
+    private String string() {
+      int s = p;
+      while (p < end) {
+        byte c = b[p];
+        if (c == '"') { String v = new String(b, s, p - s, StandardCharsets.UTF_8); p++; return v; }
+        if (c == '\\') return escapedString(s);
+        if ((c & 0xFF) < 0x20) throw error("control character in string");
+        p++;
+      }
+      throw error("unterminated string");
+    }
+
+    private String escapedString(int s) {
+      StringBuilder sb = new StringBuilder(p - s + 16);
+      int run = s;
+      while (p < end) {
+        byte c = b[p];
+        if (c == '"') {
+          sb.append(new String(b, run, p - run, StandardCharsets.UTF_8));
+          p++;
+          return sb.toString();
+        }
+        if ((c & 0xFF) < 0x20) throw error("control character in string");
+        if (c != '\\') { p++; continue; }
+        sb.append(new String(b, run, p - run, StandardCharsets.UTF_8));
+        p++;
+        int e = next();
+        switch (e) {
+          case '"': sb.append('"'); break;
+          case '\\': sb.append('\\'); break;
+          case '/': sb.append('/'); break;
+          case 'b': sb.append('\b'); break;
+          case 'f': sb.append('\f'); break;
+          case 'n': sb.append('\n'); break;
+          case 'r': sb.append('\r'); break;
+          case 't': sb.append('\t'); break;
+          case 'u':
+            if (p + 4 > end) throw error("short \\u escape");
+            int cp = 0;
+            for (int i = 0; i < 4; i++) cp = (cp << 4) | hex(b[p++]);
+            sb.append((char) cp);
+            break;
+          default: throw error("bad escape");
+        }
+        run = p;
+      }
+      throw error("unterminated string");
+    }
+
+    private void skipStringBody() {
+      while (p < end) {
+        byte c = b[p++];
+        if (c == '"') return;
+        if (c == '\\') p++;
+      }
+      throw error("unterminated string");
+    }
+
+    private void skipValue() {
+      int c = peek();
+      if (c == '"') { p++; skipStringBody(); return; }
+      if (c != '{' && c != '[') { skipLiteral(); return; }
+      int depth = 0;
+      while (p < end) {
+        byte x = b[p++];
+        if (x == '"') skipStringBody();
+        else if (x == '{' || x == '[') depth++;
+        else if ((x == '}' || x == ']') && --depth == 0) return;
+      }
+      throw error("unterminated value");
+    }
+
+    // true, false, null or a number; any other bare token (e.g. an unquoted rock) is an error.
+    private void skipLiteral() {
+      int c = peek();
+      if (c == 't') { word("true"); return; }
+      if (c == 'f') { word("false"); return; }
+      if (c == 'n') { word("null"); return; }
+      if (c == '-') p++;
+      if (peek() == '0') p++;
+      else if (!digits()) throw error("expected a value");
+      if (peek() == '.') { p++; if (!digits()) throw error("bad number"); }
+      if (peek() == 'e' || peek() == 'E') {
+        p++;
+        if (peek() == '+' || peek() == '-') p++;
+        if (!digits()) throw error("bad number");
+      }
+    }
+
+    private void word(String w) {
+      for (int i = 0; i < w.length(); i++) if (next() != w.charAt(i)) throw error("expected " + w);
+    }
+
+    private boolean digits() {
+      int s = p;
+      while (p < end && b[p] >= '0' && b[p] <= '9') p++;
+      return p > s;
+    }
+
+    private void ws() {
+      while (p < end) {
+        byte c = b[p];
+        if (c != ' ' && c != '\t' && c != '\r' && c != '\n') return;
+        p++;
+      }
+    }
+
+    private int peek() { return p < end ? b[p] : -1; }
+
+    private int next() {
+      if (p >= end) throw error("unexpected end");
+      return b[p++];
+    }
+
+    private void expect(char c) {
+      if (next() != c) throw error("expected " + c);
+    }
+
+    private int hex(byte c) {
+      if (c >= '0' && c <= '9') return c - '0';
+      if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+      if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+      throw error("bad hex digit");
+    }
+
+    private IllegalArgumentException error(String what) {
+      return new IllegalArgumentException("malformed JSON at " + p + ": " + what);
+    }
+  }
+
+  /**
+   * Appends JSON into a growable byte buffer that is kept between uses. Commas are inserted
+   * automatically between members; strings are escaped and encoded as UTF-8 in one pass.
+   */
+  static final class Writer {
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf = new byte[512];
+    private int len;
+    private boolean needComma;
+
+    Writer reset() {
+      len = 0;
+      needComma = false;
+      return this;
+    }
+
+    Writer beginObject() {
+      comma();
+      put('{');
+      needComma = false;
+      return this;
+    }
+
+    Writer endObject() {
+      put('}');
+      needComma = true;
+      return this;
+    }
+
+    Writer beginArray() {
+      comma();
+      put('[');
+      needComma = false;
+      return this;
+    }
+
+    Writer endArray() {
+      put(']');
+      needComma = true;
+      return this;
+    }
+
+    /** Member name; the next call writes its value. */
+    Writer name(String key) {
+      comma();
+      string(key);
+      put(':');
+      needComma = false;
+      return this;
+    }
+
+    Writer value(String v) {
+      comma();
+      if (v == null) ascii("null"); else string(v);
+      needComma = true;
+      return this;
+    }
+
+    Writer value(long v) {
+      comma();
+      if (v == Long.MIN_VALUE) ascii("-9223372036854775808");
+      else {
+        if (v < 0) { put('-'); v = -v; }
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) digits++;
+        ensure(digits);
+        for (int i = len + digits - 1; i >= len; i--) { buf[i] = (byte) ('0' + v % 10); v /= 10; }
+        len += digits;
+      }
+      needComma = true;
+      return this;
+    }
+
+    Writer value(boolean v) {
+      comma();
+      ascii(v ? "true" : "false");
+      needComma = true;
+      return this;
+    }
+
+    /** Numbers and booleans as themselves, null as null, anything else as a string. */
+    Writer value(Object v) {
+      if (v == null) return value((String) null);
+      if (v instanceof Integer || v instanceof Long || v instanceof Short || v instanceof Byte) return value(((Number) v).longValue());
+      if (v instanceof Boolean) return value(((Boolean) v).booleanValue());
+      if (v instanceof Number) { comma(); ascii(v.toString()); needComma = true; return this; }
+      return value(v.toString());
+    }
+
+    /** An already-encoded JSON value, copied verbatim. */
+    Writer raw(String json) {
+      comma();
+      byte[] b = json.getBytes(StandardCharsets.UTF_8);
+      ensure(b.length);
+      System.arraycopy(b, 0, buf, len, b.length);
+      len += b.length;
+      needComma = true;
+      return this;
+    }
+
+    Writer field(String key, String v) { return name(key).value(v); }
+    Writer field(String key, long v) { return name(key).value(v); }
+    Writer field(String key, boolean v) { return name(key).value(v); }
+
+    /** Writes alternating key/value pairs as members of the current object; null is a no-op. */
+    Writer fields(Object[] pairs) {
+      if (pairs == null) return this;
+      for (int i = 0; i + 1 < pairs.length; i += 2) name((String) pairs[i]).value(pairs[i + 1]);
+      return this;
+    }
+
+    int size() { return len; }
+
+    byte[] buffer() { return buf; }
+
+    byte[] toByteArray() { return Arrays.copyOf(buf, len); }
+
+    void writeTo(OutputStream os) throws IOException { os.write(buf, 0, len); }
+
+    @Override public String toString() { return new String(buf, 0, len, StandardCharsets.UTF_8); }
+
+    private void comma() {
+      if (needComma) { put(','); needComma = false; }
+    }
+
+    private void string(String s) {
+      int n = s.length();
+      ensure(n * 6 + 2); // worst case: every char escaped as six bytes
+      byte[] b = buf;
+      int p = len;
+      b[p++] = '"';
+      for (int i = 0; i < n; i++) {
+        char c = s.charAt(i);
+        if (c < 0x80) {
+          if (c >= 0x20 && c != '"' && c != '\\') b[p++] = (byte) c;
+          else p = escape(b, p, c);
+        } else if (c < 0x800) {
+          b[p++] = (byte) (0xC0 | (c >> 6));
+          b[p++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+          int cp = Character.toCodePoint(c, s.charAt(++i));
+          b[p++] = (byte) (0xF0 | (cp >> 18));
+          b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+          b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+          b[p++] = (byte) (0x80 | (cp & 0x3F));
+        } else if (Character.isSurrogate(c)) {
+          b[p++] = '?'; // unpaired surrogate has no UTF-8 encoding
+        } else {
+          b[p++] = (byte) (0xE0 | (c >> 12));
+          b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+          b[p++] = (byte) (0x80 | (c & 0x3F));
+        }
+      }
+      b[p++] = '"';
+      len = p;
+    }
+
+    private static int escape(byte[] b, int p, char c) {
+      b[p++] = '\\';
+      switch (c) {
+        case '"': b[p++] = '"'; return p;
+        case '\\': b[p++] = '\\'; return p;
+        case '\n': b[p++] = 'n'; return p;
+        case '\r': b[p++] = 'r'; return p;
+        case '\t': b[p++] = 't'; return p;
+        case '\b': b[p++] = 'b'; return p;
+        case '\f': b[p++] = 'f'; return p;
+        default:
+          b[p++] = 'u'; b[p++] = '0'; b[p++] = '0';
+          b[p++] = HEX[c >> 4]; b[p++] = HEX[c & 0xF];
+          return p;
+      }
+    }
+
+    private void ascii(String s) {
+      int n = s.length();
+      ensure(n);
+      for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void put(char c) {
+      ensure(1);
+      buf[len++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+      if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+  }
+}
@@ -0,0 +1,72 @@
+// file: src/main/java/com/anger/server/Mailbox.java
+package com.anger.server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A room's command queue. Any thread may submit; tasks run one at a time, in submission
+ * order, on the shared worker pool, so each room has a single logical writer and needs no
+ * lock while different rooms proceed in parallel on every core.
+ */
+final class Mailbox implements Runnable {
+  static volatile Executor workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+      ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+
+  /** Replaces the worker pool; the old one finishes the turns it already took, then stops. */
+  static synchronized void configure(AngerServer.Config cfg) {
+    Executor old = workers;
+    workers = new ForkJoinPool(cfg.roomWorkers, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    if (old instanceof ExecutorService) ((ExecutorService) old).shutdown();
+  }
+
+  private static final int BATCH = 32; // tasks per turn before letting other rooms run
+
+  /** Tasks submitted to any mailbox and not yet run; what {@link Admission} sheds on. */
+  static final LongAdder pending = new LongAdder();
+
+  private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean scheduled = new AtomicBoolean();
+
+  void execute(Runnable task) {
+    pending.increment();
+    queue.offer(task);
+    if (scheduled.compareAndSet(false, true)) schedule();
+  }
+
+  /** Runs {@code command} on this mailbox and completes with its result. */
+  <T> CompletableFuture<T> ask(Supplier<T> command) {
+    CompletableFuture<T> f = new CompletableFuture<>();
+    execute(() -> {
+      try { f.complete(command.get()); } catch (Throwable t) { f.completeExceptionally(t); }
+    });
+    return f;
+  }
+
+  @Override public void run() {
+    for (int i = 0; i < BATCH; i++) {
+      Runnable task = queue.poll();
+      if (task == null) break;
+      try { task.run(); } catch (Throwable t) { t.printStackTrace(); }
+      pending.decrement();
+    }
+    scheduled.set(false);
+    // A submitter that saw scheduled == true just before we cleared it relies on us to go again.
+    if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) schedule();
+  }
+
+  // A turn handed to a pool that configure() just shut down goes to its replacement instead.
+  private void schedule() {
+    for (;;) {
+      Executor w = workers;
+      try {
+        w.execute(this);
+        return;
+      } catch (RejectedExecutionException e) {
+        if (w == workers) throw e;
+      }
+    }
+  }
+}
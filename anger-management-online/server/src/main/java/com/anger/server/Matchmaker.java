@@ -0,0 +1,229 @@
+// file: src/main/java/com/anger/server/Matchmaker.java
+package com.anger.server;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The /matchmake lobby. Each waiting player holds an SSE stream; request threads only append a
+ * {@link Ticket} to a lock-free queue, and one matcher thread pairs tickets oldest first,
+ * creates the room and tells both players their room and role (the older ticket is P1):
+ *
+ * <pre>
+ * event: queued    data: {"ticket":17}
+ * event: matched   data: {"room":"m-3f-k2x9","role":"P2"}
+ * </pre>
+ *
+ * A player left over waits as the matcher's held ticket and gets a keep-alive comment every
+ * {@link #KEEPALIVE_NANOS}; a failed write cancels it. Before two players hear
+ * {@code matched}, each stream gets one more keep-alive: a peer that left has usually reset
+ * the connection on an earlier write, so this one fails, that player is dropped and the other
+ * goes back to the front of the lobby instead of being sent to an empty room. Tickets waiting
+ * longer than the configured timeout get {@code event: timeout}. Writes go through the SSE
+ * writer pool under its stall watchdog, so a stalled client never holds up the matcher.
+ */
+final class Matchmaker {
+  private static final int WAITING = 0, MATCHED = 1, CANCELLED = 2;
+  private static final long KEEPALIVE_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+  static final class Ticket {
+    final long id;
+    final HttpExchange exchange;
+    final OutputStream os;
+    final long enqueued = System.nanoTime();
+    final AtomicInteger state = new AtomicInteger(WAITING);
+    long lastWrite = enqueued; // matcher thread only
+
+    Ticket(long id, HttpExchange exchange, OutputStream os) {
+      this.id = id; this.exchange = exchange; this.os = os;
+    }
+
+    boolean waiting() { return state.get() == WAITING; }
+  }
+
+  private final ConcurrentLinkedQueue<Ticket> queue = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Ticket> retry = new ConcurrentLinkedQueue<>(); // partners of a dead peer, served first
+  private final AtomicLong ids = new AtomicLong();
+  private final AtomicInteger depth = new AtomicInteger(); // tickets still waiting
+  private final long timeoutNanos;
+  private final Thread matcher;
+  private volatile boolean idle;
+
+  // Counters for /stats and /metrics
+  final Metrics.Histogram timeToMatch = new Metrics.Histogram();
+  final LongAdder matched = new LongAdder();
+  final LongAdder cancelled = new LongAdder();
+  final LongAdder timedOut = new LongAdder();
+  final LongAdder roomsFull = new LongAdder();
+
+  Matchmaker(long timeoutMillis) {
+    this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    this.matcher = AngerServer.daemonFactory("matchmaker").newThread(this::run);
+    this.matcher.start();
+  }
+
+  int depth() { return depth.get(); }
+
+  /** Opens the ticket's stream and queues it; the matcher takes it from there. */
+  void enqueue(HttpExchange ex) throws IOException {
+    Headers h = ex.getResponseHeaders();
+    h.add("Content-Type", "text/event-stream");
+    h.add("Cache-Control", "no-cache");
+    h.add("Connection", "keep-alive");
+    ex.sendResponseHeaders(200, 0); // streaming
+    Ticket t = new Ticket(ids.incrementAndGet(), ex, ex.getResponseBody());
+    send(t, "queued", "{\"ticket\":" + t.id + "}", false);
+    depth.incrementAndGet();
+    queue.offer(t);
+    if (idle) LockSupport.unpark(matcher);
+  }
+
+  private void run() {
+    Ticket held = null;
+    for (;;) {
+      Ticket t = retry.poll();
+      if (t == null) t = queue.poll();
+      if (t == null) {
+        idle = true;
+        if (queue.isEmpty() && retry.isEmpty()) LockSupport.parkNanos(this, KEEPALIVE_NANOS);
+        idle = false;
+        if (held != null && !held.waiting()) held = null;
+        if (held != null) held = tend(held);
+        continue;
+      }
+      if (!t.waiting()) continue;
+      if (held == null || !held.waiting()) { held = t; continue; }
+      // Claim both; whichever lost a race with cancellation is dropped, the other is kept.
+      boolean a = held.state.compareAndSet(WAITING, MATCHED);
+      boolean b = t.state.compareAndSet(WAITING, MATCHED);
+      if (a && b) {
+        confirm(held, t);
+        held = null;
+      } else {
+        if (a) held.state.set(WAITING);
+        if (b) t.state.set(WAITING);
+        held = b ? t : a ? held : null;
+      }
+    }
+  }
+
+  // Keeps the odd player out alive; returns null once it is gone.
+  private Ticket tend(Ticket t) {
+    long now = System.nanoTime();
+    if (now - t.enqueued > timeoutNanos) {
+      if (!t.state.compareAndSet(WAITING, CANCELLED)) return null;
+      depth.decrementAndGet();
+      timedOut.increment();
+      send(t, "timeout", "{}", true);
+      return null;
+    }
+    if (now - t.lastWrite >= KEEPALIVE_NANOS) {
+      t.lastWrite = now;
+      SseClient.writers.execute(() -> {
+        try {
+          write(t, KEEPALIVE);
+        } catch (IOException e) {
+          cancel(t);
+        }
+      });
+    }
+    return t;
+  }
+
+  private static final byte[] KEEPALIVE = ": waiting\n\n".getBytes(StandardCharsets.UTF_8);
+
+  // Both claimed: probe both streams, then pair them, or drop the dead and requeue the live.
+  // The two probes run side by side, so a match waits for one write, not a timer.
+  private void confirm(Ticket p1, Ticket p2) {
+    CompletableFuture<Boolean> a = probe(p1), b = probe(p2);
+    a.thenAcceptBoth(b, (live1, live2) -> {
+      if (live1 && live2) { pair(p1, p2); return; }
+      for (Ticket t : new Ticket[] {p1, p2}) {
+        if (t == p1 ? live1 : live2) {
+          t.state.set(WAITING);
+          retry.offer(t);
+        } else {
+          t.state.set(CANCELLED);
+          depth.decrementAndGet();
+          cancelled.increment();
+          t.exchange.close();
+        }
+      }
+      LockSupport.unpark(matcher);
+    });
+  }
+
+  // Completes with false if the stream fails a keep-alive.
+  private CompletableFuture<Boolean> probe(Ticket t) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        write(t, KEEPALIVE);
+        return true;
+      } catch (IOException e) {
+        return false;
+      }
+    }, SseClient.writers);
+  }
+
+  private void pair(Ticket p1, Ticket p2) {
+    depth.addAndGet(-2);
+    long now = System.nanoTime();
+    timeToMatch.record(now - p1.enqueued);
+    timeToMatch.record(now - p2.enqueued);
+    String id;
+    do {
+      id = "m-" + Long.toString(p1.id, 36) + "-" + Long.toString(ThreadLocalRandom.current().nextLong() >>> 24, 36);
+    } while (AngerServer.cluster != null && !AngerServer.cluster.owns(id)); // rooms made here live here
+    if (AngerServer.room(id) == null) {
+      roomsFull.add(2);
+      send(p1, "error", "{\"error\":\"rooms-full\"}", true);
+      send(p2, "error", "{\"error\":\"rooms-full\"}", true);
+      return;
+    }
+    matched.add(2);
+    send(p1, "matched", "{\"room\":\"" + id + "\",\"role\":\"P1\"}", true);
+    send(p2, "matched", "{\"room\":\"" + id + "\",\"role\":\"P2\"}", true);
+  }
+
+  private void cancel(Ticket t) {
+    if (t.state.compareAndSet(WAITING, CANCELLED)) {
+      depth.decrementAndGet();
+      cancelled.increment();
+    }
+    t.exchange.close();
+  }
+
+  /** Writes one event on the writer pool, closing the stream after it if {@code last}. */
+  private void send(Ticket t, String event, String json, boolean last) {
+    byte[] frame = ("event: " + event + "\ndata: " + json + "\n\n").getBytes(StandardCharsets.UTF_8);
+    SseClient.writers.execute(() -> {
+      try {
+        write(t, frame);
+        if (last) t.exchange.close();
+      } catch (IOException e) {
+        cancel(t);
+      }
+    });
+  }
+
+  // On a writer thread; the watchdog aborts it if the peer stalls past the SSE write timeout.
+  private static void write(Ticket t, byte[] bytes) throws IOException {
+    try (SseClient.WriteGuard w = SseClient.beginWrite(null)) {
+      synchronized (t) {
+        t.os.write(bytes);
+        t.os.flush();
+      }
+    }
+  }
+}
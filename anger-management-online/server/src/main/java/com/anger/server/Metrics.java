@@ -0,0 +1,281 @@
+// file: src/main/java/com/anger/server/Metrics.java
+package com.anger.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms, rendered by /metrics in the Prometheus text
+ * exposition format. Recording is a couple of {@link LongAdder} increments with no locks or
+ * allocation, so it stays on under full load; only rendering walks the buckets.
+ */
+final class Metrics {
+  private Metrics() {}
+
+  /**
+   * Log-linear latency histogram in nanoseconds: 8 sub-buckets per power of two, so any
+   * reported value is within 12.5% of the true one. Quantiles cover the last one to two
+   * {@link #WINDOW_SECONDS} windows; bucket counts and sums are cumulative since start.
+   */
+  static final class Histogram {
+    private static final int SUB_BITS = 3, SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = 40 * SUB; // up to 2^40 ns, about 18 minutes
+
+    private volatile LongAdder[] current = adders();
+    private LongAdder[] previous = adders(); // guarded by this
+    private final long[] retired = new long[BUCKETS]; // guarded by this
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    void record(long nanos) {
+      current[index(Math.max(0, nanos))].increment();
+      count.increment();
+      sumNanos.add(nanos);
+    }
+
+    long count() { return count.sum(); }
+
+    synchronized void rotate() {
+      for (int i = 0; i < BUCKETS; i++) retired[i] += previous[i].sum();
+      previous = current;
+      current = adders();
+    }
+
+    /** Upper bound of the bucket holding quantile {@code q} of the recent window; 0 when empty. */
+    synchronized long quantile(double q) {
+      LongAdder[] cur = current;
+      long[] window = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) total += window[i] = cur[i].sum() + previous[i].sum();
+      if (total == 0) return 0;
+      long rank = (long) Math.ceil(q * total);
+      for (int i = 0; i < BUCKETS; i++) {
+        rank -= window[i];
+        if (rank <= 0) return lowerBound(i + 1);
+      }
+      return lowerBound(BUCKETS);
+    }
+
+    /** Cumulative count of values below {@code 2^power} ns since start. */
+    synchronized long countBelowPow2(int power) {
+      LongAdder[] cur = current;
+      long n = 0;
+      for (int i = 0, end = index(1L << power); i < end; i++) n += retired[i] + previous[i].sum() + cur[i].sum();
+      return n;
+    }
+
+    static int index(long v) {
+      if (v < SUB) return (int) v;
+      int exp = 63 - Long.numberOfLeadingZeros(v);
+      int i = (exp - SUB_BITS + 1) * SUB + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+      return Math.min(i, BUCKETS - 1);
+    }
+
+    static long lowerBound(int i) {
+      if (i < SUB) return i;
+      int exp = i / SUB + SUB_BITS - 1;
+      return (long) (SUB + i % SUB) << (exp - SUB_BITS);
+    }
+
+    private static LongAdder[] adders() {
+      LongAdder[] a = new LongAdder[BUCKETS];
+      for (int i = 0; i < a.length; i++) a[i] = new LongAdder();
+      return a;
+    }
+  }
+
+  /** Latency and response codes for one HTTP context. */
+  static final class Endpoint {
+    final String path;
+    final Histogram latency = new Histogram();
+    final LongAdder[] byClass = { new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder() };
+
+    Endpoint(String path) { this.path = path; }
+
+    void record(int code, long nanos) {
+      latency.record(nanos);
+      byClass[Math.max(1, Math.min(5, code / 100)) - 1].increment();
+    }
+
+    /**
+     * Times each exchange from dispatch to its first response byte (the initial state for
+     * /events), whichever thread ends up writing it.
+     */
+    Filter filter() {
+      return new Filter() {
+        @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+          ex.setStreams(null, new Timed(ex.getResponseBody(), ex, Endpoint.this, System.nanoTime()));
+          chain.doFilter(ex);
+        }
+
+        @Override public String description() { return "latency " + path; }
+      };
+    }
+  }
+
+  private static final class Timed extends FilterOutputStream {
+    private final HttpExchange ex;
+    private final Endpoint endpoint;
+    private final long start;
+    private boolean recorded;
+
+    Timed(OutputStream out, HttpExchange ex, Endpoint endpoint, long start) {
+      super(out);
+      this.ex = ex; this.endpoint = endpoint; this.start = start;
+    }
+
+    private void mark() {
+      if (recorded) return;
+      recorded = true;
+      endpoint.record(ex.getResponseCode(), System.nanoTime() - start);
+    }
+
+    @Override public void write(int b) throws IOException { mark(); out.write(b); }
+    @Override public void write(byte[] b, int off, int len) throws IOException { mark(); out.write(b, off, len); }
+    @Override public void close() throws IOException { mark(); out.close(); }
+  }
+
+  static final int WINDOW_SECONDS = 60;
+
+  static final Endpoint JOIN = new Endpoint("/join");
+  static final Endpoint MOVE = new Endpoint("/move");
+  static final Endpoint ACTION = new Endpoint("/action");
+  static final Endpoint EVENTS = new Endpoint("/events");
+  static final Endpoint BATCH = new Endpoint("/batch");
+  private static final Endpoint[] ENDPOINTS = { JOIN, MOVE, ACTION, EVENTS, BATCH };
+
+  // Broadcasts
+  static final Histogram fanout = new Histogram();   // time to queue one event for every subscriber
+  static final LongAdder framesQueued = new LongAdder();
+  static final LongAdder framesDropped = new LongAdder();
+  static final LongAdder subscribers = new LongAdder();
+  static final LongAdder evictedWriteError = new LongAdder();
+  static final LongAdder evictedSlow = new LongAdder();
+
+  private static ScheduledExecutorService rotator;
+
+  static synchronized void start() {
+    if (rotator != null) return;
+    rotator = Executors.newSingleThreadScheduledExecutor(AngerServer.daemonFactory("metrics-rotate"));
+    rotator.scheduleAtFixedRate(() -> {
+      for (Endpoint e : ENDPOINTS) e.latency.rotate();
+      fanout.rotate();
+      Replication rep = AngerServer.replication;
+      if (rep != null) rep.ackLatency.rotate();
+      Matchmaker m = AngerServer.matchmaker;
+      if (m != null) m.timeToMatch.rotate();
+    }, WINDOW_SECONDS, WINDOW_SECONDS, TimeUnit.SECONDS);
+  }
+
+  // ==== Exposition ====
+  private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+  private static final int MIN_POW2 = 12, MAX_POW2 = 35; // le buckets from ~4us to ~34s
+
+  static String render(RoomRegistry registry) {
+    StringBuilder sb = new StringBuilder(8192);
+    header(sb, "anger_http_request_duration_seconds", "histogram",
+        "Time from dispatch to the first response byte (the initial state for /events).");
+    for (Endpoint e : ENDPOINTS) histogram(sb, "anger_http_request_duration_seconds", "endpoint=\"" + e.path + "\"", e.latency);
+    header(sb, "anger_http_request_duration_quantile_seconds", "gauge",
+        "Latency quantiles over the last " + WINDOW_SECONDS + "-" + 2 * WINDOW_SECONDS + "s.");
+    for (Endpoint e : ENDPOINTS) quantiles(sb, "anger_http_request_duration_quantile_seconds", "endpoint=\"" + e.path + "\"", e.latency);
+    header(sb, "anger_http_responses_total", "counter", "Responses by endpoint and status class.");
+    for (Endpoint e : ENDPOINTS) {
+      for (int c = 0; c < 5; c++) {
+        long n = e.byClass[c].sum();
+        if (n > 0) sample(sb, "anger_http_responses_total", "endpoint=\"" + e.path + "\",code=\"" + (c + 1) + "xx\"", n);
+      }
+    }
+
+    header(sb, "anger_rooms", "gauge", "Rooms by residency.");
+    sample(sb, "anger_rooms", "state=\"resident\"", registry.resident());
+    Hibernation h = registry.hibernation();
+    if (h != null) sample(sb, "anger_rooms", "state=\"hibernated\"", h.size());
+    header(sb, "anger_subscribers", "gauge", "Open SSE and WebSocket subscriptions.");
+    sample(sb, "anger_subscribers", null, subscribers.sum());
+
+    header(sb, "anger_broadcast_fanout_seconds", "histogram", "Time to queue one event for all of a room's subscribers.");
+    histogram(sb, "anger_broadcast_fanout_seconds", null, fanout);
+    header(sb, "anger_broadcast_fanout_quantile_seconds", "gauge", "Fan-out quantiles over the recent window.");
+    quantiles(sb, "anger_broadcast_fanout_quantile_seconds", null, fanout);
+    header(sb, "anger_broadcast_frames_total", "counter", "Frames queued to subscribers.");
+    sample(sb, "anger_broadcast_frames_total", null, framesQueued.sum());
+    header(sb, "anger_broadcast_frames_dropped_total", "counter", "Queued frames discarded by the overflow policy.");
+    sample(sb, "anger_broadcast_frames_dropped_total", null, framesDropped.sum());
+    header(sb, "anger_subscriber_evictions_total", "counter", "Subscribers dropped by the server.");
+    sample(sb, "anger_subscriber_evictions_total", "reason=\"write_error\"", evictedWriteError.sum());
+    sample(sb, "anger_subscriber_evictions_total", "reason=\"slow\"", evictedSlow.sum());
+
+    header(sb, "anger_mailbox_pending", "gauge", "Room commands queued on mailboxes and not yet run.");
+    sample(sb, "anger_mailbox_pending", null, Mailbox.pending.sum());
+    header(sb, "anger_admission_rejected_total", "counter", "Requests turned away by admission control, by reason.");
+    for (Admission.Reason r : Admission.Reason.values()) {
+      sample(sb, "anger_admission_rejected_total", "reason=\"" + r.label + "\"", AngerServer.admission.rejected(r));
+    }
+
+    Replication rep = AngerServer.replication;
+    if (rep != null) {
+      header(sb, "anger_replication_following", "gauge", "1 while this node is a follower.");
+      sample(sb, "anger_replication_following", null, rep.following() ? 1 : 0);
+      header(sb, "anger_replication_followers", "gauge", "Followers attached to this leader.");
+      sample(sb, "anger_replication_followers", null, rep.followers());
+      header(sb, "anger_replication_lag_commands", "gauge", "Commands the furthest-behind follower has not acknowledged.");
+      sample(sb, "anger_replication_lag_commands", null, rep.maxLagCommands());
+      header(sb, "anger_replication_ack_seconds", "histogram", "Time from a command being logged to a follower acknowledging it.");
+      histogram(sb, "anger_replication_ack_seconds", null, rep.ackLatency);
+    }
+
+    Matchmaker m = AngerServer.matchmaker;
+    if (m != null) {
+      header(sb, "anger_matchmaking_queue_depth", "gauge", "Players waiting on /matchmake.");
+      sample(sb, "anger_matchmaking_queue_depth", null, m.depth());
+      header(sb, "anger_matchmaking_wait_seconds", "histogram", "Time from joining the queue to being paired.");
+      histogram(sb, "anger_matchmaking_wait_seconds", null, m.timeToMatch);
+      header(sb, "anger_matchmaking_wait_quantile_seconds", "gauge", "Time-to-match quantiles over the recent window.");
+      quantiles(sb, "anger_matchmaking_wait_quantile_seconds", null, m.timeToMatch);
+      header(sb, "anger_matchmaking_tickets_total", "counter", "Tickets leaving the queue, by outcome.");
+      sample(sb, "anger_matchmaking_tickets_total", "outcome=\"matched\"", m.matched.sum());
+      sample(sb, "anger_matchmaking_tickets_total", "outcome=\"cancelled\"", m.cancelled.sum());
+      sample(sb, "anger_matchmaking_tickets_total", "outcome=\"timeout\"", m.timedOut.sum());
+      sample(sb, "anger_matchmaking_tickets_total", "outcome=\"rooms_full\"", m.roomsFull.sum());
+    }
+    return sb.toString();
+  }
+
+  private static void header(StringBuilder sb, String name, String type, String help) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  private static void sample(StringBuilder sb, String name, String labels, double value) {
+    sb.append(name);
+    if (labels != null) sb.append('{').append(labels).append('}');
+    sb.append(' ');
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) sb.append((long) value);
+    else sb.append(value);
+    sb.append('\n');
+  }
+
+  private static void histogram(StringBuilder sb, String name, String labels, Histogram h) {
+    String prefix = labels == null ? "" : labels + ",";
+    for (int p = MIN_POW2; p <= MAX_POW2; p++) {
+      sample(sb, name + "_bucket", prefix + "le=\"" + (double) (1L << p) / 1e9 + "\"", h.countBelowPow2(p));
+    }
+    long count = h.count();
+    sample(sb, name + "_bucket", prefix + "le=\"+Inf\"", count);
+    sample(sb, name + "_sum", labels, h.sumNanos.sum() / 1e9);
+    sample(sb, name + "_count", labels, count);
+  }
+
+  private static void quantiles(StringBuilder sb, String name, String labels, Histogram h) {
+    String prefix = labels == null ? "" : labels + ",";
+    for (double q : QUANTILES) sample(sb, name, prefix + "quantile=\"" + q + "\"", h.quantile(q) / 1e9);
+  }
+}
@@ -0,0 +1,468 @@
+// file: src/main/java/com/anger/server/Replication.java
+package com.anger.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hot-standby replication. A leader ({@code REPLICATION_PORT}) streams every accepted command,
+ * in the {@link Journal} record format, to followers that connect over TCP; a follower
+ * ({@code REPLICATE_FROM=host:port}) applies them to its own rooms through their mailboxes,
+ * so it holds a live copy of every game and can serve /events as a read replica. Writes to a
+ * follower get 503 until {@code POST /replication/promote} makes it a leader in place.
+ *
+ * <p>Wire format, all big-endian. The follower opens with {@code epoch:long next:long}: the
+ * leader it last followed and the next sequence number it expects. If the epoch matches and
+ * {@code next} is still in the leader's ring the stream resumes there; otherwise the leader
+ * sends {@code 'S' at:long len:int record} for every room, each taken on the room's mailbox
+ * together with the sequence {@code at} of the first command it does not include, and the
+ * follower drops older commands for that room. Either way the leader announces
+ * {@code 'E' epoch:long first:long} and then sends batches, {@code 'B' first:long count:int}
+ * followed by {@code len:int record} each; an empty batch is a heartbeat. The follower acks
+ * the last sequence of every batch with {@code seq:long}.
+ *
+ * <p>Commands go into a ring of {@code REPLICATION_BUFFER} records. A follower that falls
+ * further behind than that is disconnected and starts over from snapshots, so lag is bounded
+ * by the ring and never by leader memory; the leader reports each follower's lag in commands
+ * and milliseconds, and the time from append to ack.
+ */
+final class Replication {
+  private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final int READ_TIMEOUT_MS = 5_000;
+  private static final int MAX_BATCH = 512;
+
+  // ==== Leader side ====
+  private final long epoch = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+  private final byte[][] ring;
+  private final long[] appendedAt; // nanoTime per ring slot
+  private final int mask;
+  private volatile long head; // next sequence number; slots below it are published
+  private final List<Sender> senders = new CopyOnWriteArrayList<>();
+  private volatile ServerSocket listener;
+
+  // ==== Follower side ====
+  private volatile boolean following;
+  private volatile Socket upstream;
+  private volatile long followedEpoch = -1, next;
+  private volatile String leaderAddress;
+  private volatile long lastFrameMillis;
+  private volatile long promotedAtMillis;
+
+  // Counters for /stats and /metrics
+  final Metrics.Histogram ackLatency = new Metrics.Histogram(); // append on the leader to follower ack
+  final LongAdder bootstraps = new LongAdder();
+  final LongAdder resumes = new LongAdder();
+  final LongAdder laggedOut = new LongAdder();
+  final LongAdder applied = new LongAdder();
+
+  private Replication(int bufferRecords) {
+    int size = Integer.highestOneBit(Math.max(1024, bufferRecords - 1) << 1);
+    ring = new byte[size][];
+    appendedAt = new long[size];
+    mask = size - 1;
+  }
+
+  /**
+   * Starts leader and/or follower roles from the config; null when neither is set. A follower
+   * with a port of its own also relays to followers of its own and takes over that role when
+   * promoted.
+   */
+  static Replication start(AngerServer.Config cfg) throws IOException {
+    if (cfg.replicationPort < 0 && cfg.replicateFrom == null) return null;
+    Replication r = new Replication(cfg.replicationBuffer);
+    if (cfg.replicationPort >= 0) r.listen(cfg.replicationPort);
+    if (cfg.replicateFrom != null) r.follow(cfg.replicateFrom);
+    return r;
+  }
+
+  boolean following() { return following; }
+
+  /** Queues one record for every follower. Called on the room's mailbox, after validation. */
+  void append(byte[] record) {
+    if (listener == null) return;
+    synchronized (this) {
+      long seq = head;
+      int slot = (int) seq & mask;
+      ring[slot] = record;
+      appendedAt[slot] = System.nanoTime();
+      head = seq + 1;
+    }
+    for (Sender s : senders) if (s.idle) LockSupport.unpark(s.thread);
+  }
+
+  private void listen(int port) throws IOException {
+    ServerSocket ss = new ServerSocket();
+    ss.setReuseAddress(true);
+    ss.bind(new InetSocketAddress(port));
+    listener = ss;
+    Thread t = AngerServer.daemonFactory("replication-accept").newThread(() -> {
+      while (!ss.isClosed()) {
+        try {
+          Socket s = ss.accept();
+          s.setTcpNoDelay(true);
+          Sender sender = new Sender(s);
+          sender.thread = AngerServer.daemonFactory("replication-send").newThread(sender);
+          sender.thread.start();
+        } catch (IOException e) {
+          if (!ss.isClosed()) System.err.println("replication: accept failed: " + e);
+        }
+      }
+    });
+    t.start();
+  }
+
+  int port() { return listener == null ? -1 : listener.getLocalPort(); }
+
+  /** Streams the ring to one follower; a reader thread takes its acks. */
+  private final class Sender implements Runnable {
+    final Socket socket;
+    final String address;
+    Thread thread;
+    volatile boolean idle;
+    volatile long acked = -1; // last sequence the follower confirmed
+
+    Sender(Socket socket) {
+      this.socket = socket;
+      this.address = socket.getRemoteSocketAddress().toString();
+    }
+
+    long lagRecords() { return Math.max(0, head - 1 - acked); }
+
+    long lagMillis() {
+      long oldest = acked + 1, h = head;
+      if (oldest >= h || h - oldest >= ring.length) return oldest >= h ? 0 : -1;
+      return (System.nanoTime() - appendedAt[(int) oldest & mask]) / 1_000_000;
+    }
+
+    @Override public void run() {
+      try (Socket s = socket) {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+        long theirEpoch = in.readLong(), theirNext = in.readLong();
+        long seq;
+        synchronized (Replication.this) { seq = head; }
+        if (theirEpoch == epoch && theirNext <= seq && seq - theirNext < ring.length) {
+          seq = theirNext;
+          resumes.increment();
+        } else {
+          bootstrap(out, seq);
+          bootstraps.increment();
+        }
+        out.writeByte('E');
+        out.writeLong(epoch);
+        out.writeLong(seq);
+        out.flush();
+        acked = seq - 1;
+        senders.add(this);
+        Thread acks = AngerServer.daemonFactory("replication-acks").newThread(() -> readAcks(in));
+        acks.start();
+        stream(out, seq);
+      } catch (IOException e) {
+        System.err.println("replication: follower " + address + " dropped: " + e.getMessage());
+      } finally {
+        senders.remove(this);
+      }
+    }
+
+    // Every room as of a point in its own command order; 'at' tells the follower where it starts.
+    private void bootstrap(DataOutputStream out, long from) throws IOException {
+      // Resident rooms first: one parked meanwhile is then seen parked, and one woken after
+      // being passed over as resident replicates the snapshot RoomRegistry takes on waking.
+      List<Object[]> snaps = new ArrayList<>();
+      for (AngerServer.Room r : AngerServer.registry.rooms()) {
+        try {
+          snaps.add(r.mailbox.ask(() -> new Object[] { head, Journal.snapshot(r) }).get(10, TimeUnit.SECONDS));
+        } catch (Exception e) {
+          throw new IOException("snapshot of " + r.id + " failed", e);
+        }
+      }
+      AngerServer.registry.forEachHibernated((id, state) -> snaps.add(new Object[] { head, Journal.snapshot(id, state) }));
+      for (Object[] snap : snaps) {
+        byte[] record = (byte[]) snap[1];
+        out.writeByte('S');
+        out.writeLong(Math.max(from, (Long) snap[0]));
+        out.writeInt(record.length);
+        out.write(record);
+      }
+    }
+
+    private void stream(DataOutputStream out, long seq) throws IOException {
+      long lastWrite = System.nanoTime();
+      List<byte[]> batch = new ArrayList<>(MAX_BATCH);
+      while (!socket.isClosed()) {
+        long h = head;
+        if (h - seq >= ring.length) {
+          laggedOut.increment();
+          throw new IOException("more than " + ring.length + " commands behind");
+        }
+        batch.clear();
+        for (long i = seq; i < h && batch.size() < MAX_BATCH; i++) batch.add(ring[(int) i & mask]);
+        // A slot read above may have been reused while we read it; the ring has not wrapped
+        // past seq if head is still within one ring length of it.
+        if (head - seq >= ring.length) continue;
+        if (batch.isEmpty() && System.nanoTime() - lastWrite < HEARTBEAT_NANOS) {
+          idle = true;
+          if (head == seq) LockSupport.parkNanos(this, HEARTBEAT_NANOS);
+          idle = false;
+          continue;
+        }
+        out.writeByte('B');
+        out.writeLong(seq);
+        out.writeInt(batch.size());
+        for (byte[] record : batch) {
+          out.writeInt(record.length);
+          out.write(record);
+        }
+        out.flush();
+        seq += batch.size();
+        lastWrite = System.nanoTime();
+      }
+    }
+
+    private void readAcks(DataInputStream in) {
+      try {
+        for (;;) {
+          long seq = in.readLong();
+          long at = appendedAt[(int) seq & mask];
+          acked = seq;
+          if (head - seq < ring.length && at != 0) ackLatency.record(System.nanoTime() - at);
+        }
+      } catch (IOException e) {
+        try { socket.close(); } catch (IOException ignored) { }
+        LockSupport.unpark(thread);
+      }
+    }
+  }
+
+  // ==== Follower ====
+
+  private void follow(String hostPort) {
+    int colon = hostPort.lastIndexOf(':');
+    String host = hostPort.substring(0, colon);
+    int port = Integer.parseInt(hostPort.substring(colon + 1));
+    leaderAddress = hostPort;
+    following = true;
+    Thread t = AngerServer.daemonFactory("replication-follow").newThread(() -> {
+      long backoff = 100;
+      while (following) {
+        try (Socket s = new Socket()) {
+          s.connect(new InetSocketAddress(host, port), 2_000);
+          s.setTcpNoDelay(true);
+          s.setSoTimeout(READ_TIMEOUT_MS);
+          backoff = 100;
+          upstream = s;
+          if (following) receive(s);
+        } catch (IOException e) {
+          if (following) System.err.println("replication: leader " + hostPort + " unavailable: " + e.getMessage());
+        }
+        if (following) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoff));
+        backoff = Math.min(backoff * 2, 2_000);
+      }
+    });
+    t.start();
+  }
+
+  private void receive(Socket s) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+    out.writeLong(followedEpoch);
+    out.writeLong(next);
+    out.flush();
+    // Per-room starting points from a bootstrap; commands below them are already in the snapshot.
+    Map<String, Long> skipBelow = new HashMap<>();
+    long skipUntil = -1;
+    boolean bootstrapped = false;
+    while (following) {
+      int frame;
+      try {
+        frame = in.readByte();
+      } catch (SocketTimeoutException e) {
+        throw new IOException("no heartbeat from leader for " + READ_TIMEOUT_MS + " ms");
+      }
+      lastFrameMillis = System.currentTimeMillis();
+      switch (frame) {
+        case 'S': {
+          if (!bootstrapped) {
+            bootstrapped = true;
+            discardRooms();
+          }
+          long at = in.readLong();
+          ByteBuffer record = ByteBuffer.wrap(readRecord(in));
+          String id = peekRoom(record);
+          skipBelow.put(id, at);
+          skipUntil = Math.max(skipUntil, at);
+          apply(record);
+          break;
+        }
+        case 'E': {
+          long e = in.readLong(), first = in.readLong();
+          if (e != followedEpoch && !bootstrapped) discardRooms(); // a new leader with no rooms at all
+          followedEpoch = e;
+          next = first;
+          break;
+        }
+        case 'B': {
+          long first = in.readLong();
+          int count = in.readInt();
+          if (first != next) throw new IOException("expected command " + next + ", leader sent " + first);
+          for (int i = 0; i < count; i++) {
+            long seq = first + i;
+            ByteBuffer record = ByteBuffer.wrap(readRecord(in));
+            if (seq < skipUntil) {
+              Long from = skipBelow.get(peekRoom(record));
+              if (from != null && seq < from) continue;
+            }
+            apply(record);
+          }
+          next = first + count;
+          if (!skipBelow.isEmpty() && next >= skipUntil) skipBelow.clear();
+          if (count > 0) {
+            out.writeLong(next - 1);
+            out.flush();
+          }
+          break;
+        }
+        default:
+          throw new IOException("unknown frame " + frame);
+      }
+    }
+  }
+
+  private static byte[] readRecord(DataInputStream in) throws IOException {
+    int len = in.readInt();
+    if (len <= 0 || len > Journal.MAX_RECORD) throw new IOException("bad record length " + len);
+    byte[] b = new byte[len];
+    in.readFully(b);
+    return b;
+  }
+
+  private static String peekRoom(ByteBuffer record) {
+    ByteBuffer b = record.duplicate();
+    b.get();
+    return RoomCodec.getString(b);
+  }
+
+  // Applied on the room's mailbox, as the leader did, so followers' subscribers see it too.
+  private void apply(ByteBuffer b) {
+    byte type = b.get();
+    String id = RoomCodec.getString(b);
+    applied.increment();
+    if (type == Journal.EVICT) { AngerServer.registry.remove(id); return; }
+    AngerServer.Room r = AngerServer.registry.get(id);
+    if (r == null) return; // over capacity
+    r.mailbox.execute(() -> {
+      Journal.apply(type, b, r);
+      if (type == Journal.SNAPSHOT) {
+        AngerServer.log(Journal.snapshot(r));
+        if (!r.clients.isEmpty()) StatePublisher.publish(r, AngerServer.INIT);
+      }
+    });
+  }
+
+  // Before a full resync: whatever this follower held may no longer exist on the leader.
+  private static void discardRooms() {
+    for (AngerServer.Room r : new ArrayList<>(AngerServer.registry.rooms())) {
+      AngerServer.registry.detach(r);
+      for (SseClient c : r.clients) c.close();
+    }
+  }
+
+  /** Stops following; from here on this node accepts writes. */
+  boolean promote() {
+    if (!following) return false;
+    following = false;
+    promotedAtMillis = System.currentTimeMillis();
+    Socket s = upstream;
+    try {
+      if (s != null) s.close();
+    } catch (IOException ignored) {
+      // already gone
+    }
+    return true;
+  }
+
+  // ==== HTTP ====
+
+  /** Turns writes away while this node follows; reads are served from the replica. */
+  static Filter writeGuard() {
+    return new Filter() {
+      @Override public void doFilter(HttpExchange ex, Chain chain) throws IOException {
+        Replication rep = AngerServer.replication;
+        if (rep == null || !rep.following) { chain.doFilter(ex); return; }
+        ex.getResponseHeaders().add("Retry-After", "1");
+        AngerServer.respond(ex, 503, rep.followerError());
+      }
+
+      @Override public String description() { return "follower write guard"; }
+    };
+  }
+
+  String followerError() {
+    return "{\"error\":\"follower\",\"leader\":\"" + leaderAddress + "\"}";
+  }
+
+  /** {@code POST /replication/promote} promotes a follower; {@code GET /replication} shows state. */
+  final class Handler implements HttpHandler {
+    @Override public void handle(HttpExchange ex) throws IOException {
+      String path = ex.getRequestURI().getPath();
+      if (path.endsWith("/promote")) {
+        if (!"POST".equalsIgnoreCase(ex.getRequestMethod())) { AngerServer.respond(ex, 405, "{\"error\":\"method\"}"); return; }
+        boolean changed = promote();
+        AngerServer.respond(ex, changed ? 200 : 409, changed ? "{\"ok\":true,\"appliedThrough\":" + (next - 1) + "}"
+            : "{\"error\":\"not-following\"}");
+        return;
+      }
+      if (!"GET".equalsIgnoreCase(ex.getRequestMethod())) { AngerServer.respond(ex, 405, "{\"error\":\"method\"}"); return; }
+      AngerServer.respond(ex, 200, stats());
+    }
+  }
+
+  /** JSON object for /stats and {@code GET /replication}. */
+  String stats() {
+    StringBuilder sb = new StringBuilder("{\"role\":\"").append(following ? "follower" : "leader").append('"');
+    if (listener != null) {
+      sb.append(",\"port\":").append(port()).append(",\"head\":").append(head)
+          .append(",\"bootstraps\":").append(bootstraps.sum()).append(",\"resumes\":").append(resumes.sum())
+          .append(",\"laggedOut\":").append(laggedOut.sum())
+          .append(",\"ackP50Ms\":").append(ackLatency.quantile(0.5) / 1e6)
+          .append(",\"ackP99Ms\":").append(ackLatency.quantile(0.99) / 1e6)
+          .append(",\"followers\":[");
+      String sep = "";
+      for (Sender s : senders) {
+        sb.append(sep).append("{\"address\":\"").append(s.address).append("\",\"acked\":").append(s.acked)
+            .append(",\"lagCommands\":").append(s.lagRecords()).append(",\"lagMs\":").append(s.lagMillis()).append('}');
+        sep = ",";
+      }
+      sb.append(']');
+    }
+    if (leaderAddress != null) {
+      sb.append(",\"leader\":\"").append(leaderAddress).append("\",\"next\":").append(next)
+          .append(",\"applied\":").append(applied.sum())
+          .append(",\"sinceLastFrameMs\":").append(following && lastFrameMillis > 0 ? System.currentTimeMillis() - lastFrameMillis : -1);
+      if (promotedAtMillis > 0) sb.append(",\"promotedAt\":").append(promotedAtMillis);
+    }
+    return sb.append('}').toString();
+  }
+
+  /** Largest lag in commands over the attached followers, for /metrics. */
+  long maxLagCommands() {
+    long max = 0;
+    for (Sender s : senders) max = Math.max(max, s.lagRecords());
+    return max;
+  }
+
+  int followers() { return senders.size(); }
+}
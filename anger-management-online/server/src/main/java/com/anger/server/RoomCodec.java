@@ -0,0 +1,122 @@
+// file: src/main/java/com/anger/server/RoomCodec.java
+package com.anger.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary form of a room's game state, used for journal snapshots. Integers are
+ * zig-zag varints (scores and meters fit in one byte), strings are a varint length plus
+ * UTF-8. Subscribers, the replay ring and registry bookkeeping are not part of it.
+ *
+ * <pre>
+ * version:1 seq round p1(name score anger satisfaction confidence) p2(...) p1Move p2Move pendingActionFor
+ * </pre>
+ */
+final class RoomCodec {
+  private RoomCodec() {}
+
+  static final byte VERSION = 1;
+
+  static byte[] encode(AngerServer.Room r) {
+    ByteBuffer b = ByteBuffer.allocate(maxSize(r));
+    encode(r, b);
+    return java.util.Arrays.copyOf(b.array(), b.position());
+  }
+
+  static void encode(AngerServer.Room r, ByteBuffer out) {
+    out.put(VERSION);
+    putVarLong(out, r.seq);
+    putVarLong(out, r.round);
+    putPlayer(out, r.p1);
+    putPlayer(out, r.p2);
+    putString(out, r.p1Move);
+    putString(out, r.p2Move);
+    putString(out, r.pendingActionFor == null ? "" : r.pendingActionFor);
+  }
+
+  /** Upper bound on the encoded size, for sizing buffers. */
+  static int maxSize(AngerServer.Room r) {
+    return 1 + 10 + 10 + 2 * (4 * 10)
+        + utf8Bound(r.p1.name) + utf8Bound(r.p2.name) + utf8Bound(r.p1Move) + utf8Bound(r.p2Move)
+        + utf8Bound(r.pendingActionFor);
+  }
+
+  /** Overwrites {@code r}'s game state with the encoded one. */
+  static void decode(ByteBuffer in, AngerServer.Room r) {
+    byte version = in.get();
+    if (version != VERSION) throw new IllegalArgumentException("unknown room encoding " + version);
+    r.seq = getVarLong(in);
+    r.round = (int) getVarLong(in);
+    getPlayer(in, r.p1);
+    getPlayer(in, r.p2);
+    r.p1Move = getString(in);
+    r.p2Move = getString(in);
+    String pending = getString(in);
+    r.pendingActionFor = pending.isEmpty() ? null : pending;
+  }
+
+  /**
+   * Decodes {@code in} into {@code r} and restarts its event numbering from the restored seq,
+   * so the next publish is a full snapshot. Runs on the room's mailbox.
+   */
+  static void restore(ByteBuffer in, AngerServer.Room r) {
+    decode(in, r);
+    r.lastPublished = null;
+    r.sinceSnapshot = 0;
+    r.replay = null;
+  }
+
+  private static void putPlayer(ByteBuffer out, AngerServer.PlayerState p) {
+    putString(out, p.name);
+    putVarLong(out, p.score);
+    putVarLong(out, p.anger);
+    putVarLong(out, p.satisfaction);
+    putVarLong(out, p.confidence);
+  }
+
+  private static void getPlayer(ByteBuffer in, AngerServer.PlayerState p) {
+    p.name = getString(in);
+    p.score = (int) getVarLong(in);
+    p.anger = (int) getVarLong(in);
+    p.satisfaction = (int) getVarLong(in);
+    p.confidence = (int) getVarLong(in);
+  }
+
+  static void putString(ByteBuffer out, String s) {
+    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+    putVarLong(out, b.length);
+    out.put(b);
+  }
+
+  static String getString(ByteBuffer in) {
+    int n = (int) getVarLong(in);
+    if (n < 0 || n > in.remaining()) throw new IllegalArgumentException("bad string length " + n);
+    byte[] b = new byte[n];
+    in.get(b);
+    return new String(b, StandardCharsets.UTF_8);
+  }
+
+  static int utf8Bound(String s) {
+    return s == null ? 5 : 5 + s.length() * 3;
+  }
+
+  static void putVarLong(ByteBuffer out, long v) {
+    long z = (v << 1) ^ (v >> 63);
+    while ((z & ~0x7FL) != 0) {
+      out.put((byte) ((z & 0x7F) | 0x80));
+      z >>>= 7;
+    }
+    out.put((byte) z);
+  }
+
+  static long getVarLong(ByteBuffer in) {
+    long z = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.get();
+      z |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) return (z >>> 1) ^ -(z & 1);
+    }
+    throw new IllegalArgumentException("varint too long");
+  }
+}
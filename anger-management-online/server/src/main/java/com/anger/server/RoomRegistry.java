@@ -0,0 +1,172 @@
+// file: src/main/java/com/anger/server/RoomRegistry.java
+package com.anger.server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds every live room. Creation is refused once {@link #capacity} rooms exist, and a
+ * background reaper removes rooms that have been idle for longer than the TTL and have no
+ * SSE subscribers, so random or abandoned room ids cannot grow the heap without bound.
+ *
+ * <p>With a {@link Hibernation} store, rooms idle for a shorter time (and without
+ * subscribers) are parked there instead, off the heap, and woken by the next {@link #get}.
+ * Parked rooms still expire at the TTL, and keep counting toward the capacity until then, so
+ * the file cannot be filled by creating rooms and letting them go idle.
+ */
+final class RoomRegistry {
+  private final ConcurrentHashMap<String, AngerServer.Room> rooms = new ConcurrentHashMap<>();
+  private final AtomicInteger size = new AtomicInteger();
+  private volatile int capacity;
+  private volatile long ttlMillis;
+  private volatile Hibernation hibernation;
+  private volatile long hibernateAfterMillis = Long.MAX_VALUE;
+  private ScheduledExecutorService reaper;
+
+  // Counters for /stats
+  final LongAdder created = new LongAdder();
+  final LongAdder evicted = new LongAdder();
+  final LongAdder rejected = new LongAdder();
+
+  RoomRegistry(int capacity, long ttlMillis) {
+    this.capacity = capacity;
+    this.ttlMillis = ttlMillis;
+  }
+
+  void configure(int capacity, long ttlMillis, long reapIntervalMillis) {
+    this.capacity = capacity;
+    this.ttlMillis = ttlMillis;
+    synchronized (this) {
+      if (reaper != null) reaper.shutdownNow();
+      reaper = Executors.newSingleThreadScheduledExecutor(AngerServer.daemonFactory("room-reaper"));
+      reaper.scheduleWithFixedDelay(() -> evictIdle(System.currentTimeMillis()),
+          reapIntervalMillis, reapIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void hibernateTo(Hibernation h, long afterMillis) {
+    this.hibernation = h;
+    this.hibernateAfterMillis = afterMillis;
+  }
+
+  Hibernation hibernation() { return hibernation; }
+
+  /** The room for {@code id}, created (or woken) on first use; null when the registry is full. */
+  AngerServer.Room get(String id) {
+    for (;;) {
+      AngerServer.Room r = rooms.get(id);
+      if (r == null) {
+        r = rooms.computeIfAbsent(id, k -> {
+          AngerServer.Room n = new AngerServer.Room();
+          n.id = k;
+          Hibernation h = hibernation;
+          if (h != null && h.restore(k, n)) {
+            // Already counted. Journal compaction may not have seen this room parked or live;
+            // a snapshot keeps its history independent of the segments it is about to drop, and
+            // covers a follower bootstrap that missed it while it moved between the two. It is
+            // queued ahead of any command for the room, and written off this map's lock.
+            n.mailbox.execute(() -> AngerServer.log(Journal.snapshot(n)));
+            return n;
+          }
+          if (size.incrementAndGet() > capacity) { size.decrementAndGet(); return null; }
+          created.increment();
+          return n;
+        });
+        if (r == null) { rejected.increment(); return null; }
+      }
+      r.lastActivity = System.currentTimeMillis();
+      // Eviction marks a room evicted before unmapping it; the touch above and this check
+      // are both volatile, so either the reaper saw the fresh activity or we see the flag.
+      if (!r.evicted) return r;
+    }
+  }
+
+  /** Rooms resident or hibernated; what {@link #capacity} limits. */
+  int size() { return size.get(); }
+
+  int resident() { return rooms.size(); }
+
+  boolean isResident(String id) { return rooms.containsKey(id); }
+  int capacity() { return capacity; }
+
+  /**
+   * Queues an eviction on every room idle past the TTL with no subscribers, or hibernation
+   * when idle past the hibernation delay, and expires hibernated rooms past the TTL.
+   */
+  void evictIdle(long now) {
+    long idleAfter = Math.min(ttlMillis, hibernateAfterMillis);
+    for (AngerServer.Room r : rooms.values()) {
+      if (now - r.lastActivity < idleAfter || !r.clients.isEmpty()) continue;
+      // Re-checked on the room's mailbox so it cannot interleave with a subscribe.
+      r.mailbox.execute(() -> {
+        long seen = r.lastActivity;
+        if (r.evicted || now - seen < idleAfter || !r.clients.isEmpty()) return;
+        r.evicted = true;
+        // get() touches lastActivity and then reads evicted; we set evicted and then re-read
+        // lastActivity, so either it sees the flag and retries or we see the touch and back off.
+        if (r.lastActivity != seen) { r.evicted = false; return; }
+        Hibernation h = hibernation;
+        boolean expire = now - seen >= ttlMillis || h == null;
+        if (!expire && !h.store(r.id, r)) { r.evicted = false; return; }
+        if (rooms.remove(r.id, r) && expire) {
+          size.decrementAndGet();
+          evicted.increment();
+          journalEvict(r.id);
+        }
+      });
+    }
+    Hibernation h = hibernation;
+    if (h != null) {
+      h.expire(now - ttlMillis, id -> {
+        size.decrementAndGet();
+        evicted.increment();
+        journalEvict(id);
+      });
+    }
+  }
+
+  private static void journalEvict(String id) {
+    AngerServer.log(Journal.EVICT, id);
+  }
+
+  /**
+   * Drops {@code id} outright. For journal replay, before any request can reach the room, and
+   * for a follower applying the leader's evictions.
+   */
+  void remove(String id) {
+    AngerServer.Room r = rooms.remove(id);
+    Hibernation h = hibernation;
+    if (r != null) {
+      r.evicted = true;
+      size.decrementAndGet();
+    } else if (h != null && h.discard(id)) {
+      size.decrementAndGet();
+    }
+  }
+
+  /**
+   * Unmaps {@code r} so the next {@link #get} of its id starts afresh, for a room moving to
+   * another node. Runs on the room's mailbox; commands queued behind it find the room evicted
+   * and are refused (see {@link AngerServer#DETACHED}).
+   */
+  void detach(AngerServer.Room r) {
+    r.evicted = true;
+    if (rooms.remove(r.id, r)) size.decrementAndGet();
+  }
+
+  /** Live view of the resident rooms, for journal compaction. */
+  java.util.Collection<AngerServer.Room> rooms() { return rooms.values(); }
+
+  /** Encoded state of every hibernated room, for journal compaction. */
+  void forEachHibernated(java.util.function.BiConsumer<String, java.nio.ByteBuffer> action) {
+    Hibernation h = hibernation;
+    if (h != null) h.forEach(action);
+  }
+
+  void clear() {
+    rooms.clear();
+    Hibernation h = hibernation;
+    size.set(h == null ? 0 : h.size());
+  }
+}
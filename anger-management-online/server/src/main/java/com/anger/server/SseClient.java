@@ -0,0 +1,256 @@
+// file: src/main/java/com/anger/server/SseClient.java
+package com.anger.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * One /events subscriber (or, via {@link WebSocketServer}, one WebSocket joined to a room). Broadcasts only enqueue shared {@link EventFrame}s here; the shared writer
+ * pool drains each client's queue, so a stalled TCP peer never blocks the request that
+ * produced the event or the other subscribers of the room.
+ *
+ * <p>Writes on the pool still block, so each one runs under a {@link WriteGuard}: a watchdog
+ * aborts any write stuck longer than the write timeout, dropping its client, and a handful
+ * of stalled peers cannot pin every writer thread.
+ */
+class SseClient {
+
+  /** What to do when a subscriber's outbound queue is full. */
+  enum Overflow {
+    /** Discard the oldest queued frame; the client resyncs from the snapshot that follows. */
+    DROP_OLDEST,
+    /** Throw away everything queued and send the latest full state instead. */
+    COALESCE,
+    /** Close the stream; the client is expected to reconnect. */
+    DISCONNECT;
+
+    static Overflow parse(String s) { return valueOf(s.trim().toUpperCase()); }
+  }
+
+  // ==== Shared writer configuration (set once by AngerServer.start) ====
+  static Executor writers = Executors.newCachedThreadPool(AngerServer.daemonFactory("sse-writer"));
+  static int queueCapacity = 64;
+  static Overflow overflow = Overflow.COALESCE;
+  static long writeTimeoutNanos = TimeUnit.SECONDS.toNanos(10);
+  private static ScheduledExecutorService watchdog;
+
+  static synchronized void configure(AngerServer.Config cfg) {
+    ExecutorService vt = cfg.executor == AngerServer.ExecutorMode.VIRTUAL
+        ? AngerServer.newVirtualThreadPerTaskExecutor() : null;
+    Executor old = writers;
+    writers = vt != null ? vt : Executors.newFixedThreadPool(cfg.sseWriters, AngerServer.daemonFactory("sse-writer"));
+    if (old instanceof ExecutorService) ((ExecutorService) old).shutdown();
+    queueCapacity = cfg.sseQueue;
+    overflow = cfg.sseOverflow;
+    writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(cfg.sseWriteTimeoutMs);
+    if (watchdog != null) watchdog.shutdownNow();
+    watchdog = null;
+    if (writeTimeoutNanos > 0) {
+      long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), Math.min(TimeUnit.SECONDS.toNanos(1), writeTimeoutNanos / 4));
+      watchdog = Executors.newSingleThreadScheduledExecutor(AngerServer.daemonFactory("sse-watchdog"));
+      watchdog.scheduleWithFixedDelay(() -> abortStalled(System.nanoTime()), period, period, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  // ==== Stall watchdog ====
+  private static final Set<WriteGuard> writing = ConcurrentHashMap.newKeySet();
+
+  /**
+   * A blocking write in progress on the calling thread; close it when the write is done. If it
+   * is still open after the write timeout, the watchdog runs {@code onAbort} and interrupts
+   * the thread. An exchange writes through an interruptible channel, so the interrupt closes
+   * it and the write fails; a plain socket has to be closed by {@code onAbort}.
+   */
+  static WriteGuard beginWrite(Runnable onAbort) {
+    WriteGuard w = new WriteGuard(Thread.currentThread(), onAbort);
+    writing.add(w);
+    return w;
+  }
+
+  static final class WriteGuard implements AutoCloseable {
+    private final Thread thread;
+    private final Runnable onAbort;
+    final long started = System.nanoTime();
+    private boolean done; // guarded by this: no interrupt may reach the thread once set
+
+    private WriteGuard(Thread thread, Runnable onAbort) {
+      this.thread = thread;
+      this.onAbort = onAbort;
+    }
+
+    synchronized void abort() {
+      if (done) return;
+      done = true;
+      Metrics.evictedSlow.increment();
+      if (onAbort != null) onAbort.run();
+      thread.interrupt();
+    }
+
+    @Override public void close() {
+      writing.remove(this);
+      synchronized (this) { done = true; }
+      Thread.interrupted(); // an abort aimed at this write must not reach the thread's next task
+    }
+  }
+
+  static void abortStalled(long now) {
+    for (WriteGuard w : writing) {
+      if (now - w.started > writeTimeoutNanos) w.abort();
+    }
+  }
+
+  private static final int MAX_BATCH = 64; // frames per drain before yielding the writer thread
+
+  final AngerServer.Room room;
+  final HttpExchange exchange;
+  final OutputStream os;
+  private final ArrayDeque<EventFrame> queue = new ArrayDeque<>();
+  private final Runnable drainTask = this::drain;
+  private boolean scheduled;
+  private boolean needsSnapshot;
+  private volatile boolean closed;
+  private Admission admittedBy;        // counted against its stream caps until detached
+  long dropped;
+
+  SseClient(AngerServer.Room room, HttpExchange exchange, OutputStream os) {
+    this.room = room;
+    this.exchange = exchange;
+    this.os = os;
+  }
+
+  /**
+   * Queues a frame for delivery; returns false if the client is gone. Never blocks on I/O.
+   * {@code snapshot} supplies the full state for the same sequence number: it replaces
+   * {@code frame} whenever this client has lost frames, so deltas are never applied across
+   * a gap. It may be null when {@code frame} already is a snapshot.
+   */
+  boolean enqueue(EventFrame frame, Supplier<EventFrame> snapshot) {
+    synchronized (this) {
+      if (closed) return false;
+      if (queue.size() >= queueCapacity) {
+        if (overflow == Overflow.DISCONNECT) {
+          Metrics.evictedSlow.increment();
+          close();
+          return false;
+        }
+        int lost = overflow == Overflow.DROP_OLDEST ? 1 : queue.size();
+        if (overflow == Overflow.DROP_OLDEST) queue.pollFirst();
+        else queue.clear();
+        dropped += lost;
+        Metrics.framesDropped.add(lost);
+        needsSnapshot = true;
+      }
+      if (needsSnapshot && snapshot != null) {
+        frame = snapshot.get();
+        needsSnapshot = false;
+      }
+      queue.addLast(frame);
+      if (scheduled) return true;
+      scheduled = true;
+    }
+    try {
+      writers.execute(drainTask);
+    } catch (RejectedExecutionException e) {
+      synchronized (this) { scheduled = false; }
+      close();
+      return false;
+    }
+    return true;
+  }
+
+  private static final int IDLE = 0, YIELD = 1, CLOSED = 2; // how a batch of writes ended
+
+  private void drain() {
+    WriteGuard guard = beginWrite(this::abortWrite);
+    int end;
+    try {
+      end = writeBatch();
+    } catch (IOException e) {
+      end = CLOSED;
+      if (!closed) {
+        closed = true;
+        Metrics.evictedWriteError.increment();
+      }
+      detach();
+    } finally {
+      guard.close();
+    }
+    if (end == YIELD) {
+      try {
+        // Yield the writer so other subscribers get a turn; this task picks up where it left off.
+        writers.execute(drainTask);
+        return;
+      } catch (RejectedExecutionException e) {
+        closed = true;
+        detach();
+        end = CLOSED;
+      }
+    }
+    if (end == IDLE) return;
+    synchronized (this) { scheduled = false; queue.clear(); }
+    try { closeTransport(); } catch (Exception ignore) {}
+  }
+
+  private int writeBatch() throws IOException {
+    for (int written = 0; ; ) {
+      EventFrame frame;
+      synchronized (this) {
+        if (closed) return CLOSED;
+        frame = queue.pollFirst();
+        if (frame != null && written == MAX_BATCH) { queue.addFirst(frame); frame = null; }
+      }
+      if (frame != null) {
+        write(frame);
+        written++;
+        continue;
+      }
+      os.flush();
+      synchronized (this) {
+        if (closed) return CLOSED;
+        if (queue.isEmpty()) { scheduled = false; return IDLE; }
+      }
+      if (written == MAX_BATCH) return YIELD;
+    }
+  }
+
+  /** Releases the stream {@code a} admitted once this client detaches. */
+  synchronized void admittedBy(Admission a) { admittedBy = a; }
+
+  private void detach() {
+    if (room.clients.remove(this)) Metrics.subscribers.decrement();
+    Admission a;
+    synchronized (this) { a = admittedBy; admittedBy = null; }
+    if (a != null) a.releaseStream(room);
+  }
+
+  // ==== Transport hooks (WebSocketServer overrides these) ====
+  void write(EventFrame frame) throws IOException { frame.writeTo(os); }
+
+  void closeTransport() { exchange.close(); }
+
+  /** Run by the watchdog when a write to this client stalls; the writer is then interrupted. */
+  void abortWrite() { close(); }
+
+  /**
+   * Detaches the client from its room. The exchange itself is closed by the writer side,
+   * never by the caller, because closing flushes and can block on a stalled peer.
+   */
+  void close() {
+    boolean idle;
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      idle = !scheduled;
+      scheduled = true;
+    }
+    detach();
+    if (idle) {
+      try { writers.execute(drainTask); } catch (RejectedExecutionException e) { closeTransport(); }
+    }
+  }
+}
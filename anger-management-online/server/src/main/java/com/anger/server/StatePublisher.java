@@ -0,0 +1,131 @@
+// file: src/main/java/com/anger/server/StatePublisher.java
+package com.anger.server;
+
+import java.util.function.Supplier;
+
+/**
+ * Turns room mutations into numbered SSE events. Every event gets the room's next sequence
+ * number; most are {@code delta} events carrying only what changed since the previous event,
+ * and every {@link #snapshotEvery}-th is a full {@code state} snapshot. A subscriber that had
+ * frames dropped gets a snapshot as its next frame (see {@link SseClient#enqueue}).
+ *
+ * <p>The last {@link #replaySize} frames of each room are kept in a ring so a subscriber that
+ * reconnects with {@code Last-Event-ID} is sent exactly the events it missed.
+ *
+ * <p>Both entry points must run on the room's {@link Mailbox}; that is what keeps sequence
+ * numbers, the ring and subscriber registration consistent without a lock.
+ */
+final class StatePublisher {
+  private StatePublisher() {}
+
+  static int snapshotEvery = 20;
+  static int replaySize = 64;
+
+  /** The parts of a room that deltas are computed against. */
+  static final class StateView {
+    final int round;
+    final String p1Name, p2Name;
+    final int p1Score, p1Anger, p1Satisfaction, p1Confidence;
+    final int p2Score, p2Anger, p2Satisfaction, p2Confidence;
+    final String p1Move, p2Move, pendingActionFor;
+
+    StateView(AngerServer.Room r) {
+      round = r.round;
+      p1Name = r.p1.name; p1Score = r.p1.score; p1Anger = r.p1.anger;
+      p1Satisfaction = r.p1.satisfaction; p1Confidence = r.p1.confidence;
+      p2Name = r.p2.name; p2Score = r.p2.score; p2Anger = r.p2.anger;
+      p2Satisfaction = r.p2.satisfaction; p2Confidence = r.p2.confidence;
+      p1Move = r.p1Move; p2Move = r.p2Move;
+      pendingActionFor = r.pendingActionFor == null ? "" : r.pendingActionFor;
+    }
+  }
+
+  /** Full snapshot of the room at its current sequence number, built at most once. */
+  static final class Snapshot implements Supplier<EventFrame> {
+    private final AngerServer.Room room;
+    private final Object[] extras;
+    private EventFrame frame;
+
+    Snapshot(AngerServer.Room room, Object[] extras) { this.room = room; this.extras = extras; }
+
+    @Override public EventFrame get() {
+      if (frame == null) frame = EventFrame.of(room.seq, "state", AngerServer.writeState(Json.writer(), room, extras));
+      return frame;
+    }
+  }
+
+  /** Publishes the room's current state plus event-specific extras to every subscriber. */
+  static void publish(AngerServer.Room r, Object[] extras) {
+    if (r.batch != null) { r.batch.hold(extras); return; } // BatchHandler publishes once at the end
+    r.seq++;
+    Snapshot snapshot = new Snapshot(r, extras);
+    EventFrame frame;
+    if (r.lastPublished == null || ++r.sinceSnapshot >= snapshotEvery) {
+      frame = snapshot.get();
+      r.sinceSnapshot = 0;
+    } else {
+      frame = EventFrame.of(r.seq, "delta", writeDelta(Json.writer(), r, r.lastPublished, extras));
+    }
+    r.lastPublished = new StateView(r);
+    if (replaySize > 0) {
+      if (r.replay == null) r.replay = new EventFrame[replaySize];
+      r.replay[(int) (r.seq % r.replay.length)] = frame;
+    }
+    if (r.clients.isEmpty()) return;
+    long t0 = System.nanoTime();
+    int n = 0;
+    for (SseClient c : r.clients) if (c.enqueue(frame, snapshot)) n++;
+    Metrics.fanout.record(System.nanoTime() - t0);
+    Metrics.framesQueued.add(n);
+  }
+
+  /**
+   * Registers a subscriber. If it is resuming ({@code lastEventId >= 0}) and the ring still
+   * holds everything after that id, those frames are queued; otherwise it gets the current
+   * snapshot. Either way it sees every later event exactly once.
+   */
+  static void subscribe(AngerServer.Room r, SseClient c, long lastEventId, Object[] extras) {
+    r.clients.add(c);
+    Metrics.subscribers.increment();
+    if (lastEventId >= 0 && replay(r, c, lastEventId)) return;
+    c.enqueue(new Snapshot(r, extras).get(), null);
+  }
+
+  private static boolean replay(AngerServer.Room r, SseClient c, long lastEventId) {
+    long missed = r.seq - lastEventId;
+    if (missed == 0) return true;
+    if (missed < 0 || r.replay == null || missed > r.replay.length || missed > SseClient.queueCapacity) return false;
+    for (long s = lastEventId + 1; s <= r.seq; s++) {
+      EventFrame f = r.replay[(int) (s % r.replay.length)];
+      if (f == null || f.id != s) return false;
+    }
+    for (long s = lastEventId + 1; s <= r.seq; s++) c.enqueue(r.replay[(int) (s % r.replay.length)], null);
+    return true;
+  }
+
+  static Json.Writer writeDelta(Json.Writer w, AngerServer.Room r, StateView prev, Object[] extras) {
+    w.beginObject().field("seq", r.seq);
+    if (r.round != prev.round) w.field("round", r.round);
+    writePlayer(w, "p1", r.p1, prev.p1Name, prev.p1Score, prev.p1Anger, prev.p1Satisfaction, prev.p1Confidence);
+    writePlayer(w, "p2", r.p2, prev.p2Name, prev.p2Score, prev.p2Anger, prev.p2Satisfaction, prev.p2Confidence);
+    if (!r.p1Move.equals(prev.p1Move)) w.field("p1Move", r.p1Move);
+    if (!r.p2Move.equals(prev.p2Move)) w.field("p2Move", r.p2Move);
+    String pending = r.pendingActionFor == null ? "" : r.pendingActionFor;
+    if (!pending.equals(prev.pendingActionFor)) w.field("pendingActionFor", pending);
+    return w.fields(extras).endObject();
+  }
+
+  private static void writePlayer(Json.Writer w, String key, AngerServer.PlayerState p,
+                                  String name, int score, int anger, int satisfaction, int confidence) {
+    boolean nameChanged = !p.name.equals(name);
+    if (!nameChanged && p.score == score && p.anger == anger
+        && p.satisfaction == satisfaction && p.confidence == confidence) return;
+    w.name(key).beginObject();
+    if (nameChanged) w.field("name", p.name);
+    if (p.score != score) w.field("score", p.score);
+    if (p.anger != anger) w.field("anger", p.anger);
+    if (p.satisfaction != satisfaction) w.field("satisfaction", p.satisfaction);
+    if (p.confidence != confidence) w.field("confidence", p.confidence);
+    w.endObject();
+  }
+}
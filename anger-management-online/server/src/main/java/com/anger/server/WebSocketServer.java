@@ -0,0 +1,355 @@
+// file: src/main/java/com/anger/server/WebSocketServer.java
+package com.anger.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Full-duplex alternative to POST + SSE: one persistent RFC 6455 connection carries join,
+ * move and action commands up and state/delta events down. The JDK HttpServer cannot hand
+ * over a connection after a 101 response, so this listens on its own port ({@code WS_PORT}).
+ *
+ * <p>Client messages are flat JSON objects:
+ * <pre>
+ * {"type":"join","room":"r1","name":"Player 1","lastEventId":"12","ref":"1"}
+ * {"type":"move","player":"P1","move":"rock","ref":"2"}
+ * {"type":"action","player":"P1","action":"Kick","ref":"3"}
+ * </pre>
+ * {@code room} defaults to the last joined room and {@code ref} is echoed in the reply:
+ * {@code {"event":"reply","data":{"ref":"2","status":200,"body":{"ok":true}}}}. Events use
+ * the same envelope as {@link EventFrame#writeWebSocketTo}. Commands run on the room's
+ * {@link Mailbox} exactly like their HTTP counterparts. On a replication follower a join
+ * only subscribes (the reply carries the replica's state) and other commands get 503.
+ */
+final class WebSocketServer {
+  private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+  private static final int MAX_MESSAGE = 64 * 1024;
+  private static final int MAX_HEADER = 8 * 1024;
+  private static final Json.Fields MESSAGE =
+      new Json.Fields("type", "ref", "room", "name", "player", "move", "action", "lastEventId");
+
+  private final ServerSocket server;
+  private final ExecutorService connections;
+
+  private WebSocketServer(ServerSocket server, ExecutorService connections) {
+    this.server = server;
+    this.connections = connections;
+  }
+
+  static WebSocketServer start(AngerServer.Config cfg) throws IOException {
+    ServerSocket ss = new ServerSocket();
+    ss.bind(new InetSocketAddress(cfg.wsPort), cfg.backlog);
+    ExecutorService vt = cfg.executor == AngerServer.ExecutorMode.VIRTUAL
+        ? AngerServer.newVirtualThreadPerTaskExecutor() : null;
+    WebSocketServer ws = new WebSocketServer(ss,
+        vt != null ? vt : Executors.newCachedThreadPool(AngerServer.daemonFactory("ws-conn")));
+    Thread acceptor = AngerServer.daemonFactory("ws-accept").newThread(ws::acceptLoop);
+    acceptor.start();
+    return ws;
+  }
+
+  int port() { return server.getLocalPort(); }
+
+  void stop() {
+    try { server.close(); } catch (IOException ignore) {}
+    connections.shutdownNow();
+  }
+
+  private void acceptLoop() {
+    while (!server.isClosed()) {
+      try {
+        Socket s = server.accept();
+        s.setTcpNoDelay(true);
+        connections.execute(new Connection(s));
+      } catch (IOException | RejectedExecutionException e) {
+        if (server.isClosed()) return;
+      }
+    }
+  }
+
+  // ==== Framing ====
+  static byte[] textFrame(byte[] payload) { return frame(0x1, payload); }
+
+  static byte[] frame(int opcode, byte[] payload) {
+    int n = payload.length;
+    int header = n < 126 ? 2 : n < 65536 ? 4 : 10;
+    byte[] out = new byte[header + n];
+    out[0] = (byte) (0x80 | opcode); // FIN, never fragmented; servers do not mask
+    if (n < 126) {
+      out[1] = (byte) n;
+    } else if (n < 65536) {
+      out[1] = 126;
+      out[2] = (byte) (n >>> 8); out[3] = (byte) n;
+    } else {
+      out[1] = 127;
+      for (int i = 0; i < 8; i++) out[2 + i] = (byte) ((long) n >>> (56 - 8 * i));
+    }
+    System.arraycopy(payload, 0, out, header, n);
+    return out;
+  }
+
+  static String acceptKey(String key) {
+    try {
+      byte[] sha = MessageDigest.getInstance("SHA-1").digest((key + GUID).getBytes(StandardCharsets.US_ASCII));
+      return Base64.getEncoder().encodeToString(sha);
+    } catch (java.security.NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // ==== One connection ====
+  static final class Connection implements Runnable {
+    final Socket socket;
+    OutputStream out;
+    volatile boolean closed;
+    WsClient subscriber; // events for the room last joined; only touched by the reader thread
+
+    Connection(Socket socket) { this.socket = socket; }
+
+    @Override public void run() {
+      try {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        if (!handshake(in)) return;
+        readLoop(in);
+      } catch (IOException e) {
+        // peer went away
+      } finally {
+        close();
+      }
+    }
+
+    private boolean handshake(InputStream in) throws IOException {
+      Map<String,String> headers = new HashMap<>();
+      String requestLine = readLine(in);
+      if (requestLine == null || !requestLine.startsWith("GET ")) return false;
+      int total = requestLine.length();
+      String line;
+      while ((line = readLine(in)) != null && !line.isEmpty()) {
+        total += line.length();
+        if (total > MAX_HEADER) return false;
+        int c = line.indexOf(':');
+        if (c > 0) headers.put(line.substring(0, c).trim().toLowerCase(Locale.ROOT), line.substring(c + 1).trim());
+      }
+      String key = headers.get("sec-websocket-key");
+      if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+        writeRaw("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+        return false;
+      }
+      writeRaw("HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+          + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n");
+      return true;
+    }
+
+    private void readLoop(InputStream in) throws IOException {
+      ByteArrayOutputStream message = new ByteArrayOutputStream();
+      while (!closed) {
+        int b0 = in.read(), b1 = in.read();
+        if (b0 < 0 || b1 < 0) return;
+        boolean fin = (b0 & 0x80) != 0;
+        int opcode = b0 & 0x0F;
+        if ((b1 & 0x80) == 0) { sendClose(1002); return; } // clients must mask
+        long len = b1 & 0x7F;
+        if (len == 126) len = (readByte(in) << 8) | readByte(in);
+        else if (len == 127) { len = 0; for (int i = 0; i < 8; i++) len = (len << 8) | readByte(in); }
+        if (len > MAX_MESSAGE || message.size() + len > MAX_MESSAGE) { sendClose(1009); return; }
+        byte[] mask = new byte[4];
+        readFully(in, mask);
+        byte[] payload = new byte[(int) len];
+        readFully(in, payload);
+        for (int i = 0; i < payload.length; i++) payload[i] ^= mask[i & 3];
+
+        switch (opcode) {
+          case 0x0: case 0x1:
+            message.write(payload, 0, payload.length);
+            if (fin) {
+              onMessage(message.toByteArray());
+              message.reset();
+            }
+            break;
+          case 0x8: sendClose(1000); return;
+          case 0x9: send(frame(0xA, payload)); break;
+          case 0xA: break;
+          default: sendClose(1003); return; // binary frames are not part of the protocol
+        }
+      }
+    }
+
+    private void onMessage(byte[] text) {
+      String[] f;
+      try {
+        f = Json.read(text, 0, text.length, MESSAGE);
+      } catch (IllegalArgumentException e) {
+        reply("", 400, "{\"error\":\"bad-json\"}");
+        return;
+      }
+      String type = f[0] == null ? "" : f[0];
+      String ref = f[1] == null ? "" : f[1];
+      String rid = f[2] != null ? f[2] : subscriber != null ? subscriber.room.id : null;
+      if (rid == null) { reply(ref, 400, "{\"error\":\"join-first\"}"); return; }
+      Admission.Reason refused = AngerServer.admission.admitMessage(socket.getInetAddress());
+      if (refused != null) {
+        reply(ref, refused == Admission.Reason.SHED ? 503 : 429, "{\"error\":\"" + refused.label + "\"}");
+        return;
+      }
+      Replication rep = AngerServer.replication;
+      boolean following = rep != null && rep.following();
+      if (following && !"join".equals(type)) { reply(ref, 503, rep.followerError()); return; }
+      Cluster c = AngerServer.cluster;
+      if (c != null && !c.owns(rid)) {
+        // A socket cannot be redirected mid-stream; the client reconnects to the owner's WS_PORT.
+        reply(ref, 421, "{\"error\":\"wrong-node\",\"owner\":\"" + c.owner(rid) + "\"}");
+        return;
+      }
+      if (c != null && c.awaitingHandoff(rid)) { reply(ref, 503, "{\"error\":\"handoff\"}"); return; }
+      long wait = AngerServer.admission.roomDelay(rid);
+      if (wait > 0) { reply(ref, 429, "{\"error\":\"room_rate\"}"); return; }
+      AngerServer.Room r = AngerServer.room(rid);
+      if (r == null) { reply(ref, 503, "{\"error\":\"rooms-full\"}"); return; }
+      String player = f[4];
+      switch (type) {
+        case "join": {
+          String name = f[3] == null ? "" : f[3];
+          if (subscriber == null || subscriber.room != r) {
+            Admission a = AngerServer.admission;
+            Admission.Reason capped = a.openStream(r);
+            if (capped != null) { reply(ref, 503, "{\"error\":\"" + capped.label + "\"}"); return; }
+            if (subscriber != null) subscriber.detach();
+            WsClient sub = new WsClient(r, this);
+            sub.admittedBy(a);
+            subscriber = sub;
+            long lastEventId = AngerServer.parseLong(f[7], -1);
+            r.mailbox.execute(() -> StatePublisher.subscribe(r, sub, lastEventId, AngerServer.INIT));
+          }
+          // A follower's state only changes through the leader's stream: read it, don't join.
+          forward(ref, r.mailbox.ask(() -> following
+              ? new AngerServer.Reply(200, AngerServer.toJsonState(r, AngerServer.INIT))
+              : AngerServer.join(r, name)));
+          break;
+        }
+        case "move": {
+          String move = f[5];
+          forward(ref, r.mailbox.ask(() -> AngerServer.move(r, player, move)));
+          break;
+        }
+        case "action": {
+          String action = f[6];
+          forward(ref, r.mailbox.ask(() -> AngerServer.action(r, player, action)));
+          break;
+        }
+        default:
+          reply(ref, 400, "{\"error\":\"type\"}");
+      }
+    }
+
+    // Replies are written from the SSE writer pool so a slow socket never holds a room worker.
+    private void forward(String ref, CompletableFuture<AngerServer.Reply> pending) {
+      AngerServer.durable(pending).whenCompleteAsync((rep, err) -> {
+        if (err != null) reply(ref, 500, "{\"error\":\"internal\"}");
+        else reply(ref, rep.code, rep.body);
+      }, SseClient.writers);
+    }
+
+    private void reply(String ref, int status, String body) {
+      Json.Writer w = Json.writer().beginObject().field("event", "reply")
+          .name("data").beginObject().field("ref", ref).field("status", status).name("body").raw(body).endObject()
+          .endObject();
+      try {
+        send(textFrame(w.toByteArray()));
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    // Replies and control frames are written directly; events come through WsClient's queue.
+    // A socket write cannot be interrupted, so a stalled one is cut off by closing the socket.
+    void send(byte[] frame) throws IOException {
+      try (SseClient.WriteGuard w = SseClient.beginWrite(this::close)) {
+        synchronized (this) {
+          out.write(frame);
+          out.flush();
+        }
+      }
+    }
+
+    private void sendClose(int code) {
+      try { send(frame(0x8, new byte[] { (byte) (code >>> 8), (byte) code })); } catch (IOException ignore) {}
+    }
+
+    private void writeRaw(String s) throws IOException {
+      out.write(s.getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+    }
+
+    void close() {
+      if (closed) return;
+      closed = true;
+      WsClient sub = subscriber;
+      if (sub != null) sub.close();
+      try { socket.close(); } catch (IOException ignore) {}
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      int c;
+      while ((c = in.read()) >= 0) {
+        if (c == '\n') return sb.toString();
+        if (c != '\r') sb.append((char) c);
+        if (sb.length() > MAX_HEADER) return null;
+      }
+      return sb.length() == 0 ? null : sb.toString();
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+      int b = in.read();
+      if (b < 0) throw new EOFException();
+      return b;
+    }
+
+    private static void readFully(InputStream in, byte[] buf) throws IOException {
+      int off = 0;
+      while (off < buf.length) {
+        int n = in.read(buf, off, buf.length - off);
+        if (n < 0) throw new EOFException();
+        off += n;
+      }
+    }
+  }
+
+  /** A room subscription whose frames go out over a WebSocket connection. */
+  static final class WsClient extends SseClient {
+    private final Connection conn;
+    private volatile boolean detached;
+
+    WsClient(AngerServer.Room room, Connection conn) {
+      super(room, null, conn.out);
+      this.conn = conn;
+    }
+
+    /** Leaves the room but keeps the socket open (the connection joined another room). */
+    void detach() {
+      detached = true;
+      close();
+    }
+
+    @Override void write(EventFrame frame) throws IOException {
+      synchronized (conn) { frame.writeWebSocketTo(os); }
+    }
+
+    @Override void closeTransport() {
+      if (!detached) conn.close();
+    }
+
+    // The frame is stuck on the shared socket, whichever room it was for.
+    @Override void abortWrite() {
+      close();
+      conn.close();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// file: src/test/java/com/anger/server/AdmissionTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class AdmissionTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test void burstIsAdmittedThenTheRateHolds() {
+    Admission.Limiter l = new Admission.Limiter(10, 3); // a token every 100ms, 3 at once
+    long now = 1_000 * SECOND;
+    for (int i = 0; i < 3; i++) assertEquals(0, l.acquire("a", now), "burst " + i);
+    assertEquals(SECOND / 10, l.acquire("a", now), "nanos until the next token");
+    assertEquals(SECOND / 10 - 1, l.acquire("a", now + 1), "a refused call takes nothing");
+    assertEquals(0, l.acquire("a", now + SECOND / 10));
+    assertTrue(l.acquire("a", now + SECOND / 10) > 0);
+  }
+
+  @Test void keysAreIndependent() {
+    Admission.Limiter l = new Admission.Limiter(1, 1);
+    assertEquals(0, l.acquire("a", 0));
+    assertTrue(l.acquire("a", 0) > 0);
+    assertEquals(0, l.acquire("b", 0));
+  }
+
+  @Test void idleBucketRefillsOnlyUpToTheBurst() {
+    Admission.Limiter l = new Admission.Limiter(10, 2);
+    assertEquals(0, l.acquire("a", 0));
+    long later = 60 * SECOND;
+    assertEquals(0, l.acquire("a", later));
+    assertEquals(0, l.acquire("a", later));
+    assertTrue(l.acquire("a", later) > 0, "a minute idle is still only a burst of 2");
+  }
+
+  @Test void sweepForgetsOnlyFullBuckets() {
+    Admission.Limiter l = new Admission.Limiter(10, 1);
+    l.acquire("idle", 0);
+    l.acquire("busy", SECOND);
+    l.sweep(SECOND / 2);
+    assertEquals(1, l.size());
+    assertTrue(l.acquire("busy", SECOND) > 0, "the busy bucket kept its state");
+  }
+
+  @Test void webSocketMessagesMeetTheClientRate() throws Exception {
+    AngerServer.Config cfg = new AngerServer.Config();
+    cfg.clientRate = 1;
+    cfg.clientBurst = 2;
+    Admission a = new Admission(cfg);
+    try {
+      InetAddress one = InetAddress.getByName("10.0.0.1"), two = InetAddress.getByName("10.0.0.2");
+      assertNull(a.admitMessage(one));
+      assertNull(a.admitMessage(one));
+      assertEquals(Admission.Reason.CLIENT_RATE, a.admitMessage(one));
+      assertNull(a.admitMessage(two));
+      assertEquals(1, a.rejected(Admission.Reason.CLIENT_RATE));
+    } finally {
+      a.close();
+    }
+  }
+
+  @Test void everythingIsOffByDefault() {
+    Admission a = new Admission(new AngerServer.Config());
+    try {
+      InetAddress client = InetAddress.getLoopbackAddress();
+      for (int i = 0; i < 1_000; i++) assertNull(a.admitMessage(client));
+      AngerServer.Room r = RoomCodecTest.room("r1");
+      for (int i = 0; i < 1_000; i++) assertNull(a.openStream(r));
+      assertEquals(0, a.roomDelay("r1"));
+    } finally {
+      a.close();
+    }
+  }
+}
@@ -0,0 +1,126 @@
+// file: src/test/java/com/anger/server/BatchHandlerTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class BatchHandlerTest {
+  private static final Pattern STATUS = Pattern.compile("\"status\":(\\d+)");
+
+  private RoomRegistry savedRegistry;
+  private Admission savedAdmission;
+  private HttpServer server;
+
+  @BeforeEach void start() throws IOException {
+    savedRegistry = AngerServer.registry;
+    savedAdmission = AngerServer.admission;
+    AngerServer.registry = new RoomRegistry(1_000, Long.MAX_VALUE);
+    AngerServer.admission = new Admission(new AngerServer.Config());
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/batch", new BatchHandler());
+    server.start();
+  }
+
+  @AfterEach void stop() {
+    server.stop(0);
+    AngerServer.admission.close();
+    AngerServer.admission = savedAdmission;
+    AngerServer.registry = savedRegistry;
+  }
+
+  private List<Integer> post(String body) throws Exception {
+    HttpRequest req = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/batch"))
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+    HttpResponse<String> resp = HttpClient.newHttpClient().send(req, HttpResponse.BodyHandlers.ofString());
+    assertEquals(200, resp.statusCode(), resp.body());
+    List<Integer> statuses = new ArrayList<>();
+    Matcher m = STATUS.matcher(resp.body());
+    while (m.find()) statuses.add(Integer.parseInt(m.group(1)));
+    return statuses;
+  }
+
+  private static StatePublisherTest.Recorder subscribe(String id) {
+    AngerServer.Room r = AngerServer.registry.get(id);
+    StatePublisherTest.Recorder c = new StatePublisherTest.Recorder(r);
+    r.mailbox.ask(() -> {
+      StatePublisher.subscribe(r, c, -1, AngerServer.INIT);
+      c.frames.clear();
+      return null;
+    }).join();
+    return c;
+  }
+
+  // Read on the room's mailbox, which is what wrote them.
+  private static List<String> payloads(StatePublisherTest.Recorder c) {
+    return c.room.mailbox.ask(() -> {
+      List<String> out = new ArrayList<>();
+      for (EventFrame f : c.frames) {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        try { f.writeTo(b); } catch (IOException e) { throw new UncheckedIOException(e); }
+        out.add(b.toString(StandardCharsets.UTF_8));
+      }
+      return out;
+    }).join();
+  }
+
+  @Test void eachRoomRunsItsCommandsInBodyOrderAndPublishesOnce() throws Exception {
+    StatePublisherTest.Recorder t1 = subscribe("t1"), t2 = subscribe("t2");
+    List<Integer> statuses = post("["
+        + "{\"type\":\"join\",\"room\":\"t1\",\"name\":\"Player 1\"},"
+        + "{\"type\":\"action\",\"room\":\"t2\",\"player\":\"P1\",\"action\":\"Kick\"},"
+        + "{\"type\":\"move\",\"room\":\"t1\",\"player\":\"P1\",\"move\":\"rock\"},"
+        + "{\"type\":\"move\",\"room\":\"t2\",\"player\":\"P1\",\"move\":\"rock\"},"
+        + "{\"type\":\"move\",\"room\":\"t1\",\"player\":\"P2\",\"move\":\"scissors\"},"
+        + "{\"type\":\"move\",\"room\":\"t2\",\"player\":\"P2\",\"move\":\"scissors\"},"
+        + "{\"type\":\"action\",\"room\":\"t1\",\"player\":\"P1\",\"action\":\"Kick\"}]");
+    assertEquals(List.of(200, 400, 200, 200, 200, 200, 200), statuses,
+        "t2's action came before its round was won; t1's came after");
+
+    AngerServer.Room r1 = AngerServer.registry.get("t1"), r2 = AngerServer.registry.get("t2");
+    assertEquals(2, r1.mailbox.ask(() -> r1.round).join());
+    assertEquals("P1", r2.mailbox.ask(() -> r2.pendingActionFor).join());
+
+    List<String> one = payloads(t1), two = payloads(t2);
+    assertEquals(1, one.size(), "one event for t1's four commands");
+    assertEquals(1, two.size(), "one event for t2's three commands");
+    assertTrue(one.get(0).contains("\"result\":\"P1_WIN\""), "extras of the batch's commands are merged: " + one.get(0));
+    assertTrue(two.get(0).contains("\"pendingActionFor\":\"P1\""), two.get(0));
+  }
+
+  @Test void badCommandsAreReportedWithoutStoppingTheRest() throws Exception {
+    StatePublisherTest.Recorder t1 = subscribe("t1");
+    List<Integer> statuses = post("["
+        + "{\"type\":\"dance\",\"room\":\"t1\"},"
+        + "{\"type\":\"move\",\"player\":\"P1\",\"move\":\"rock\"},"
+        + "{\"type\":\"move\",\"room\":\"t1\",\"player\":\"P3\",\"move\":\"rock\"},"
+        + "{\"type\":\"move\",\"room\":\"t1\",\"player\":\"P1\",\"move\":\"rock\"}]");
+    assertEquals(List.of(400, 400, 400, 200), statuses);
+    assertEquals(1, payloads(t1).size());
+  }
+
+  @Test void heldExtrasMergeByKeyInFirstSeenOrder() {
+    BatchHandler.Batch b = new BatchHandler.Batch();
+    b.hold(new Object[] {"result", "", "message", "joined"});
+    b.hold(null);
+    b.hold(new Object[] {"result", "P1_WIN", "extra", 1});
+    assertArrayEquals(new Object[] {"result", "P1_WIN", "message", "joined", "extra", 1}, b.extras);
+  }
+}
@@ -0,0 +1,91 @@
+// file: src/test/java/com/anger/server/ClusterTest.java
+package com.anger.server;
+
+import static com.anger.server.RoomCodecTest.assertSameGame;
+import static com.anger.server.RoomCodecTest.room;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ClusterTest {
+  private RoomRegistry saved;
+
+  @BeforeEach void freshRegistry() {
+    saved = AngerServer.registry;
+    AngerServer.registry = new RoomRegistry(1_000, Long.MAX_VALUE);
+  }
+
+  @AfterEach void restoreRegistry() {
+    AngerServer.registry = saved;
+  }
+
+  @Test void addingANodeOnlyMovesRoomsToIt() {
+    List<String> two = List.of("http://a", "http://b");
+    Cluster.Ring before = new Cluster.Ring(two, 64);
+    Cluster.Ring after = new Cluster.Ring(List.of("http://a", "http://b", "http://c"), 64);
+    int moved = 0;
+    for (int i = 0; i < 10_000; i++) {
+      String id = "room-" + i;
+      String was = before.owner(id), now = after.owner(id);
+      if (!was.equals(now)) {
+        assertEquals("http://c", now, id);
+        moved++;
+      }
+    }
+    assertTrue(moved > 2_000 && moved < 4_700, "about a third moves: " + moved);
+  }
+
+  @Test void handoffSendsTheFinalStateAndRefusesCommandsQueuedBehindIt() throws Exception {
+    CompletableFuture<byte[]> handedOver = new CompletableFuture<>();
+    CompletableFuture<Void> settled = new CompletableFuture<>();
+    HttpServer owner = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    owner.createContext("/cluster/handoff", ex -> {
+      byte[] body = ex.getRequestBody().readAllBytes();
+      AngerServer.respond(ex, 200, "{\"ok\":true}");
+      if (ex.getRequestURI().getQuery().startsWith("room=")) handedOver.complete(body);
+      else settled.complete(null);
+    });
+    owner.start();
+    try {
+      String self = "http://127.0.0.1:1", other = "http://127.0.0.1:" + owner.getAddress().getPort();
+      Cluster c = new Cluster(self, List.of(self, other), 64, Cluster.Routing.REDIRECT);
+      String id = "r0";
+      for (int i = 1; c.owns(id); i++) id = "r" + i;
+      AngerServer.Room r = AngerServer.registry.get(id);
+      AngerServer.Room expected = room(id);
+      r.mailbox.ask(() -> AngerServer.join(r, "Player 1")).join();
+      AngerServer.join(expected, "Player 1");
+
+      // Hold the mailbox so the handoff task and a later command queue up in that order.
+      CountDownLatch hold = new CountDownLatch(1);
+      r.mailbox.execute(() -> {
+        try { hold.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+      });
+      c.rebalance();
+      assertTrue(c.awaitingHandoff(id), "refused here while in flight");
+      CompletableFuture<AngerServer.Reply> late = r.mailbox.ask(() -> AngerServer.move(r, "P1", "rock"));
+      hold.countDown();
+
+      assertSame(AngerServer.DETACHED, late.get(5, TimeUnit.SECONDS));
+      AngerServer.Room copy = room(id);
+      RoomCodec.restore(ByteBuffer.wrap(handedOver.get(5, TimeUnit.SECONDS)), copy);
+      assertSameGame(expected, copy);
+      r.handedOff.get(5, TimeUnit.SECONDS);
+      assertFalse(c.awaitingHandoff(id));
+      assertFalse(AngerServer.registry.isResident(id));
+      assertEquals(1, c.handedOff.sum());
+      settled.get(5, TimeUnit.SECONDS);
+    } finally {
+      owner.stop(0);
+    }
+  }
+}
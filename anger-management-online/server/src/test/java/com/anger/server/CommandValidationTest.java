@@ -0,0 +1,86 @@
+// file: src/test/java/com/anger/server/CommandValidationTest.java
+package com.anger.server;
+
+import static com.anger.server.RoomCodecTest.assertSameGame;
+import static com.anger.server.RoomCodecTest.room;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CommandValidationTest {
+
+  // P1 has won the first round and owes an action.
+  private static AngerServer.Room awaitingAction() {
+    AngerServer.Room r = room("r1");
+    AngerServer.join(r, "Player 1");
+    assertSame(AngerServer.OK, AngerServer.move(r, "P1", "rock"));
+    assertSame(AngerServer.OK, AngerServer.move(r, "P2", "scissors"));
+    assertEquals("P1", r.pendingActionFor);
+    return r;
+  }
+
+  @Test void moveRejectsAnUnknownPlayerWithoutChangingTheRoom() {
+    AngerServer.Room r = room("r1");
+    long seq = r.seq;
+    for (String p : new String[] {null, "", "P3", "p1", "P1 "}) {
+      assertSame(AngerServer.BAD_PLAYER, AngerServer.move(r, p, "rock"), String.valueOf(p));
+    }
+    assertEquals("", r.p1Move);
+    assertEquals("", r.p2Move);
+    assertEquals(seq, r.seq, "nothing published");
+  }
+
+  @Test void moveRejectsAnUnknownMoveWithoutChangingTheRoom() {
+    AngerServer.Room r = room("r1");
+    for (String m : new String[] {null, "", "Rock", "lizard", "Punch"}) {
+      assertSame(AngerServer.BAD_MOVE, AngerServer.move(r, "P1", m), String.valueOf(m));
+    }
+    assertEquals("", r.p1Move);
+    assertEquals(0, r.seq);
+  }
+
+  @Test void actionRejectsBadInputBeforeCheckingTheTurn() {
+    AngerServer.Room r = awaitingAction();
+    AngerServer.Room before = awaitingAction();
+    assertSame(AngerServer.BAD_PLAYER, AngerServer.action(r, "P3", "Kick"));
+    assertSame(AngerServer.BAD_PLAYER, AngerServer.action(r, null, "Kick"));
+    assertSame(AngerServer.BAD_ACTION, AngerServer.action(r, "P1", "Headbutt"));
+    assertSame(AngerServer.BAD_ACTION, AngerServer.action(r, "P1", null));
+    assertSame(AngerServer.BAD_ACTION, AngerServer.action(r, "P2", "rock"));
+    assertSame(AngerServer.NOT_YOUR_TURN, AngerServer.action(r, "P2", "Kick"));
+    assertSameGame(before, r);
+  }
+
+  @Test void validCommandsStillPlayARound() {
+    AngerServer.Room r = awaitingAction();
+    int round = r.round;
+    assertSame(AngerServer.OK, AngerServer.action(r, "P1", "Punch"));
+    assertEquals(round + 1, r.round);
+    assertNull(r.pendingActionFor);
+    assertEquals("", r.p1Move);
+    assertSame(AngerServer.NOT_YOUR_TURN, AngerServer.action(r, "P1", "Punch"), "one action per win");
+  }
+
+  @Test void replayRejectsTheSameCommands(@TempDir Path dir) throws IOException {
+    AngerServer.Config cfg = new AngerServer.Config();
+    cfg.journalDir = dir.toString();
+    cfg.journalSegmentMb = 1;
+    cfg.journalFsync = Journal.Fsync.NONE;
+    try (Journal j = Journal.open(cfg, new RoomRegistry(10, Long.MAX_VALUE))) {
+      j.append(Journal.record(Journal.JOIN, "r1", "Player 1"));
+      j.append(Journal.record(Journal.MOVE, "r1", "P3", "rock"));
+      j.append(Journal.record(Journal.MOVE, "r1", "P1", "lizard"));
+      j.append(Journal.record(Journal.MOVE, "r1", "P1", "rock"));
+      j.append(Journal.record(Journal.MOVE, "r1", "P2", "scissors"));
+      j.append(Journal.record(Journal.ACTION, "r1", "P1", "Headbutt"));
+    }
+    RoomRegistry registry = new RoomRegistry(10, Long.MAX_VALUE);
+    try (Journal j = Journal.open(cfg, registry)) {
+      assertEquals(6, j.replayed);
+      assertSameGame(awaitingAction(), registry.get("r1"));
+    }
+  }
+}
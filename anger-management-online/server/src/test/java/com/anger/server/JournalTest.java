@@ -0,0 +1,220 @@
+// file: src/test/java/com/anger/server/JournalTest.java
+package com.anger.server;
+
+import static com.anger.server.RoomCodecTest.assertSameGame;
+import static com.anger.server.RoomCodecTest.room;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTest {
+  private static final int HEADER = 8; // length:int crc32c:int
+
+  @TempDir Path dir;
+
+  @AfterEach void uninstall() {
+    AngerServer.journal = null;
+  }
+
+  private Journal open(RoomRegistry registry) throws IOException {
+    AngerServer.Config cfg = new AngerServer.Config();
+    cfg.journalDir = dir.toString();
+    cfg.journalSegmentMb = 1;
+    cfg.journalFsync = Journal.Fsync.NONE;
+    cfg.journalCompactSegments = 2;
+    return Journal.open(cfg, registry);
+  }
+
+  private static RoomRegistry registry() {
+    return new RoomRegistry(1_000, Long.MAX_VALUE);
+  }
+
+  private Path segment(long index) {
+    return dir.resolve(String.format("%020d.seg", index));
+  }
+
+  // The same commands applied directly, for comparison with what replay rebuilds.
+  private static AngerServer.Room played(String id) {
+    AngerServer.Room r = room(id);
+    AngerServer.join(r, "Player 1");
+    AngerServer.move(r, "P1", "rock");
+    AngerServer.move(r, "P2", "scissors");
+    AngerServer.action(r, "P1", "Kick");
+    AngerServer.move(r, "P2", "paper");
+    return r;
+  }
+
+  private static void play(Journal j, String id) {
+    j.append(Journal.record(Journal.JOIN, id, "Player 1"));
+    j.append(Journal.record(Journal.MOVE, id, "P1", "rock"));
+    j.append(Journal.record(Journal.MOVE, id, "P2", "scissors"));
+    j.append(Journal.record(Journal.ACTION, id, "P1", "Kick"));
+    j.append(Journal.record(Journal.MOVE, id, "P2", "paper"));
+  }
+
+  private static boolean resident(RoomRegistry registry, String id) {
+    return registry.rooms().stream().anyMatch(r -> r.id.equals(id));
+  }
+
+  private static AngerServer.Room replayed(RoomRegistry registry, String id) {
+    assertTrue(resident(registry, id), "room " + id + " was not replayed");
+    return registry.get(id);
+  }
+
+  @Test void reopeningReplaysCommandsInOrder() throws IOException {
+    try (Journal j = open(registry())) {
+      play(j, "a");
+      j.append(Journal.record(Journal.JOIN, "b", "Player 2"));
+      j.append(Journal.record(Journal.EVICT, "b"));
+    }
+    RoomRegistry registry = registry();
+    try (Journal j = open(registry)) {
+      assertEquals(7, j.replayed);
+      assertFalse(resident(registry, "b"), "evicted room stays gone");
+      assertSameGame(played("a"), replayed(registry, "a"));
+    }
+  }
+
+  @Test void corruptRecordEndsReplayAndIsOverwritten() throws IOException {
+    try (Journal j = open(registry())) {
+      j.append(Journal.record(Journal.JOIN, "a", "Player 1"));
+      j.append(Journal.record(Journal.MOVE, "a", "P1", "rock"));
+      j.append(Journal.record(Journal.MOVE, "a", "P2", "paper"));
+    }
+    try (RandomAccessFile f = new RandomAccessFile(segment(0).toFile(), "rw")) {
+      int second = HEADER + f.readInt();
+      f.seek(second + HEADER + 3);
+      int b = f.read();
+      f.seek(second + HEADER + 3);
+      f.write(b ^ 0x40); // payload no longer matches its CRC
+    }
+    RoomRegistry registry = registry();
+    try (Journal j = open(registry)) {
+      assertEquals(1, j.replayed);
+      assertEquals(1, j.segmentCount());
+      AngerServer.Room r = replayed(registry, "a");
+      assertEquals("", r.p1Move);
+      assertEquals("", r.p2Move, "records after the corrupt one are cut off too");
+      j.append(Journal.record(Journal.MOVE, "a", "P1", "scissors"));
+    }
+    registry = registry();
+    try (Journal j = open(registry)) {
+      assertEquals(2, j.replayed);
+      AngerServer.Room r = replayed(registry, "a");
+      assertEquals("scissors", r.p1Move);
+      assertEquals("", r.p2Move);
+    }
+  }
+
+  @Test void tornTailIsCutAtTheLastGoodRecord() throws IOException {
+    try (Journal j = open(registry())) {
+      play(j, "a");
+    }
+    try (RandomAccessFile f = new RandomAccessFile(segment(0).toFile(), "rw")) {
+      int end = 0;
+      for (int len; (len = readIntAt(f, end)) != 0; ) end += HEADER + len;
+      // A write that stopped part-way: header and a few payload bytes of a 40-byte record.
+      f.seek(end);
+      f.writeInt(40);
+      f.writeInt(0x12345678);
+      f.write(new byte[] {Journal.MOVE, 1, 'a', 2});
+    }
+    RoomRegistry registry = registry();
+    try (Journal j = open(registry)) {
+      assertEquals(5, j.replayed);
+      assertEquals(1, j.segmentCount(), "the next record goes where the torn one was");
+      assertSameGame(played("a"), replayed(registry, "a"));
+      j.append(Journal.record(Journal.MOVE, "a", "P1", "paper"));
+    }
+    registry = registry();
+    try (Journal j = open(registry)) {
+      assertEquals(6, j.replayed);
+      AngerServer.Room expected = played("a");
+      AngerServer.move(expected, "P1", "paper");
+      assertSameGame(expected, replayed(registry, "a"));
+    }
+  }
+
+  private static int readIntAt(RandomAccessFile f, long at) throws IOException {
+    f.seek(at);
+    return f.readInt();
+  }
+
+  @Test void compactionReplacesHistoryWithSnapshots() throws Exception {
+    RoomRegistry registry = registry();
+    Journal j = open(registry);
+    AngerServer.journal = j;
+    AngerServer.Room a = registry.get("a");
+    runOnMailbox(a, () -> {
+      AngerServer.join(a, "Player 1");
+      AngerServer.move(a, "P1", "rock");
+      AngerServer.move(a, "P2", "scissors");
+      AngerServer.action(a, "P1", "Kick");
+      AngerServer.move(a, "P2", "paper");
+    });
+    fillUntilCompacted(j);
+    assertEquals(0, j.snapshotFailures.sum());
+    assertFalse(Files.exists(segment(0)), "oldest segment deleted");
+    AngerServer.Room expected = a.mailbox.ask(() -> a).join();
+    AngerServer.journal = null;
+    j.close();
+
+    RoomRegistry reopened = registry();
+    try (Journal k = open(reopened)) {
+      AngerServer.Room r = replayed(reopened, "a");
+      assertEquals(expected.seq, r.seq);
+      assertEquals(expected.round, r.round);
+      assertEquals(expected.p1.score, r.p1.score);
+      assertEquals(expected.p2Move, r.p2Move);
+    }
+  }
+
+  @Test void compactionSkipsARoomItCannotSnapshotAndKeepsItsHistory() throws Exception {
+    RoomRegistry registry = registry();
+    Journal j = open(registry);
+    AngerServer.journal = j;
+    AngerServer.Room good = registry.get("good"), bad = registry.get("bad");
+    for (AngerServer.Room r : new AngerServer.Room[] {good, bad}) {
+      runOnMailbox(r, () -> {
+        AngerServer.join(r, "Player 1");
+        AngerServer.move(r, "P1", "rock");
+        AngerServer.move(r, "P2", "scissors");
+        AngerServer.action(r, "P1", "Kick");
+        AngerServer.move(r, "P2", "paper");
+      });
+    }
+    runOnMailbox(bad, () -> bad.p1Move = null); // cannot be encoded
+    fillUntilCompacted(j);
+    assertTrue(j.snapshotFailures.sum() >= 1);
+    assertTrue(Files.exists(segment(0)), "segment holding the bad room's history kept");
+    AngerServer.journal = null;
+    j.close();
+
+    RoomRegistry reopened = registry();
+    try (Journal k = open(reopened)) {
+      assertSameGame(played("good"), replayed(reopened, "good"));
+      assertSameGame(played("bad"), replayed(reopened, "bad"));
+    }
+  }
+
+  private static void runOnMailbox(AngerServer.Room r, Runnable task) {
+    r.mailbox.ask(() -> { task.run(); return null; }).join();
+  }
+
+  // Other rooms' commands until more than journalCompactSegments segments exist, then waits.
+  private static void fillUntilCompacted(Journal j) throws InterruptedException {
+    for (int i = 0; j.segmentCount() <= 2; i++) j.append(Journal.record(Journal.JOIN, "filler-" + (i & 63), "x"));
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    while (j.compactions.sum() == 0) {
+      if (System.nanoTime() > deadline) fail("no compaction within 10s");
+      j.append(Journal.record(Journal.JOIN, "filler", "x"));
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+// file: src/test/java/com/anger/server/JsonTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class JsonTest {
+  private static final Json.Fields MOVE = new Json.Fields("room", "player", "move");
+
+  private static String[] read(String json) {
+    byte[] b = json.getBytes(StandardCharsets.UTF_8);
+    return Json.read(b, 0, b.length, MOVE);
+  }
+
+  @Test void picksWantedFieldsInAnyOrder() {
+    assertArrayEquals(new String[] {"r1", "P1", "rock"},
+        read(" {\"move\":\"rock\", \"player\" : \"P1\",\n\"room\":\"r1\"} "));
+  }
+
+  @Test void absentFieldsAndNullAreNull() {
+    assertArrayEquals(new String[] {null, "P2", null}, read("{\"player\":\"P2\",\"move\":null}"));
+    assertArrayEquals(new String[3], read("{}"));
+  }
+
+  @Test void skipsUnwantedValuesOfEveryShape() {
+    String[] f = read("{\"a\":{\"b\":[1,{\"c\":\"}]\\\"\"}],\"d\":null},\"e\":-1.5e+3,\"t\":true,"
+        + "\"s\":\"x\\\"y\",\"room\":\"r\"}");
+    assertEquals("r", f[0]);
+  }
+
+  @Test void wantedNonStringValuesKeepTheirText() {
+    assertArrayEquals(new String[] {"42", "true", "{\"x\":[1]}"},
+        read("{\"room\":42,\"player\":true,\"move\":{\"x\":[1]}}"));
+  }
+
+  @Test void decodesEscapes() {
+    assertEquals("a\"b\\c/d\b\f\n\r\té✊",
+        read("{\"room\":\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\\u00e9✊\"}")[0]);
+  }
+
+  @Test void matchesKeysExactly() {
+    assertArrayEquals(new String[3], read("{\"roomy\":\"a\",\"Room\":\"b\",\"roo\":\"c\"}"));
+  }
+
+  @Test void rejectsMalformedInput() {
+    String[] bad = {
+      "", "{", "{\"room\"}", "{\"room\":}", "{\"room\":rock}", "{\"room\":01}", "{\"room\":nul}",
+      "{\"room\":\"r\"} x", "{\"room\":\"r\",}", "{\"room\":\"a\nb\"}", "{\"room\":\"\\x\"}",
+      "{\"room\":\"\\u12\"}", "{\"room\":\"r\"", "[]", "{\"room\":1.}", "{\"room\":-}",
+    };
+    for (String s : bad) assertThrows(IllegalArgumentException.class, () -> read(s), s);
+  }
+
+  @Test void readsAnArrayOfObjects() {
+    byte[] b = "[{\"room\":\"a\",\"move\":\"rock\"}, {\"player\":\"P2\"}]".getBytes(StandardCharsets.UTF_8);
+    List<String[]> out = Json.readArray(b, 0, b.length, MOVE);
+    assertEquals(2, out.size());
+    assertArrayEquals(new String[] {"a", null, "rock"}, out.get(0));
+    assertArrayEquals(new String[] {null, "P2", null}, out.get(1));
+
+    byte[] empty = " [ ] ".getBytes(StandardCharsets.UTF_8);
+    assertTrue(Json.readArray(empty, 0, empty.length, MOVE).isEmpty());
+    byte[] trailing = "[{}],".getBytes(StandardCharsets.UTF_8);
+    assertThrows(IllegalArgumentException.class, () -> Json.readArray(trailing, 0, trailing.length, MOVE));
+  }
+
+  @Test void readsOnlyTheGivenRange() {
+    byte[] b = "xx{\"room\":\"r\"}yy".getBytes(StandardCharsets.UTF_8);
+    assertEquals("r", Json.read(b, 2, b.length - 4, MOVE)[0]);
+  }
+
+  @Test void writerSeparatesMembersAndEscapes() {
+    String json = Json.writer().beginObject()
+        .field("s", "q\"b\\n\n\u0001é✊\uD83D\uDE00")
+        .field("n", Long.MIN_VALUE)
+        .field("z", 0)
+        .field("b", false)
+        .name("a").beginArray().value(1).value((String) null).raw("{\"k\":1}").endArray()
+        .fields(new Object[] {"x", 2.5, "y", "v"})
+        .endObject().toString();
+    assertEquals("{\"s\":\"q\\\"b\\\\n\\n\\u0001é✊\uD83D\uDE00\",\"n\":-9223372036854775808,\"z\":0,"
+        + "\"b\":false,\"a\":[1,null,{\"k\":1}],\"x\":2.5,\"y\":\"v\"}", json);
+  }
+
+  @Test void writtenStringsReadBack() {
+    StringBuilder all = new StringBuilder();
+    for (char c = 0; c < 0x800; c++) all.append(c);
+    all.append("✊\uD83D\uDE00");
+    byte[] b = Json.writer().beginObject().field("move", all.toString()).endObject().toByteArray();
+    assertEquals(all.toString(), Json.read(b, 0, b.length, MOVE)[2]);
+  }
+}
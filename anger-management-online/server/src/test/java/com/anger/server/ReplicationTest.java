@@ -0,0 +1,209 @@
+// file: src/test/java/com/anger/server/ReplicationTest.java
+package com.anger.server;
+
+import static com.anger.server.RoomCodecTest.assertSameGame;
+import static com.anger.server.RoomCodecTest.room;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/** Both ends of the wire protocol, each against a hand-driven peer on a loopback socket. */
+class ReplicationTest {
+  private RoomRegistry saved;
+
+  @BeforeEach void freshRegistry() {
+    saved = AngerServer.registry;
+    AngerServer.registry = new RoomRegistry(1_000, Long.MAX_VALUE);
+  }
+
+  @AfterEach void restoreRegistry() {
+    AngerServer.registry = saved;
+  }
+
+  private static Replication leader() throws IOException {
+    AngerServer.Config cfg = new AngerServer.Config();
+    cfg.replicationPort = 0;
+    cfg.replicationBuffer = 1024;
+    return Replication.start(cfg);
+  }
+
+  private static byte[] move(String room, String player, String move) {
+    return Journal.record(Journal.MOVE, room, player, move);
+  }
+
+  /** A follower speaking the protocol by hand. */
+  private static final class Peer implements Closeable {
+    final Socket socket = new Socket();
+    final DataInputStream in;
+    final DataOutputStream out;
+    final List<byte[]> snapshots = new ArrayList<>();
+    long epoch, first;
+
+    Peer(int port, long epoch, long next) throws IOException {
+      socket.connect(new InetSocketAddress("127.0.0.1", port), 2_000);
+      socket.setSoTimeout(5_000);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(socket.getOutputStream());
+      out.writeLong(epoch);
+      out.writeLong(next);
+      out.flush();
+      byte frame;
+      while ((frame = in.readByte()) == 'S') {
+        in.readLong();
+        snapshots.add(record());
+      }
+      assertEquals('E', frame);
+      this.epoch = in.readLong();
+      this.first = in.readLong();
+    }
+
+    /** Reads batches, skipping heartbeats, until {@code count} records starting at {@code from} arrived. */
+    List<byte[]> take(long from, int count) throws IOException {
+      List<byte[]> got = new ArrayList<>();
+      while (got.size() < count) {
+        assertEquals('B', in.readByte());
+        assertEquals(from + got.size(), in.readLong(), "batches are contiguous");
+        for (int n = in.readInt(); n > 0; n--) got.add(record());
+        out.writeLong(from + got.size() - 1);
+        out.flush();
+      }
+      assertEquals(count, got.size());
+      return got;
+    }
+
+    private byte[] record() throws IOException {
+      byte[] b = new byte[in.readInt()];
+      in.readFully(b);
+      return b;
+    }
+
+    @Override public void close() throws IOException { socket.close(); }
+  }
+
+  @Test void newFollowerIsBootstrappedThenStreamed() throws Exception {
+    AngerServer.Room r = AngerServer.registry.get("r1");
+    r.mailbox.ask(() -> AngerServer.join(r, "Player 1")).join();
+    Replication leader = leader();
+
+    try (Peer p = new Peer(leader.port(), -1, 0)) {
+      assertEquals(1, leader.bootstraps.sum());
+      assertEquals(1, p.snapshots.size());
+      AngerServer.Room copy = room("r1");
+      ByteBuffer snap = ByteBuffer.wrap(p.snapshots.get(0));
+      assertEquals(Journal.SNAPSHOT, snap.get());
+      assertEquals("r1", RoomCodec.getString(snap));
+      RoomCodec.decode(snap, copy);
+      assertSameGame(r, copy);
+
+      byte[] a = move("r1", "P1", "rock"), b = move("r1", "P2", "paper");
+      leader.append(a);
+      leader.append(b);
+      List<byte[]> got = p.take(p.first, 2);
+      assertArrayEquals(a, got.get(0));
+      assertArrayEquals(b, got.get(1));
+    }
+  }
+
+  @Test void reconnectingFollowerResumesWhereItLeftOff() throws Exception {
+    Replication leader = leader();
+    long epoch, next;
+    try (Peer p = new Peer(leader.port(), -1, 0)) {
+      for (int i = 0; i < 3; i++) leader.append(move("r" + i, "P1", "rock"));
+      p.take(p.first, 3);
+      epoch = p.epoch;
+      next = p.first + 3;
+    }
+    byte[] missed1 = move("r1", "P2", "paper"), missed2 = move("r2", "P2", "scissors");
+    leader.append(missed1);
+    leader.append(missed2);
+
+    try (Peer p = new Peer(leader.port(), epoch, next)) {
+      assertEquals(1, leader.resumes.sum());
+      assertEquals(1, leader.bootstraps.sum(), "no second bootstrap");
+      assertTrue(p.snapshots.isEmpty());
+      assertEquals(next, p.first);
+      List<byte[]> got = p.take(next, 2);
+      assertArrayEquals(missed1, got.get(0));
+      assertArrayEquals(missed2, got.get(1));
+    }
+  }
+
+  @Test void followerOfAnotherLeaderOrTooFarBehindStartsOver() throws Exception {
+    Replication leader = leader();
+    long epoch;
+    try (Peer p = new Peer(leader.port(), -1, 0)) {
+      epoch = p.epoch;
+    }
+    try (Peer p = new Peer(leader.port(), epoch ^ 1, 0)) {
+      assertEquals(2, leader.bootstraps.sum());
+    }
+    for (int i = 0; i < 5_000; i++) leader.append(move("r1", "P1", "rock")); // well past the ring
+    try (Peer p = new Peer(leader.port(), epoch, 0)) {
+      assertEquals(3, leader.bootstraps.sum());
+      assertEquals(5_000, p.first, "streams from the head after the snapshots");
+    }
+    assertEquals(0, leader.resumes.sum());
+  }
+
+  @Test void followerSkipsCommandsItsSnapshotAlreadyHoldsAndResumes() throws Exception {
+    AngerServer.Room expected1 = room("r1"), expected2 = room("r2");
+    AngerServer.join(expected1, "Player 1");
+    AngerServer.move(expected1, "P1", "rock"); // command 3 on the wire, already in the snapshot
+    byte[] snapshot = Journal.snapshot(expected1);
+    AngerServer.move(expected1, "P2", "scissors");
+    AngerServer.move(expected2, "P1", "paper");
+
+    try (ServerSocket fake = new ServerSocket(0)) {
+      fake.setSoTimeout(5_000);
+      AngerServer.Config cfg = new AngerServer.Config();
+      cfg.replicateFrom = "127.0.0.1:" + fake.getLocalPort();
+      Replication follower = Replication.start(cfg);
+      try {
+        try (Socket s = fake.accept()) {
+          DataInputStream in = new DataInputStream(s.getInputStream());
+          DataOutputStream out = new DataOutputStream(s.getOutputStream());
+          assertEquals(-1, in.readLong(), "a new follower knows no leader");
+          assertEquals(0, in.readLong());
+          out.writeByte('S');
+          out.writeLong(4);
+          out.writeInt(snapshot.length);
+          out.write(snapshot);
+          out.writeByte('E');
+          out.writeLong(77);
+          out.writeLong(3);
+          out.writeByte('B');
+          out.writeLong(3);
+          out.writeInt(3);
+          for (byte[] rec : new byte[][] {move("r1", "P1", "rock"), move("r2", "P1", "paper"), move("r1", "P2", "scissors")}) {
+            out.writeInt(rec.length);
+            out.write(rec);
+          }
+          out.flush();
+          assertEquals(5, in.readLong(), "acks the last command of the batch");
+        }
+
+        // The follower reconnects on its own and asks for what comes next.
+        try (Socket s = fake.accept()) {
+          DataInputStream in = new DataInputStream(s.getInputStream());
+          assertEquals(77, in.readLong());
+          assertEquals(6, in.readLong());
+        }
+        AngerServer.Room r1 = AngerServer.registry.get("r1"), r2 = AngerServer.registry.get("r2");
+        assertSameGame(expected1, r1.mailbox.ask(() -> r1).join());
+        assertSameGame(expected2, r2.mailbox.ask(() -> r2).join());
+        assertEquals(3, follower.applied.sum(), "the snapshot and the two commands it does not hold");
+      } finally {
+        follower.promote();
+      }
+    }
+  }
+}
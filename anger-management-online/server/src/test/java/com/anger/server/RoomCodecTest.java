@@ -0,0 +1,91 @@
+// file: src/test/java/com/anger/server/RoomCodecTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class RoomCodecTest {
+
+  static AngerServer.Room room(String id) {
+    AngerServer.Room r = new AngerServer.Room();
+    r.id = id;
+    return r;
+  }
+
+  static void assertSameGame(AngerServer.Room expected, AngerServer.Room actual) {
+    assertEquals(expected.seq, actual.seq, "seq");
+    assertEquals(expected.round, actual.round, "round");
+    assertSamePlayer(expected.p1, actual.p1);
+    assertSamePlayer(expected.p2, actual.p2);
+    assertEquals(expected.p1Move, actual.p1Move, "p1Move");
+    assertEquals(expected.p2Move, actual.p2Move, "p2Move");
+    assertEquals(expected.pendingActionFor, actual.pendingActionFor, "pendingActionFor");
+  }
+
+  private static void assertSamePlayer(AngerServer.PlayerState expected, AngerServer.PlayerState actual) {
+    assertEquals(expected.name, actual.name);
+    assertEquals(expected.score, actual.score, expected.name + " score");
+    assertEquals(expected.anger, actual.anger, expected.name + " anger");
+    assertEquals(expected.satisfaction, actual.satisfaction, expected.name + " satisfaction");
+    assertEquals(expected.confidence, actual.confidence, expected.name + " confidence");
+  }
+
+  @Test void roundTripsEveryField() {
+    AngerServer.Room r = room("r1");
+    r.seq = 1L << 40;
+    r.round = 17;
+    r.p1.score = 49; r.p1.anger = 100; r.p1.satisfaction = 0; r.p1.confidence = 90;
+    r.p2.name = "Jürgen ✊";
+    r.p2.score = 3; r.p2.anger = 0; r.p2.satisfaction = 100; r.p2.confidence = 10;
+    r.p1Move = "rock";
+    r.p2Move = "";
+    r.pendingActionFor = "P2";
+
+    byte[] encoded = RoomCodec.encode(r);
+    assertTrue(encoded.length <= RoomCodec.maxSize(r));
+    AngerServer.Room copy = room("r1");
+    RoomCodec.decode(ByteBuffer.wrap(encoded), copy);
+    assertSameGame(r, copy);
+  }
+
+  @Test void noPendingActionRoundTripsAsNull() {
+    AngerServer.Room r = room("r1");
+    AngerServer.Room copy = room("r1");
+    copy.pendingActionFor = "P1";
+    RoomCodec.decode(ByteBuffer.wrap(RoomCodec.encode(r)), copy);
+    assertNull(copy.pendingActionFor);
+  }
+
+  @Test void restoreRestartsEventNumberingAtTheRestoredSeq() {
+    AngerServer.Room r = room("r1");
+    AngerServer.join(r, "Player 1");
+    AngerServer.move(r, "P1", "paper");
+    assertNotNull(r.lastPublished);
+
+    AngerServer.Room other = room("r1");
+    other.seq = 5;
+    byte[] encoded = RoomCodec.encode(other);
+    RoomCodec.restore(ByteBuffer.wrap(encoded), r);
+    assertEquals(5, r.seq);
+    assertNull(r.lastPublished, "next publish is a full snapshot");
+    assertNull(r.replay);
+    assertEquals("", r.p1Move);
+  }
+
+  @Test void rejectsAnUnknownVersion() {
+    byte[] encoded = RoomCodec.encode(room("r1"));
+    encoded[0] = 99;
+    assertThrows(IllegalArgumentException.class, () -> RoomCodec.decode(ByteBuffer.wrap(encoded), room("r1")));
+  }
+
+  @Test void varintsRoundTripAtTheEdges() {
+    long[] values = {0, 1, -1, 63, -64, 64, 127, 128, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+    ByteBuffer b = ByteBuffer.allocate(values.length * 10);
+    for (long v : values) RoomCodec.putVarLong(b, v);
+    b.flip();
+    for (long v : values) assertEquals(v, RoomCodec.getVarLong(b));
+    assertFalse(b.hasRemaining());
+  }
+}
@@ -0,0 +1,69 @@
+// file: src/test/java/com/anger/server/RoomRegistryTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+class RoomRegistryTest {
+  private static final long TTL = 60_000;
+
+  // The reaper queues evictions on each room's mailbox; this waits until they have run.
+  private static void reap(RoomRegistry registry, AngerServer.Room r, long now) {
+    registry.evictIdle(now);
+    r.mailbox.ask(() -> null).join();
+  }
+
+  @Test void refusesNewRoomsWhenFull() {
+    RoomRegistry registry = new RoomRegistry(2, TTL);
+    AngerServer.Room a = registry.get("a");
+    assertNotNull(registry.get("b"));
+    assertNull(registry.get("c"));
+    assertEquals(1, registry.rejected.sum());
+    assertSame(a, registry.get("a"), "existing rooms are still served");
+    assertEquals(2, registry.size());
+  }
+
+  @Test void evictsRoomsIdlePastTheTtl() {
+    RoomRegistry registry = new RoomRegistry(2, TTL);
+    AngerServer.Room a = registry.get("a");
+    long now = a.lastActivity + TTL;
+    reap(registry, a, now - 1);
+    assertEquals(1, registry.size(), "not idle long enough");
+
+    reap(registry, a, now);
+    assertTrue(a.evicted);
+    assertEquals(1, registry.evicted.sum());
+    assertEquals(0, registry.size());
+    AngerServer.Room again = registry.get("a");
+    assertNotSame(a, again, "the id starts afresh");
+    assertEquals(2, registry.created.sum());
+  }
+
+  @Test void keepsRoomsWithSubscribers() {
+    RoomRegistry registry = new RoomRegistry(2, TTL);
+    AngerServer.Room a = registry.get("a");
+    a.clients.add(new SseClient(a, null, OutputStream.nullOutputStream()));
+    reap(registry, a, a.lastActivity + 10 * TTL);
+    assertFalse(a.evicted);
+    assertSame(a, registry.get("a"));
+  }
+
+  @Test void aRoomTouchedAgainIsKept() {
+    RoomRegistry registry = new RoomRegistry(2, TTL);
+    AngerServer.Room a = registry.get("a");
+    long now = a.lastActivity + TTL;
+    CountDownLatch hold = new CountDownLatch(1);
+    a.mailbox.execute(() -> {
+      try { hold.await(); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    });
+    registry.evictIdle(now);
+    a.lastActivity = now; // a request arrived before the queued eviction ran
+    hold.countDown();
+    a.mailbox.ask(() -> null).join();
+    assertFalse(a.evicted);
+    assertSame(a, registry.get("a"));
+  }
+}
@@ -0,0 +1,170 @@
+// file: src/test/java/com/anger/server/SseClientTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class SseClientTest {
+  private static final Pattern EVENT = Pattern.compile("id: (\\d+)\nevent: (\\w+)\n");
+
+  private Executor savedWriters;
+  private int savedCapacity;
+  private SseClient.Overflow savedOverflow;
+  private long savedTimeout;
+
+  // Drain tasks wait here until the test runs them, as if every writer thread were busy.
+  private final ArrayDeque<Runnable> pending = new ArrayDeque<>();
+
+  @BeforeEach void save() {
+    savedWriters = SseClient.writers;
+    savedCapacity = SseClient.queueCapacity;
+    savedOverflow = SseClient.overflow;
+    savedTimeout = SseClient.writeTimeoutNanos;
+    SseClient.writers = pending::add;
+    SseClient.queueCapacity = 4;
+  }
+
+  @AfterEach void restore() {
+    SseClient.writers = savedWriters;
+    SseClient.queueCapacity = savedCapacity;
+    SseClient.overflow = savedOverflow;
+    SseClient.writeTimeoutNanos = savedTimeout;
+  }
+
+  private static final class Client extends SseClient {
+    volatile boolean transportClosed;
+
+    Client(AngerServer.Room room, OutputStream os) { super(room, null, os); }
+
+    @Override void closeTransport() { transportClosed = true; }
+  }
+
+  private static Client subscribed(OutputStream os) {
+    AngerServer.Room r = RoomCodecTest.room("r1");
+    Client c = new Client(r, os);
+    r.clients.add(c);
+    Metrics.subscribers.increment();
+    return c;
+  }
+
+  private static EventFrame delta(long seq) { return EventFrame.of(seq, "delta", "{}"); }
+
+  private static EventFrame state(long seq) { return EventFrame.of(seq, "state", "{}"); }
+
+  private void runWriters() {
+    for (Runnable r; (r = pending.poll()) != null; ) r.run();
+  }
+
+  private static List<String> events(ByteArrayOutputStream out) {
+    List<String> got = new ArrayList<>();
+    Matcher m = EVENT.matcher(out.toString(StandardCharsets.UTF_8));
+    while (m.find()) got.add(m.group(2) + " " + m.group(1));
+    return got;
+  }
+
+  @Test void writesQueuedFramesInOrderWithOneDrain() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Client c = subscribed(out);
+    for (long s = 1; s <= 3; s++) assertTrue(c.enqueue(delta(s), () -> fail("no gap, no snapshot")));
+    assertEquals(1, pending.size(), "one drain per burst");
+    runWriters();
+    assertEquals(List.of("delta 1", "delta 2", "delta 3"), events(out));
+  }
+
+  @Test void coalesceReplacesABacklogWithOneSnapshot() {
+    SseClient.overflow = SseClient.Overflow.COALESCE;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Client c = subscribed(out);
+    for (long s = 1; s <= 6; s++) {
+      long seq = s;
+      assertTrue(c.enqueue(delta(seq), () -> state(seq)));
+    }
+    runWriters();
+    assertEquals(List.of("state 5", "delta 6"), events(out), "deltas are never applied across the gap");
+    assertEquals(4, c.dropped);
+  }
+
+  @Test void dropOldestResyncsWithASnapshot() {
+    SseClient.overflow = SseClient.Overflow.DROP_OLDEST;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Client c = subscribed(out);
+    for (long s = 1; s <= 5; s++) {
+      long seq = s;
+      assertTrue(c.enqueue(delta(seq), () -> state(seq)));
+    }
+    runWriters();
+    assertEquals(List.of("delta 2", "delta 3", "delta 4", "state 5"), events(out));
+    assertEquals(1, c.dropped);
+  }
+
+  @Test void disconnectDropsTheClientOnOverflow() {
+    SseClient.overflow = SseClient.Overflow.DISCONNECT;
+    Client c = subscribed(new ByteArrayOutputStream());
+    for (long s = 1; s <= 4; s++) assertTrue(c.enqueue(delta(s), null));
+    assertFalse(c.enqueue(delta(5), null));
+    assertTrue(c.room.clients.isEmpty(), "detached from the room");
+    runWriters();
+    assertTrue(c.transportClosed);
+    assertFalse(c.enqueue(delta(6), null));
+  }
+
+  @Test void stalledWriteIsAbortedAndFreesTheWriterThread() throws Exception {
+    ExecutorService one = Executors.newSingleThreadExecutor();
+    SseClient.writers = one;
+    SseClient.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    try {
+      CountDownLatch stuck = new CountDownLatch(1);
+      // A peer that stopped reading: the write blocks until the thread is interrupted.
+      OutputStream stalled = new OutputStream() {
+        @Override public void write(int b) throws IOException { write(new byte[] {(byte) b}, 0, 1); }
+        @Override public void write(byte[] b, int off, int len) throws IOException {
+          stuck.countDown();
+          try {
+            Thread.sleep(Long.MAX_VALUE);
+          } catch (InterruptedException e) {
+            throw new InterruptedIOException("aborted");
+          }
+        }
+      };
+      Client slow = subscribed(stalled);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      Client other = subscribed(out);
+      long slowBefore = Metrics.evictedSlow.sum();
+
+      assertTrue(slow.enqueue(delta(1), null));
+      assertTrue(stuck.await(5, TimeUnit.SECONDS));
+      assertTrue(other.enqueue(delta(1), null)); // queued behind the stuck write on the only writer
+      SseClient.abortStalled(System.nanoTime()); // too early: nothing is overdue yet
+      Thread.sleep(100);
+      SseClient.abortStalled(System.nanoTime());
+
+      one.submit(() -> { }).get(5, TimeUnit.SECONDS);
+      assertEquals(List.of("delta 1"), events(out), "the other subscriber is served");
+      assertEquals(slowBefore + 1, Metrics.evictedSlow.sum());
+      assertTrue(slow.transportClosed);
+      assertFalse(slow.enqueue(delta(2), null));
+      assertFalse(slow.room.clients.contains(slow));
+      assertFalse(one.submit(() -> Thread.currentThread().isInterrupted()).get(), "the writer thread is clean");
+    } finally {
+      one.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,135 @@
+// file: src/test/java/com/anger/server/StatePublisherTest.java
+package com.anger.server;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class StatePublisherTest {
+  private static final Object[] NO_EXTRAS = {};
+
+  private int savedSnapshotEvery, savedReplaySize, savedCapacity;
+
+  @BeforeEach void save() {
+    savedSnapshotEvery = StatePublisher.snapshotEvery;
+    savedReplaySize = StatePublisher.replaySize;
+    savedCapacity = SseClient.queueCapacity;
+    StatePublisher.snapshotEvery = 3;
+    StatePublisher.replaySize = 8;
+    SseClient.queueCapacity = 64;
+  }
+
+  @AfterEach void restore() {
+    StatePublisher.snapshotEvery = savedSnapshotEvery;
+    StatePublisher.replaySize = savedReplaySize;
+    SseClient.queueCapacity = savedCapacity;
+  }
+
+  /** Records what it is handed instead of queueing it for a writer. */
+  static final class Recorder extends SseClient {
+    final List<EventFrame> frames = new ArrayList<>();
+
+    Recorder(AngerServer.Room room) { super(room, null, OutputStream.nullOutputStream()); }
+
+    @Override boolean enqueue(EventFrame frame, Supplier<EventFrame> snapshot) {
+      frames.add(frame);
+      return true;
+    }
+
+    List<String> events() {
+      List<String> out = new ArrayList<>();
+      for (EventFrame f : frames) out.add(f.event + " " + f.id);
+      return out;
+    }
+  }
+
+  private static AngerServer.Room published(int events) {
+    AngerServer.Room r = new AngerServer.Room();
+    r.id = "r1";
+    for (int i = 0; i < events; i++) {
+      r.round++;
+      StatePublisher.publish(r, NO_EXTRAS);
+    }
+    return r;
+  }
+
+  private static Recorder resume(AngerServer.Room r, long lastEventId) {
+    Recorder c = new Recorder(r);
+    StatePublisher.subscribe(r, c, lastEventId, NO_EXTRAS);
+    return c;
+  }
+
+  @Test void deltasBetweenPeriodicSnapshots() {
+    AngerServer.Room r = published(7);
+    Recorder c = resume(r, 0);
+    assertEquals(List.of("state 1", "delta 2", "delta 3", "state 4", "delta 5", "delta 6", "state 7"), c.events());
+  }
+
+  @Test void deltaCarriesOnlyWhatChanged() throws IOException {
+    AngerServer.Room r = published(1);
+    r.p1Move = "rock";
+    r.p2.anger = 40;
+    StatePublisher.publish(r, new Object[] {"result", ""});
+    StatePublisher.publish(r, new Object[] {"result", ""});
+    assertEquals("{\"seq\":2,\"p2\":{\"anger\":40},\"p1Move\":\"rock\",\"result\":\"\"}", data(r.replay[2]));
+    assertEquals("{\"seq\":3,\"result\":\"\"}", data(r.replay[3]), "nothing changed but the extras");
+  }
+
+  private static String data(EventFrame f) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    f.writeTo(out);
+    String s = out.toString(StandardCharsets.UTF_8);
+    return s.substring(s.indexOf("data: ") + 6, s.length() - 2);
+  }
+
+  @Test void resumeWithinTheRingGetsExactlyTheMissedFrames() {
+    AngerServer.Room r = published(10);
+    Recorder c = resume(r, 6);
+    assertEquals(List.of("state 7", "delta 8", "delta 9", "state 10"), c.events());
+    assertTrue(r.clients.contains(c));
+  }
+
+  @Test void upToDateSubscriberGetsNothingUntilTheNextEvent() {
+    AngerServer.Room r = published(10);
+    Recorder c = resume(r, 10);
+    assertTrue(c.frames.isEmpty());
+    r.round++;
+    StatePublisher.publish(r, NO_EXTRAS);
+    assertEquals(List.of("delta 11"), c.events());
+  }
+
+  @Test void oldestFrameTheRingStillHoldsIsResumable() {
+    AngerServer.Room r = published(10);
+    assertEquals(8, resume(r, 2).frames.size(), "the ring holds 3..10");
+    assertEquals(List.of("state 10"), resume(r, 1).events(), "9 missed, 8 kept");
+  }
+
+  @Test void idsFromAnotherRunOrTheFutureGetASnapshot() {
+    AngerServer.Room r = published(10);
+    assertEquals(List.of("state 10"), resume(r, 50).events());
+    assertEquals(List.of("state 10"), resume(r, -1).events(), "a fresh subscriber");
+  }
+
+  @Test void moreMissedThanTheQueueHoldsGetsASnapshot() {
+    AngerServer.Room r = published(10);
+    SseClient.queueCapacity = 3;
+    assertEquals(List.of("state 10"), resume(r, 6).events(), "4 missed would overflow the queue");
+    assertEquals(3, resume(r, 7).frames.size());
+  }
+
+  @Test void withoutARingEveryResumeIsASnapshot() {
+    StatePublisher.replaySize = 0;
+    AngerServer.Room r = published(5);
+    assertNull(r.replay);
+    assertEquals(List.of("state 5"), resume(r, 4).events());
+  }
+}